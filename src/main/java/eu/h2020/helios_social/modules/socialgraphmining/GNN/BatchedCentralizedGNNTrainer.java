@@ -0,0 +1,252 @@
+package eu.h2020.helios_social.modules.socialgraphmining.GNN;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+import eu.h2020.helios_social.core.contextualegonetwork.Node;
+import eu.h2020.helios_social.core.contextualegonetwork.Utils;
+import mklab.JGNN.core.Matrix;
+import mklab.JGNN.core.Model;
+import mklab.JGNN.core.ModelBuilder;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.matrix.DenseMatrix;
+import mklab.JGNN.core.matrix.SparseSymmetric;
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.core.util.Loss;
+import mklab.JGNN.models.IdConverter;
+
+/**
+ * This class trains the central model of a {@link CentralizedGNNService} over batches of accumulated interactions
+ * instead of training it on each interaction. Interactions are buffered by {@link #add(String, String)} and the
+ * buffer is trained once it reaches a size threshold (default is 1000 interactions) or once a period has elapsed
+ * since the last training (default is none). It can also be trained explicitly with {@link #flush()}, for example
+ * by a scheduled executor.
+ * <br>
+ * Each training epoch computes the scores of all buffered training examples with a single pass of a JGNN model
+ * that gathers the embeddings of example endpoints, gathers their weighted loss derivatives in a sparse symmetric
+ * matrix and obtains the derivatives of all embeddings with a single sparse-dense matrix multiplication. Hyperparameters (learning rate, its degradation, regularization weight, maximum epoch and convergence
+ * criterion) are those of the service's {@link CentralizedGNNService#getBaseMiner()}. Edge transformations are not
+ * trained in this mode.
+ * <br>
+ * Training holds the lock stripes of all buffered nodes for all its epochs, since each epoch reads the embeddings
+ * written by the previous one. Hence, {@link CentralizedGNNService#ingest(String, String)} and
+ * {@link CentralizedGNNService#predict} calls that involve these nodes wait until training completes, whereas
+ * {@link #add(String, String)} only waits if it triggers training itself. Smaller batch sizes keep these waits short.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class BatchedCentralizedGNNTrainer {
+	private CentralizedGNNService service;
+	private int batchSize = 1000;
+	private double trainingPeriod = 0;
+	private ArrayList<Node[]> buffer = new ArrayList<Node[]>();
+	private long lastTraining = System.nanoTime();
+	private final Object trainingLock = new Object();
+	private TrainingProgress lastProgress = null;
+
+	public BatchedCentralizedGNNTrainer(CentralizedGNNService service) {
+		if(service==null)
+			Utils.error(new IllegalArgumentException("Centralized GNN service should not be null"));
+		this.service = service;
+	}
+
+	/**
+	 * Retrieves the service whose central model is trained.
+	 * @return The centralized GNN service.
+	 */
+	public CentralizedGNNService getService() {
+		return service;
+	}
+
+	/**
+	 * Sets the number of buffered interactions (default is 1000) that triggers training.
+	 * @param batchSize A positive number of interactions.
+	 * @return <code>this</code> trainer.
+	 */
+	public BatchedCentralizedGNNTrainer setBatchSize(int batchSize) {
+		if(batchSize<=0)
+			Utils.error(new IllegalArgumentException("Batch size "+batchSize+" should be positive"));
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * Sets the time after the last training (default is 0, which disables periodic training) after which
+	 * the next added interaction triggers training, regardless of the number of buffered interactions.
+	 * @param milliseconds The training period in milliseconds, or 0 to train only on the batch size.
+	 * @return <code>this</code> trainer.
+	 */
+	public BatchedCentralizedGNNTrainer setTrainingPeriod(double milliseconds) {
+		if(!Double.isFinite(milliseconds) || milliseconds<0)
+			Utils.error(new IllegalArgumentException("Training period "+milliseconds+" should be non-negative"));
+		this.trainingPeriod = milliseconds;
+		return this;
+	}
+
+	/**
+	 * Adds an interaction to the central contextual ego network and buffers it for training.
+	 * @param srcId The identifier of the interaction's source node.
+	 * @param dstId The identifier of the interaction's destination node.
+	 * @return The progress of training if this call triggered it, <code>null</code> otherwise.
+	 */
+	public TrainingProgress add(String srcId, String dstId) {
+		Node[] nodes = service.addInteraction(srcId, dstId);
+		boolean train;
+		synchronized(this) {
+			buffer.add(nodes);
+			train = buffer.size()>=batchSize || (trainingPeriod!=0 && System.nanoTime()-lastTraining>=trainingPeriod*1.E6);
+		}
+		return train?flush():null;
+	}
+
+	/**
+	 * Retrieves the number of buffered interactions that have not been trained yet.
+	 * @return The number of interactions.
+	 */
+	public synchronized int getBufferedInteractions() {
+		return buffer.size();
+	}
+
+	/**
+	 * Retrieves the progress of the last training.
+	 * @return The training progress, or <code>null</code> if no training has occurred.
+	 */
+	public TrainingProgress getLastProgress() {
+		synchronized(trainingLock) {
+			return lastProgress;
+		}
+	}
+
+	/**
+	 * Trains the central model on all buffered interactions and empties the buffer. This blocks service calls
+	 * involving the buffered nodes until training completes.
+	 * @return The training progress, or <code>null</code> if there were no buffered interactions.
+	 */
+	public TrainingProgress flush() {
+		ArrayList<Node[]> interactions;
+		synchronized(this) {
+			interactions = buffer;
+			buffer = new ArrayList<Node[]>();
+			lastTraining = System.nanoTime();
+		}
+		if(interactions.isEmpty())
+			return null;
+		synchronized(trainingLock) {
+			lastProgress = train(interactions);
+			return lastProgress;
+		}
+	}
+
+	private TrainingProgress train(ArrayList<Node[]> interactions) {
+		GNNMiner miner = service.getBaseMiner();
+		IdConverter ids = new IdConverter();
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		ArrayList<TrainingExample> examples = new ArrayList<TrainingExample>();
+		for(Node[] interactionNodes : interactions) {
+			examples.add(new TrainingExample(interactionNodes[0], interactionNodes[1], 1));
+			for(int i=2;i<interactionNodes.length;i++) {
+				examples.add(new TrainingExample(interactionNodes[0], interactionNodes[i], 0));
+				examples.add(new TrainingExample(interactionNodes[i], interactionNodes[1], 0));
+			}
+			for(Node node : interactionNodes)
+				if(ids.getOrCreateId(node)==nodes.size())
+					nodes.add(node);
+		}
+		int numNodes = nodes.size();
+		long[] src = new long[examples.size()];
+		long[] dst = new long[examples.size()];
+		Tensor srcList = new DenseTensor(examples.size());
+		Tensor dstList = new DenseTensor(examples.size());
+		double[] totalWeights = new double[numNodes];
+		for(int i=0;i<examples.size();i++) {
+			src[i] = ids.getId(examples.get(i).getSrc());
+			dst[i] = ids.getId(examples.get(i).getDst());
+			srcList.put(i, src[i]);
+			dstList.put(i, dst[i]);
+			totalWeights[(int)src[i]] += examples.get(i).getWeight();
+			totalWeights[(int)dst[i]] += examples.get(i).getWeight();
+		}
+
+		int[] lockedStripes = service.lock(nodes);
+		try {
+			long dims = nodes.get(0).getOrCreateInstance(GNNNodeData.class).getEmbedding().size();
+			Matrix embeddings = new DenseMatrix(numNodes, dims);
+			Matrix regularizations = new DenseMatrix(numNodes, dims);
+			for(int i=0;i<numNodes;i++) {
+				GNNNodeData nodeData = nodes.get(i).getOrCreateInstance(GNNNodeData.class);
+				Tensor embedding = nodeData.getEmbedding();
+				Tensor regularization = nodeData.getRegularization();
+				for(long dim=0;dim<dims;dim++) {
+					embeddings.put(i, dim, embedding.get(dim));
+					regularizations.put(i, dim, regularization.get(dim));
+				}
+			}
+
+			// the model reads the embedding matrix edited in-place by each epoch
+			Model activationModel = new ModelBuilder()
+					.var("u")
+					.var("v")
+					.constant("E", embeddings)
+					.operation("activation = sum(E[u].E[v])")
+					.out("activation")
+					.getModel();
+
+			TrainingProgress progress = new TrainingProgress(miner.getLearningRate());
+			progress.startSession();
+			long start = System.nanoTime();
+			double regularizationWeight = miner.getRegularizationWeight();
+			while(progress.getEpochs()<miner.getMaxTrainingEpoch()) {
+				double learningRate = progress.getLearningRate();
+				HashMap<Long, Double> coefficients = new HashMap<Long, Double>();
+				double loss = 0;
+				Tensor activations = activationModel.predict(Arrays.asList(srcList, dstList)).get(0);
+				for(int i=0;i<examples.size();i++) {
+					double activation = activations.get(i);
+					TrainingExample example = examples.get(i);
+					loss += example.getWeight()*Loss.crossEntropy(Loss.sigmoid(activation), example.getLabel());
+					double coefficient = example.getWeight()*Loss.crossEntropySigmoidDerivative(activation, example.getLabel());
+					long u = Math.min(src[i], dst[i]);
+					long v = Math.max(src[i], dst[i]);
+					if(u==v)
+						coefficient *= 2;
+					long key = u*numNodes+v;
+					coefficients.put(key, coefficients.getOrDefault(key, 0.)+coefficient);
+				}
+				Matrix derivativeCoefficients = new SparseSymmetric(numNodes, numNodes);
+				for(Entry<Long, Double> coefficient : coefficients.entrySet()) {
+					long u = coefficient.getKey()/numNodes;
+					long v = coefficient.getKey()%numNodes;
+					derivativeCoefficients.put(u, v, coefficient.getValue());
+					derivativeCoefficients.put(v, u, coefficient.getValue());
+				}
+				Matrix derivatives = derivativeCoefficients.matmul(embeddings);
+				for(int i=0;i<numNodes;i++) {
+					if(totalWeights[i]==0)
+						continue;
+					for(long dim=0;dim<dims;dim++) {
+						double embedding = embeddings.get(i, dim);
+						embeddings.put(i, dim, embedding
+								+(regularizations.get(i, dim)-embedding)*regularizationWeight*learningRate
+								-derivatives.get(i, dim)/totalWeights[i]*learningRate);
+					}
+				}
+				if(progress.completeEpoch(loss, miner.getLearningRateDegradation(), miner.getMinTrainingRelativeLoss()))
+					break;
+			}
+			progress.addElapsedNanos(System.nanoTime()-start);
+
+			for(int i=0;i<numNodes;i++) {
+				Tensor embedding = new DenseTensor(dims);
+				for(long dim=0;dim<dims;dim++)
+					embedding.put(dim, embeddings.get(i, dim));
+				nodes.get(i).getOrCreateInstance(GNNNodeData.class).forceSetEmbedding(embedding);
+			}
+			return progress;
+		}
+		finally {
+			service.unlock(lockedStripes);
+		}
+	}
+}
@@ -6,41 +6,67 @@ import eu.h2020.helios_social.core.contextualegonetwork.Context;
 import eu.h2020.helios_social.core.contextualegonetwork.ContextualEgoNetwork;
 import eu.h2020.helios_social.core.contextualegonetwork.Interaction;
 import eu.h2020.helios_social.core.contextualegonetwork.Node;
-import eu.h2020.helios_social.core.contextualegonetwork.storage.NoStorage;
+import eu.h2020.helios_social.core.contextualegonetwork.Utils;
 import eu.h2020.helios_social.modules.socialgraphmining.SocialGraphMiner;
 
 /**
  * This class provides an implementation of a {@link SocialGraphMiner} based on
- * a Graph Neural Network (GNN) architecture. Its parameters can be adjusted using a number of
- * setter methods.
+ * a Graph Neural Network (GNN) architecture that is trained centrally by a {@link CentralizedGNNService}.
+ * Parameters of the central model can be adjusted through the setter methods of {@link #getBaseMiner()}.
  * 
  * @author Emmanouil Krasanakis
  */
 public class CentralizedGNNMiner extends SocialGraphMiner {
-	private static ContextualEgoNetwork contextualEgoNetwork = ContextualEgoNetwork.createOrLoad(new NoStorage(""), "test", null);
-	private static GNNMiner gnnMiner = new GNNMiner(contextualEgoNetwork);
-	private static Node lastNode = null;
+	private CentralizedGNNService service;
+	private BatchedCentralizedGNNTrainer batchedTrainer = null;
 	
+	/**
+	 * Instantiates a miner that trains and predicts with the default {@link CentralizedGNNService}.
+	 * @param contextualEgoNetwork The contextual ego network of the device.
+	 */
 	public CentralizedGNNMiner(ContextualEgoNetwork contextualEgoNetwork) {
+		this(contextualEgoNetwork, CentralizedGNNService.getDefault());
+	}
+	/**
+	 * Instantiates a miner that trains and predicts with the given central model service.
+	 * @param contextualEgoNetwork The contextual ego network of the device.
+	 * @param service The service hosting the central model.
+	 */
+	public CentralizedGNNMiner(ContextualEgoNetwork contextualEgoNetwork, CentralizedGNNService service) {
 		super(contextualEgoNetwork);
+		if(service==null)
+			Utils.error(new IllegalArgumentException("Centralized GNN service should not be null"));
+		this.service = service;
 	}
 	public GNNMiner getBaseMiner() {
-		return gnnMiner;
+		return service.getBaseMiner();
+	}
+	public CentralizedGNNService getService() {
+		return service;
+	}
+	/**
+	 * Sets a trainer that buffers interactions and trains the central model over batches of them (default is
+	 * <code>null</code>, which trains the central model on each interaction).
+	 * @param batchedTrainer The batched trainer of this miner's service, or <code>null</code> to disable batched training.
+	 * @return <code>this</code> CentralizedGNNMiner instance.
+	 */
+	public CentralizedGNNMiner setBatchedTrainer(BatchedCentralizedGNNTrainer batchedTrainer) {
+		if(batchedTrainer!=null && batchedTrainer.getService()!=service)
+			Utils.error(new IllegalArgumentException("Batched trainer should train the miner's centralized GNN service"));
+		this.batchedTrainer = batchedTrainer;
+		return this;
 	}
 	public void setReferenceNode(Node node) {
-		lastNode = contextualEgoNetwork.getOrCreateNode(node.getId(), null);
+		service.setReferenceNode(getContextualEgoNetwork().getEgo().getId(), node);
 	}
 	@Override
 	public void newInteractionParameters(Interaction interaction, SocialGraphMinerParameters neighborModelParameters, InteractionType interactionType) {
 		if(interactionType!=InteractionType.SEND)
 			return;
-		gnnMiner.newInteractionParameters(contextualEgoNetwork.getOrCreateContext("test_context")
-				.addEdge(
-					contextualEgoNetwork.getOrCreateNode(interaction.getEdge().getSrc().getId(), null),
-					contextualEgoNetwork.getOrCreateNode(interaction.getEdge().getDst().getId(), null))
-				.addDetectedInteraction(null)
-				, null, interactionType);
-		
+		if(batchedTrainer!=null)
+			batchedTrainer.add(interaction.getEdge().getSrc().getId(), interaction.getEdge().getDst().getId());
+		else
+			service.ingest(interaction.getEdge().getSrc().getId(), interaction.getEdge().getDst().getId());
 	}
 	@Override
 	public SocialGraphMinerParameters constructModelParameterObject(Interaction interaction) {
@@ -48,19 +74,17 @@ public class CentralizedGNNMiner extends SocialGraphMiner {
 	}
 	@Override
 	public double predictNewInteraction(Context context, Node destinationNode) {
-		return gnnMiner.predictNewInteraction(contextualEgoNetwork.getOrCreateContext("test_context"), 
-				contextualEgoNetwork.getOrCreateNode(lastNode.getId(), null),
-				contextualEgoNetwork.getOrCreateNode(destinationNode.getId(), null));
+		return service.predict(service.getReferenceNode(getContextualEgoNetwork().getEgo().getId()), destinationNode);
 	}
 	@Override
     public HashMap<Node, Double> recommendInteractions(Context context) {
     	HashMap<Node, Double> scores = new HashMap<Node, Double>();
-    	if(lastNode!=null) {
-	    	Node ego = contextualEgoNetwork.getOrCreateNode(lastNode.getId(), null);
+    	Node ego = service.getReferenceNode(getContextualEgoNetwork().getEgo().getId());
+    	if(ego!=null) {
 	    	for(Node node : context.getNodes()) {
-	    		node = contextualEgoNetwork.getOrCreateNode(node.getId(), null);
+	    		node = service.getNode(node.getId());
 	    		if(node!=ego && (context.getEdge(ego, node)!=null || context.getEdge(node, ego)!=null))
-	    			scores.put(node, predictNewInteraction(context, node));
+	    			scores.put(node, service.predict(ego, node));
 	    	}
     	}
     	return scores;
@@ -0,0 +1,315 @@
+package eu.h2020.helios_social.modules.socialgraphmining.GNN;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import eu.h2020.helios_social.core.contextualegonetwork.Context;
+import eu.h2020.helios_social.core.contextualegonetwork.ContextualEgoNetwork;
+import eu.h2020.helios_social.core.contextualegonetwork.Edge;
+import eu.h2020.helios_social.core.contextualegonetwork.Node;
+import eu.h2020.helios_social.core.contextualegonetwork.Utils;
+import eu.h2020.helios_social.core.contextualegonetwork.storage.NoStorage;
+import mklab.JGNN.core.Tensor;
+
+/**
+ * This class hosts a central {@link GNNMiner} model that ingests interactions from many devices concurrently.
+ * Each instance holds its own contextual ego network, so that a single JVM can serve multiple independent
+ * central models (e.g. one per tenant). It is used by {@link CentralizedGNNMiner} instances to share a central model.
+ * <br>
+ * Structural changes of the central contextual ego network are serialized by a short-lived graph lock, whereas
+ * training acquires striped locks of only the nodes whose embeddings it updates. Stripes are always acquired in
+ * ascending order to avoid deadlocks.
+ * <br>
+ * By default, ingested interactions are accumulated in the central context's training examples, whose weights
+ * are degraded with each new interaction, and the model is trained on all of them, as a {@link GNNMiner} would.
+ * Since such training runs update the embeddings of all nodes with training examples, only one thread trains at
+ * a time. Interactions ingested by other threads meanwhile are queued and do not wait for training; they are
+ * added to the training examples and trained by a single follow-up run of the training thread, instead of
+ * one run each. Alternatively, {@link #setFreshExamplesOnly(boolean)} trains each ingested interaction only on its own positive
+ * and negative training examples, so that interactions between disjoint nodes are trained in parallel.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class CentralizedGNNService {
+	private static CentralizedGNNService defaultService = null;
+
+	private ContextualEgoNetwork contextualEgoNetwork;
+	private Context context;
+	private GNNMiner gnnMiner;
+	private final Object graphLock = new Object();
+	private final ReentrantReadWriteLock trainingLock = new ReentrantReadWriteLock();
+	private ReentrantLock[] stripes;
+	private ContextTrainingExampleData trainingExampleData;
+	private boolean freshExamplesOnly = false;
+	private final ConcurrentLinkedQueue<Node[]> pendingInteractions = new ConcurrentLinkedQueue<Node[]>();
+	private ConcurrentHashMap<String, Node> referenceNodes = new ConcurrentHashMap<String, Node>();
+
+	/**
+	 * Retrieves a service shared by all {@link CentralizedGNNMiner} instances that were created without specifying one.
+	 * @return The default service.
+	 */
+	public static synchronized CentralizedGNNService getDefault() {
+		if(defaultService==null)
+			defaultService = new CentralizedGNNService();
+		return defaultService;
+	}
+
+	/**
+	 * Instantiates a service with an in-memory contextual ego network and 64 lock stripes.
+	 */
+	public CentralizedGNNService() {
+		this(ContextualEgoNetwork.createOrLoad(new NoStorage(""), "test", null), 64);
+	}
+
+	/**
+	 * Instantiates a service over the given contextual ego network.
+	 * @param contextualEgoNetwork The contextual ego network holding the central model.
+	 * @param numStripes The number of locks among which nodes are distributed. Should be positive.
+	 */
+	public CentralizedGNNService(ContextualEgoNetwork contextualEgoNetwork, int numStripes) {
+		if(contextualEgoNetwork==null)
+			Utils.error(new IllegalArgumentException("Contextual ego network should not be null"));
+		if(numStripes<=0)
+			Utils.error(new IllegalArgumentException("Number of lock stripes "+numStripes+" should be positive"));
+		this.contextualEgoNetwork = contextualEgoNetwork;
+		context = contextualEgoNetwork.getOrCreateContext("test_context");
+		gnnMiner = new GNNMiner(contextualEgoNetwork);
+		stripes = new ReentrantLock[numStripes];
+		for(int i=0;i<numStripes;i++)
+			stripes[i] = new ReentrantLock();
+		trainingExampleData = context.getOrCreateInstance(ContextTrainingExampleData.class);
+		Tensor ones = contextualEgoNetwork.getEgo().getOrCreateInstance(GNNNodeData.class).getEmbedding().zeroCopy().setToOnes();
+		if(trainingExampleData.transformToSrcEmbedding==null)
+			trainingExampleData.transformToSrcEmbedding = ones.copy();
+		if(trainingExampleData.transformToDstEmbedding==null)
+			trainingExampleData.transformToDstEmbedding = ones.copy();
+	}
+
+	/**
+	 * Sets whether each ingested interaction should train the model only on its own training examples (default is false).
+	 * When disabled, interactions are accumulated in the central context's training examples and each ingestion trains on
+	 * all of them.
+	 * @param freshExamplesOnly Whether to train only on the examples of each ingested interaction.
+	 * @return <code>this</code> service.
+	 * @see #ingest(String, String)
+	 */
+	public CentralizedGNNService setFreshExamplesOnly(boolean freshExamplesOnly) {
+		this.freshExamplesOnly = freshExamplesOnly;
+		return this;
+	}
+
+	/**
+	 * Retrieves the miner whose parameters (e.g. learning rate) are used for training the central model.
+	 * @return The central GNNMiner.
+	 */
+	public GNNMiner getBaseMiner() {
+		return gnnMiner;
+	}
+
+	/**
+	 * Retrieves the context of the central model.
+	 * @return The central context.
+	 */
+	public Context getContext() {
+		return context;
+	}
+
+	/**
+	 * Retrieves the central model's node that has the same identifier as the given one, creating it if needed.
+	 * @param id The node identifier.
+	 * @return The central node.
+	 */
+	public Node getNode(String id) {
+		synchronized(graphLock) {
+			return contextualEgoNetwork.getOrCreateNode(id, null);
+		}
+	}
+
+	/**
+	 * Sets the node from the perspective of which a device's predictions are made.
+	 * @param device The device identifier (e.g. the identifier of the device's ego).
+	 * @param node A node whose identifier is used to find the respective central node.
+	 */
+	public void setReferenceNode(String device, Node node) {
+		referenceNodes.put(device, getNode(node.getId()));
+	}
+
+	/**
+	 * Retrieves the node from the perspective of which a device's predictions are made.
+	 * @param device The device identifier.
+	 * @return The central reference node, or <code>null</code> if none has been set.
+	 */
+	public Node getReferenceNode(String device) {
+		return referenceNodes.get(device);
+	}
+
+	private int getStripe(Node node) {
+		return (node.getId().hashCode() & 0x7fffffff) % stripes.length;
+	}
+
+	/**
+	 * Adds an interaction between the nodes with the given identifiers to the central contextual ego network and
+	 * draws negative nodes for it with the {@link GNNMiner#getNegativeSampler()} of {@link #getBaseMiner()}.
+	 * This does not train the model.
+	 * @param srcId The identifier of the interaction's source node.
+	 * @param dstId The identifier of the interaction's destination node.
+	 * @return An array of the central source node, destination node and any drawn negative nodes, in this order.
+	 */
+	public Node[] addInteraction(String srcId, String dstId) {
+		Node[] nodes = new Node[2+gnnMiner.getNegativeSamples()];
+		int numNodes = 2;
+		synchronized(graphLock) {
+			Node src = contextualEgoNetwork.getOrCreateNode(srcId, null);
+			Node dst = contextualEgoNetwork.getOrCreateNode(dstId, null);
+			Edge edge = context.getOrAddEdge(src, dst);
+			edge.addDetectedInteraction(null);
+			nodes[0] = src;
+			nodes[1] = dst;
+			gnnMiner.getNegativeSampler().observe(context, edge);
+			if(context.getNodes().size()>2)
+				for(int sample=0;sample<gnnMiner.getNegativeSamples();sample++) {
+					Node negativeNode = gnnMiner.getNegativeSampler().sample(context, edge);
+					if(negativeNode==null)
+						break;
+					nodes[numNodes++] = negativeNode;
+				}
+		}
+		return numNodes==nodes.length?nodes:Arrays.copyOf(nodes, numNodes);
+	}
+
+	/**
+	 * Acquires the lock stripes of the given nodes in ascending order. Embeddings of these nodes can be safely
+	 * updated until {@link #unlock(int[])} is called with the returned stripes.
+	 * @param nodes The nodes to lock.
+	 * @return The acquired stripes.
+	 */
+	int[] lock(Collection<Node> nodes) {
+		int[] lockedStripes = new int[nodes.size()];
+		int i = 0;
+		for(Node node : nodes)
+			lockedStripes[i++] = getStripe(node);
+		Arrays.sort(lockedStripes);
+		int numLockedStripes = 0;
+		for(i=0;i<lockedStripes.length;i++)
+			if(numLockedStripes==0 || lockedStripes[i]!=lockedStripes[numLockedStripes-1])
+				lockedStripes[numLockedStripes++] = lockedStripes[i];
+		lockedStripes = Arrays.copyOf(lockedStripes, numLockedStripes);
+		for(int stripe : lockedStripes)
+			stripes[stripe].lock();
+		return lockedStripes;
+	}
+
+	/**
+	 * Releases lock stripes acquired by {@link #lock(Collection)}.
+	 * @param lockedStripes The acquired stripes.
+	 */
+	void unlock(int[] lockedStripes) {
+		for(int i=lockedStripes.length-1;i>=0;i--)
+			stripes[lockedStripes[i]].unlock();
+	}
+
+	/**
+	 * Adds an interaction between the nodes with the given identifiers to the central model and trains the model
+	 * on the interaction. This can be called concurrently by many threads. When training on accumulated examples,
+	 * calls made while another thread trains return immediately and leave training on their interaction to that thread.
+	 * @param srcId The identifier of the interaction's source node.
+	 * @param dstId The identifier of the interaction's destination node.
+	 * @return The progress of training on the interaction, or <code>null</code> if it was left to another thread.
+	 * @see #setFreshExamplesOnly(boolean)
+	 */
+	public TrainingProgress ingest(String srcId, String dstId) {
+		Node[] nodes = addInteraction(srcId, dstId);
+		if(freshExamplesOnly) {
+			ContextTrainingExampleData freshExampleData = new ContextTrainingExampleData();
+			addTrainingExamples(freshExampleData, nodes);
+			int[] lockedStripes = lock(Arrays.asList(nodes));
+			try {
+				freshExampleData.transformToSrcEmbedding = nodes[0].getOrCreateInstance(GNNNodeData.class).getEmbedding().zeroCopy().setToOnes();
+				freshExampleData.transformToDstEmbedding = freshExampleData.transformToSrcEmbedding.copy();
+				return gnnMiner.train(freshExampleData);
+			}
+			finally {
+				unlock(lockedStripes);
+			}
+		}
+		pendingInteractions.add(nodes);
+		TrainingProgress progress = null;
+		// re-check after releasing the lock, as interactions queued while training would otherwise never be trained
+		while(!pendingInteractions.isEmpty() && trainingLock.writeLock().tryLock()) {
+			try {
+				TrainingProgress pendingProgress = trainPendingInteractions();
+				if(pendingProgress!=null)
+					progress = pendingProgress;
+			}
+			finally {
+				trainingLock.writeLock().unlock();
+			}
+		}
+		return progress;
+	}
+
+	private TrainingProgress trainPendingInteractions() {
+		HashSet<Node> trainedNodes = new HashSet<Node>();
+		synchronized(trainingExampleData) {
+			Node[] nodes = pendingInteractions.poll();
+			if(nodes==null)
+				return null;
+			for(;nodes!=null;nodes=pendingInteractions.poll()) {
+				trainingExampleData.degrade(gnnMiner.getTrainingExampleDegradation(), gnnMiner.getTrainingExampleRemovalThreshold());
+				addTrainingExamples(trainingExampleData, nodes);
+			}
+			for(TrainingExample example : trainingExampleData.getTrainingExampleList()) {
+				trainedNodes.add(example.getSrc());
+				trainedNodes.add(example.getDst());
+			}
+		}
+		int[] lockedStripes = lock(trainedNodes);
+		try {
+			return gnnMiner.train(trainingExampleData);
+		}
+		finally {
+			unlock(lockedStripes);
+		}
+	}
+
+	private static void addTrainingExamples(ContextTrainingExampleData trainingExampleData, Node[] nodes) {
+		trainingExampleData.addTrainingExample(new TrainingExample(nodes[0], nodes[1], 1));
+		for(int i=2;i<nodes.length;i++) {
+			trainingExampleData.addTrainingExample(new TrainingExample(nodes[0], nodes[i], 0));
+			trainingExampleData.addTrainingExample(new TrainingExample(nodes[i], nodes[1], 0));
+		}
+	}
+
+	/**
+	 * Predicts the likelihood of an interaction between two nodes of the central model. This waits for
+	 * any training of the central context's accumulated examples and for training that updates the embeddings
+	 * of either node to complete.
+	 * @param src The source node.
+	 * @param dst The destination node.
+	 * @return The predicted likelihood.
+	 */
+	public double predict(Node src, Node dst) {
+		if(src==null || dst==null)
+			Utils.error(new IllegalArgumentException("Can not predict interactions without a reference node"));
+		Node centralSrc = getNode(src.getId());
+		Node centralDst = getNode(dst.getId());
+		trainingLock.readLock().lock();
+		try {
+			int[] lockedStripes = lock(Arrays.asList(centralSrc, centralDst));
+			try {
+				return gnnMiner.predictNewInteraction(context, centralSrc, centralDst);
+			}
+			finally {
+				unlock(lockedStripes);
+			}
+		}
+		finally {
+			trainingLock.readLock().unlock();
+		}
+	}
+}
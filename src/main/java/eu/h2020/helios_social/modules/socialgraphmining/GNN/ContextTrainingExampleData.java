@@ -1,7 +1,10 @@
 package eu.h2020.helios_social.modules.socialgraphmining.GNN;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map.Entry;
 
+import eu.h2020.helios_social.core.contextualegonetwork.Node;
 import mklab.JGNN.core.Tensor;
 
 /**
@@ -11,12 +14,23 @@ import mklab.JGNN.core.Tensor;
  * It is indented to be used as a dynamically created instance on contexts (which are cross module components)
  * by calling <code>context.getOrCreateInstance(GNNNodeData.class)</code> to either retrieve of create it.
  * 
+ * Neighbor aggregations of nodes, i.e. sums of their neighbors' embeddings weighted by the training examples that
+ * link them, are maintained incrementally as examples are added or degraded and as embeddings change. Maintenance
+ * starts from the first call to {@link #getNeighborAggregation(Node)} and costs nothing before that.
+ * 
  * @author Emmanouil Krasanakis
  */
 public class ContextTrainingExampleData {
 	private ArrayList<TrainingExample> trainingExamples = null;
 	public Tensor transformToSrcEmbedding = null;
 	public Tensor transformToDstEmbedding = null;
+	private transient HashMap<Node, HashMap<Node, Double>> neighborCoefficients = null;
+	private transient HashMap<Node, Tensor> neighborAggregations = null;
+	private transient HashMap<Node, Tensor> normalizedNeighborAggregations = null;
+	private transient HashMap<Node, Tensor> aggregatedEmbeddings = null;
+	private transient int incrementalAggregationUpdates = 0;
+	private static final int maxIncrementalAggregationUpdates = 10000;
+	transient TrainingProgress trainingProgress = null;
 	
 	public ContextTrainingExampleData() {}
 	
@@ -28,7 +42,9 @@ public class ContextTrainingExampleData {
 				return;
 			}
 		}*/
-		trainingExamples.add(example);
+		getTrainingExampleList().add(example);
+		if(neighborAggregations!=null)
+			aggregateExample(example, 1);
 	}
 	
 	/**
@@ -41,6 +57,19 @@ public class ContextTrainingExampleData {
 		return trainingExamples;
 	}
 	
+	/**
+	 * Removes all training examples, for example to replace them with the ones of a {@link GNNSnapshot}.
+	 * Neighbor aggregations and training progress are discarded too.
+	 */
+	public synchronized void clearTrainingExamples() {
+		getTrainingExampleList().clear();
+		neighborCoefficients = null;
+		neighborAggregations = null;
+		normalizedNeighborAggregations = null;
+		aggregatedEmbeddings = null;
+		trainingProgress = null;
+	}
+
 	/**
 	 * Calls the {@link TrainingExample#degrade} operation for each {@link TrainingExample} in the
 	 * data (e.g. to reduce all weights) and removes those that end up on a very small weight.
@@ -49,10 +78,131 @@ public class ContextTrainingExampleData {
 	 * @see TrainingExample#getWeight()
 	 */
 	public synchronized void degrade(double factor, double removalThreshold) {
+		if(neighborAggregations!=null) {
+			for(Tensor aggregation : neighborAggregations.values())
+				aggregation.selfMultiply(factor);
+			for(HashMap<Node, Double> coefficients : neighborCoefficients.values())
+				for(Entry<Node, Double> coefficient : coefficients.entrySet())
+					coefficient.setValue(coefficient.getValue()*factor);
+			if(factor<=0)
+				normalizedNeighborAggregations.clear();
+		}
 		for(TrainingExample trainingExample : new ArrayList<TrainingExample>(getTrainingExampleList())) {
 			trainingExample.degrade(factor);
-			if(trainingExample.getWeight() < removalThreshold)
+			if(trainingExample.getWeight() < removalThreshold) {
 				trainingExamples.remove(trainingExample);
+				if(neighborAggregations!=null)
+					aggregateExample(trainingExample, -1);
+			}
+		}
+	}
+	
+	private static Tensor getEmbedding(Node node) {
+		return node.getOrCreateInstance(GNNNodeData.class).getEmbedding();
+	}
+	
+	private void aggregateExample(TrainingExample example, double sign) {
+		double coefficient = sign*example.getWeight()*(example.getLabel()-0.5);
+		aggregateNeighbor(example.getSrc(), example.getDst(), coefficient);
+		aggregateNeighbor(example.getDst(), example.getSrc(), coefficient);
+	}
+	
+	private void aggregateNeighbor(Node node, Node neighbor, double coefficient) {
+		Tensor neighborEmbedding = getEmbedding(neighbor);
+		Tensor previousEmbedding = aggregatedEmbeddings.get(neighbor);
+		if(previousEmbedding!=null && previousEmbedding!=neighborEmbedding)
+			updateNeighborAggregations(neighbor, previousEmbedding);
+		Tensor aggregation = neighborAggregations.get(node);
+		if(aggregation==null)
+			neighborAggregations.put(node, aggregation = neighborEmbedding.zeroCopy());
+		aggregation.selfAdd(neighborEmbedding.multiply(coefficient));
+		HashMap<Node, Double> coefficients = neighborCoefficients.get(node);
+		if(coefficients==null)
+			neighborCoefficients.put(node, coefficients = new HashMap<Node, Double>());
+		coefficients.put(neighbor, coefficients.getOrDefault(neighbor, 0.)+coefficient);
+		aggregatedEmbeddings.put(neighbor, neighborEmbedding);
+		normalizedNeighborAggregations.remove(node);
+	}
+	
+	/**
+	 * Recomputes all neighbor aggregations from scratch by traversing all training examples. This
+	 * is automatically performed when aggregations are first requested and periodically afterwards
+	 * to remove the accumulation of floating point errors from incremental updates.
+	 */
+	public synchronized void rebuildNeighborAggregations() {
+		neighborCoefficients = new HashMap<Node, HashMap<Node, Double>>();
+		neighborAggregations = new HashMap<Node, Tensor>();
+		normalizedNeighborAggregations = new HashMap<Node, Tensor>();
+		aggregatedEmbeddings = new HashMap<Node, Tensor>();
+		incrementalAggregationUpdates = 0;
+		for(TrainingExample example : getTrainingExampleList())
+			aggregateExample(example, 1);
+	}
+	
+	/**
+	 * Updates neighbor aggregations to account for a node's embedding changing from the given previous value
+	 * to the one currently held by its {@link GNNNodeData}. This costs time proportional to the number of the node's
+	 * neighbors and needs to be called only if the embedding was edited in-place; embeddings replaced through
+	 * {@link GNNNodeData#updateEmbedding(Tensor)} or {@link GNNNodeData#forceSetEmbedding(Tensor)} are
+	 * also detected by {@link #synchronizeNeighborAggregations()}.
+	 * @param node The node whose embedding changed.
+	 * @param previousEmbedding The node's embedding value accounted for in aggregations before the change.
+	 */
+	public synchronized void updateNeighborAggregations(Node node, Tensor previousEmbedding) {
+		if(neighborAggregations==null)
+			return;
+		HashMap<Node, Double> coefficients = neighborCoefficients.get(node);
+		Tensor embedding = getEmbedding(node);
+		aggregatedEmbeddings.put(node, embedding);
+		if(coefficients==null || coefficients.isEmpty()) 
+			return;
+		Tensor delta = embedding.subtract(previousEmbedding);
+		for(Entry<Node, Double> coefficient : coefficients.entrySet()) {
+			neighborAggregations.get(coefficient.getKey()).selfAdd(delta.multiply(coefficient.getValue()));
+			normalizedNeighborAggregations.remove(coefficient.getKey());
+		}
+		incrementalAggregationUpdates += 1;
+	}
+	
+	/**
+	 * Detects all nodes whose embedding tensors have been replaced since they were last accounted for in neighbor
+	 * aggregations and calls {@link #updateNeighborAggregations(Node, Tensor)} for each of them.
+	 * This requires only a reference check per node.
+	 */
+	public synchronized void synchronizeNeighborAggregations() {
+		if(neighborAggregations==null)
+			return;
+		if(incrementalAggregationUpdates>maxIncrementalAggregationUpdates) {
+			rebuildNeighborAggregations();
+			return;
+		}
+		for(Entry<Node, Tensor> aggregated : new ArrayList<Entry<Node, Tensor>>(aggregatedEmbeddings.entrySet())) 
+			if(getEmbedding(aggregated.getKey())!=aggregated.getValue())
+				updateNeighborAggregations(aggregated.getKey(), aggregated.getValue());
+	}
+	
+	/**
+	 * Retrieves the normalized aggregation of a node's neighbor embeddings, where neighbors are weighted
+	 * by the weights of training examples linking them to the node, positively for positive examples and
+	 * negatively for negative ones. The first call to this method starts maintaining aggregations.
+	 * The returned tensor should not be edited.
+	 * @param node The node whose neighbors are aggregated.
+	 * @return A tensor holding the normalized aggregation (zero if the node has no neighbors).
+	 */
+	public synchronized Tensor getNeighborAggregation(Node node) {
+		if(neighborAggregations==null)
+			rebuildNeighborAggregations();
+		Tensor normalized = normalizedNeighborAggregations.get(node);
+		if(normalized==null) {
+			Tensor aggregation = neighborAggregations.get(node);
+			if(aggregation==null)
+				normalized = getEmbedding(node).zeroCopy();
+			else {
+				double norm = aggregation.norm();
+				normalized = norm==0?aggregation.copy():aggregation.multiply(1./norm);
+			}
+			normalizedNeighborAggregations.put(node, normalized);
 		}
+		return normalized;
 	}
 }
@@ -2,6 +2,9 @@ package eu.h2020.helios_social.modules.socialgraphmining.GNN;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.WeakHashMap;
 
 import eu.h2020.helios_social.core.contextualegonetwork.Context;
 import eu.h2020.helios_social.core.contextualegonetwork.ContextualEgoNetwork;
@@ -10,10 +13,11 @@ import eu.h2020.helios_social.core.contextualegonetwork.Interaction;
 import eu.h2020.helios_social.core.contextualegonetwork.Node;
 import eu.h2020.helios_social.core.contextualegonetwork.Utils;
 import eu.h2020.helios_social.modules.socialgraphmining.SocialGraphMiner;
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.negative_sampling.NegativeSampler;
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.negative_sampling.UniformNegativeSampler;
 import eu.h2020.helios_social.modules.socialgraphmining.GNN.simulated_communication.EmbeddingExchangeProtocol;
 import mklab.JGNN.core.Tensor;
 import mklab.JGNN.core.util.Loss;
-import mklab.JGNN.core.util.Sort;
 
 /**
  * This class provides an implementation of a {@link SocialGraphMiner} based on
@@ -29,6 +33,8 @@ public class GNNMiner extends SocialGraphMiner {
 	private double regularizationAbsorbsion = 1;
 	private int maxEpoch = 1000;
 	private double convergenceRelativeLoss = 0.001;
+	private double trainingDeadline = 0;
+	private boolean resumeInterruptedTraining = false;
 	private double trainingExampleDegradation = 0.5;
 	private double trainingExampleRemovalThreshold = 0.1;
 	private double egoDeniability = 0;
@@ -38,8 +44,17 @@ public class GNNMiner extends SocialGraphMiner {
 	private double updateEgoEmbeddingsFromNeighbors = 0;
 	private boolean enableTrainingExamplePropagation = false;
 	private boolean enableSpectralAlignment = false;
+	private SpectralAlignment spectralAlignment = new SpectralAlignment();
 	private boolean secondOrderProximity = false;
+	private boolean neighborAggregationExchange = false;
 	private EmbeddingExchangeProtocol embeddingExchangeProtocol = null;
+	private NegativeSampler negativeSampler = new UniformNegativeSampler();
+	private int negativeSamples = 1;
+	private double registrationDriftThreshold = 0;
+	private int registrationStaleness = 0;
+	private long registrationRound = 0;
+	private WeakHashMap<Node, Tensor> registeredEmbeddings = new WeakHashMap<Node, Tensor>();
+	private WeakHashMap<Node, Long> registrationRounds = new WeakHashMap<Node, Long>();
 	/*
 	private static HashMap<String, Tensor> globalEmbeddingRegistry = new HashMap<String, Tensor>();//if instantiated by default, it simulates constant federated communication
 	private static HashMap<String, HashMap<String, Tensor>> federatedAveraging = new HashMap<String, HashMap<String, Tensor>>();
@@ -70,11 +85,118 @@ public class GNNMiner extends SocialGraphMiner {
 		return this;
 	}
 	
+	/**
+	 * Retrieves the learning rate from which training starts.
+	 * @return The learning rate.
+	 * @see #setLearningRate(double)
+	 */
+	public double getLearningRate() {
+		return learningRate;
+	}
+	
 	public GNNMiner setEmbeddingExchangeProtocol(EmbeddingExchangeProtocol embeddingExchangeProtocol) {
 		this.embeddingExchangeProtocol = embeddingExchangeProtocol;
 		return this;
 	}
 	
+	/**
+	 * Limits which node embeddings are registered to the {@link EmbeddingExchangeProtocol} after each training run.
+	 * Embeddings are registered only if they drifted from their last registered value by at least the given
+	 * L2 distance, or if they were not registered for the given number of training runs. Nodes that were never
+	 * registered always are. Default thresholds are 0, which register all embeddings after each training run.
+	 * @param driftThreshold The non-negative L2 distance from the last registered embedding that triggers registration.
+	 * @param staleness The non-negative number of training runs after which embeddings are registered regardless of
+	 * 	their drift, or 0 to register them based only on drift.
+	 * @return <code>this</code> GNNMiner instance.
+	 * @see #setEmbeddingExchangeProtocol(EmbeddingExchangeProtocol)
+	 */
+	public GNNMiner setRegistrationThresholds(double driftThreshold, int staleness) {
+		if(!Double.isFinite(driftThreshold) || driftThreshold<0)
+			Utils.error(new IllegalArgumentException("Registration drift threshold "+driftThreshold+" should be non-negative"));
+		if(staleness<0)
+			Utils.error(new IllegalArgumentException("Registration staleness "+staleness+" should be non-negative"));
+		this.registrationDriftThreshold = driftThreshold;
+		this.registrationStaleness = staleness;
+		return this;
+	}
+	
+	private static double squaredDistance(Tensor first, Tensor second) {
+		double distance = 0;
+		for(long dim=0;dim<first.size();dim++) {
+			double difference = first.get(dim)-second.get(dim);
+			distance += difference*difference;
+		}
+		return distance;
+	}
+	
+	/**
+	 * Checks whether a node's embedding should be registered to the {@link EmbeddingExchangeProtocol}, given the
+	 * thresholds set by {@link #setRegistrationThresholds(double, int)}, and marks it as registered if so.
+	 * @param node The node whose embedding to check.
+	 * @param embedding The node's current embedding.
+	 * @return Whether the embedding should be registered.
+	 */
+	protected boolean markForRegistration(Node node, Tensor embedding) {
+		if(registrationDriftThreshold==0) // every embedding is registered regardless of staleness, so skip bookkeeping
+			return true;
+		Tensor registered = registeredEmbeddings.get(node);
+		boolean register = registered==null
+				|| (registrationStaleness!=0 && registrationRound-registrationRounds.get(node)>=registrationStaleness)
+				|| squaredDistance(embedding, registered)>=registrationDriftThreshold*registrationDriftThreshold;
+		if(register) {
+			registeredEmbeddings.put(node, embedding.copy());
+			registrationRounds.put(node, registrationRound);
+		}
+		return register;
+	}
+	
+	/**
+	 * Sets the strategy with which negative nodes are selected to create negative training examples
+	 * whenever a new interaction occurs (default is a {@link UniformNegativeSampler}).
+	 * @param negativeSampler The negative sampling strategy.
+	 * @return <code>this</code> GNNMiner instance.
+	 * @see #setNegativeSamples(int)
+	 */
+	public GNNMiner setNegativeSampler(NegativeSampler negativeSampler) {
+		if(negativeSampler==null)
+			Utils.error(new IllegalArgumentException("Negative sampler should not be null"));
+		this.negativeSampler = negativeSampler;
+		return this;
+	}
+	
+	/**
+	 * Sets the number of negative nodes (default is 1) to draw with the {@link NegativeSampler} for each new interaction.
+	 * Each negative node creates two negative training examples; one with the interaction's source and one with its
+	 * destination.
+	 * @param negativeSamples A non-negative number of negative nodes.
+	 * @return <code>this</code> GNNMiner instance.
+	 * @see #setNegativeSampler(NegativeSampler)
+	 */
+	public GNNMiner setNegativeSamples(int negativeSamples) {
+		if(negativeSamples<0)
+			Utils.error(new IllegalArgumentException("Number of negative samples "+negativeSamples+" should be non-negative"));
+		this.negativeSamples = negativeSamples;
+		return this;
+	}
+	
+	/**
+	 * Retrieves the strategy with which negative nodes are selected.
+	 * @return The negative sampler.
+	 * @see #setNegativeSampler(NegativeSampler)
+	 */
+	public NegativeSampler getNegativeSampler() {
+		return negativeSampler;
+	}
+	
+	/**
+	 * Retrieves the number of negative nodes drawn for each new interaction.
+	 * @return The number of negative nodes.
+	 * @see #setNegativeSamples(int)
+	 */
+	public int getNegativeSamples() {
+		return negativeSamples;
+	}
+	
 	public GNNMiner setEdgePointsLearningMultiplier(double incomming, double outgoing) {
 		incommingEdgeLearningRateMultiplier = incomming;
 		outgoingEdgeLearningRateMultiplier = outgoing;
@@ -95,6 +217,15 @@ public class GNNMiner extends SocialGraphMiner {
 		return this;
 	}
 	
+	/**
+	 * Retrieves the factor with which the learning rate is multiplied after each epoch.
+	 * @return The learning rate degradation.
+	 * @see #setLearningRateDegradation(double)
+	 */
+	public double getLearningRateDegradation() {
+		return learningRateDegradation;
+	}
+	
 	/**
 	 * The regularization weight (default 0.1) to apply during training of the GNNMiner.
 	 * This weight ensures that training converges around given areas of the embedding space.
@@ -110,6 +241,15 @@ public class GNNMiner extends SocialGraphMiner {
 		return this;
 	}
 	
+	/**
+	 * Retrieves the regularization weight applied during training.
+	 * @return The regularization weight.
+	 * @see #setRegularizationWeight(double)
+	 */
+	public double getRegularizationWeight() {
+		return regularizationWeight;
+	}
+	
 
 	/**
 	 * Multiplies regularization tensors with this value before setting them as regularization;
@@ -138,6 +278,15 @@ public class GNNMiner extends SocialGraphMiner {
 		return this;
 	}
 	
+	/**
+	 * Retrieves the maximum number of training epochs.
+	 * @return The maximum epoch.
+	 * @see #setMaxTrainingEpoch(int)
+	 */
+	public int getMaxTrainingEpoch() {
+		return maxEpoch;
+	}
+	
 	/**
 	 * When the GNNMiner is being trained, training stops at epochs where
 	 * abs(previous epoch loss - this epoch loss) &lt; convergenceRelativeLoss*(this epoch loss)
@@ -150,6 +299,44 @@ public class GNNMiner extends SocialGraphMiner {
 		return this;
 	}
 	
+	/**
+	 * Retrieves the relative loss at which training is considered to have converged.
+	 * @return The convergence relative loss.
+	 * @see #setMinTrainingRelativeLoss(double)
+	 */
+	public double getMinTrainingRelativeLoss() {
+		return convergenceRelativeLoss;
+	}
+	
+	/**
+	 * Bounds the wall-clock time of each training run (default is 0, which does not bound it). When the
+	 * deadline passes, training stops after the current epoch, even if it has neither converged
+	 * nor reached the maximum epoch. At least one epoch is always trained. How far training got can be
+	 * obtained through {@link #getTrainingProgress(Context)}.
+	 * @param milliseconds The maximum training time per run in milliseconds, or 0 to not bound training time.
+	 * @return <code>this</code> GNNMiner instance.
+	 * @see #setTrainingResumption(boolean)
+	 */
+	public GNNMiner setTrainingDeadline(double milliseconds) {
+		if(!Double.isFinite(milliseconds) || milliseconds<0)
+			Utils.error(new IllegalArgumentException("Training deadline "+milliseconds+" should be non-negative"));
+		this.trainingDeadline = milliseconds;
+		return this;
+	}
+	
+	/**
+	 * Sets whether training runs interrupted by the deadline of {@link #setTrainingDeadline(double)} should be resumed
+	 * (default is false). When enabled, the next interaction of the same context continues the interrupted run from
+	 * its last epoch and learning rate instead of restarting, and {@link #trainIdle(Context, double)} can be used
+	 * to continue training in idle time.
+	 * @param resumeInterruptedTraining Whether to resume interrupted training runs.
+	 * @return <code>this</code> GNNMiner instance.
+	 */
+	public GNNMiner setTrainingResumption(boolean resumeInterruptedTraining) {
+		this.resumeInterruptedTraining = resumeInterruptedTraining;
+		return this;
+	}
+	
 	/**
 	 * Degrades example weights each time a new one is generated through {@link #newInteraction} by calling
 	 * {@link ContextTrainingExampleData#degrade} to multiply previous weights with the given degradation factor
@@ -179,6 +366,24 @@ public class GNNMiner extends SocialGraphMiner {
 		return this;
 	}
 	
+	/**
+	 * Retrieves the factor with which previous example weights are multiplied when new examples are generated.
+	 * @return The degradation factor.
+	 * @see #setTrainingExampleDegradation(double)
+	 */
+	public double getTrainingExampleDegradation() {
+		return trainingExampleDegradation;
+	}
+	
+	/**
+	 * Retrieves the threshold weight at which old training examples are removed.
+	 * @return The removal threshold.
+	 * @see #setTrainingExampleRemovalThreshold(double)
+	 */
+	public double getTrainingExampleRemovalThreshold() {
+		return trainingExampleRemovalThreshold;
+	}
+	
 	/**
 	 * Enables plausible deniability and differential privacy handling by permuting the ego and its alter's parameters
 	 * with a random noise proportional to a given constant and their norm. Zero values (default) ensure no privacy concerns
@@ -221,15 +426,33 @@ public class GNNMiner extends SocialGraphMiner {
 		return this;
 	}
 	
-	protected Tensor transformLike(Tensor source, Tensor exampleSource, Tensor exampleTarget) {
-		if(!enableSpectralAlignment)
-			return source;
-		int[] sourceIndex = Sort.sortedIndexes(exampleSource.toArray());
-		int[] targetIndex = Sort.sortedIndexes(exampleSource.toArray());
-		Tensor target = source.zeroCopy();
-		for(int i=0;i<sourceIndex.length;i++)
-			target.put(targetIndex[i], source.get(sourceIndex[i]));
-		return target;
+	/**
+	 * Sets whether predictions and training should also consider second-order proximity (default is false), i.e.
+	 * the similarity between each node's embedding and the aggregation of the other node's neighbor embeddings.
+	 * Neighbor aggregations are incrementally maintained by {@link ContextTrainingExampleData} once this is enabled.
+	 * 
+	 * @param secondOrderProximity Whether to enable second-order proximity.
+	 * @return <code>this</code> GNNMiner instance.
+	 * @see #setNeighborAggregationExchange(boolean)
+	 */
+	public GNNMiner setSecondOrderProximity(boolean secondOrderProximity) {
+		this.secondOrderProximity = secondOrderProximity;
+		return this;
+	}
+	
+	/**
+	 * Sets whether the ego's neighbor aggregation should be exchanged alongside embeddings (default is false). When enabled,
+	 * aggregations received from alters are stored with {@link GNNNodeData#setNeighborAggregation(Tensor)} and used
+	 * instead of the locally maintained ones, as alters know their neighborhood better.
+	 * Exchanged aggregations are permuted similarly to embeddings by {@link #setDeniability(double, double)}.
+	 * 
+	 * @param neighborAggregationExchange Whether to exchange neighbor aggregations.
+	 * @return <code>this</code> GNNMiner instance.
+	 * @see #setSecondOrderProximity(boolean)
+	 */
+	public GNNMiner setNeighborAggregationExchange(boolean neighborAggregationExchange) {
+		this.neighborAggregationExchange = neighborAggregationExchange;
+		return this;
 	}
 	
 	@Override
@@ -241,18 +464,19 @@ public class GNNMiner extends SocialGraphMiner {
 		Node alter = edge.getAlter();
 		Context context = edge.getContext();
 		if(updateEgoEmbeddingsFromNeighbors!=0 && params!=null)
-			ego.getOrCreateInstance(GNNNodeData.class).getEmbedding()
-					.selfMultiply(1-updateEgoEmbeddingsFromNeighbors)
-					.selfAdd( ((Tensor)params.get("ego_embedding")).multiply(updateEgoEmbeddingsFromNeighbors) );
+			ego.getOrCreateInstance(GNNNodeData.class).forceSetEmbedding(ego.getOrCreateInstance(GNNNodeData.class).getEmbedding()
+					.multiply(1-updateEgoEmbeddingsFromNeighbors)
+					.selfAdd( ((Tensor)params.get("ego_embedding")).multiply(updateEgoEmbeddingsFromNeighbors) ));
 		
-		if(embeddingExchangeProtocol!=null && params!=null)
-			for(Node node : interaction.getEdge().getContext().getNodes())  {
-				Tensor embedding = embeddingExchangeProtocol.requestEmbeddings(ego, node);
-				if(embedding!=null && node!=ego) {
-					node.getOrCreateInstance(GNNNodeData.class).forceSetEmbedding(embedding);
-					node.getOrCreateInstance(GNNNodeData.class).setRegularization(embedding.multiply(regularizationAbsorbsion));
-				}
+		if(embeddingExchangeProtocol!=null && params!=null) {
+			ArrayList<Node> alters = new ArrayList<Node>(context.getNodes());
+			alters.remove(ego);
+			for(Entry<Node, Tensor> entry : embeddingExchangeProtocol.requestEmbeddings(ego, alters).entrySet()) {
+				Tensor embedding = entry.getValue();
+				entry.getKey().getOrCreateInstance(GNNNodeData.class).forceSetEmbedding(embedding);
+				entry.getKey().getOrCreateInstance(GNNNodeData.class).setRegularization(embedding.multiply(regularizationAbsorbsion));
 			}
+		}
 			
 		/*
 		if(globalEmbeddingRegistry!=null && Math.random()<globalEmbeddingRegistryChance)
@@ -266,16 +490,20 @@ public class GNNMiner extends SocialGraphMiner {
 		*/
 		
 		if(params!=null) {
-			Tensor alterTensor = transformLike((Tensor)params.get("ego_embedding"),
-					    ((Tensor)params.get("ego_embedding"))
-					    			.add((Tensor)params.get("alter_embedding")), 
-						ego.getOrCreateInstance(GNNNodeData.class).getEmbedding()
-									.add(edge.getAlter().getOrCreateInstance(GNNNodeData.class).getEmbedding()));
+			Tensor alterTensor = (Tensor)params.get("ego_embedding");
+			if(enableSpectralAlignment)
+				alterTensor = spectralAlignment.align(alter, alterTensor.copy(),
+						alterTensor,
+						(Tensor)params.get("alter_embedding"),
+						ego.getOrCreateInstance(GNNNodeData.class).getEmbedding(),
+						alter.getOrCreateInstance(GNNNodeData.class).getEmbedding());
 			if(params.get("packed_examples")!=null)
 				unpackExamples((String)params.get("packed_examples"), edge.getContext());
 			
 			alter.getOrCreateInstance(GNNNodeData.class).forceSetEmbedding(alterTensor);
 			alter.getOrCreateInstance(GNNNodeData.class).setRegularization(alterTensor.multiply(regularizationAbsorbsion));
+			if(neighborAggregationExchange && params.get("neighbor_aggregation")!=null)
+				alter.getOrCreateInstance(GNNNodeData.class).setNeighborAggregation((Tensor)params.get("neighbor_aggregation"));
 		}
 		
 		ContextTrainingExampleData trainingExampleData = context.getOrCreateInstance(ContextTrainingExampleData.class);
@@ -294,28 +522,30 @@ public class GNNMiner extends SocialGraphMiner {
 		
 		// create the positive training example
 		trainingExampleData.addTrainingExample(new TrainingExample(edge.getSrc(), edge.getDst(), 1));
-		// create two negative training examples
-		if(context.getNodes().size()>2) {
-				Node negativeNode = ego;
-				ArrayList<Node> nodes = new ArrayList<Node>(); 
-				/*if(globalEmbeddingRegistry!=null) {
-					for(String nodeId : globalEmbeddingRegistry.keySet())
-						if(!edge.getContext().getNodes().contains(edge.getContextualEgoNetwork().getOrCreateNode(nodeId, null)))
-							nodes.add(edge.getContextualEgoNetwork().getOrCreateNode(nodeId, null));
-				}
-				else*/
-				nodes = edge.getContext().getNodes();
-				while(negativeNode==edge.getSrc() || negativeNode==edge.getDst()) 
-					negativeNode = nodes.get((int)(Math.random()*nodes.size()));
+		// create two negative training examples per negative node
+		negativeSampler.observe(context, edge);
+		if(context.getNodes().size()>2)
+			for(int sample=0;sample<negativeSamples;sample++) {
+				Node negativeNode = negativeSampler.sample(context, edge);
+				if(negativeNode==null)
+					break;
 				trainingExampleData.addTrainingExample(new TrainingExample(edge.getSrc(), negativeNode, 0));
 				trainingExampleData.addTrainingExample(new TrainingExample(negativeNode, edge.getDst(), 0));
 			}
 		train(trainingExampleData);
 		
 		// send parameters to embedding exchange protocol
-		if(embeddingExchangeProtocol!=null)
-			for(Node node : context.getNodes()) 
-				embeddingExchangeProtocol.registerEmbeddings(ego, node, node.getOrCreateInstance(GNNNodeData.class).getEmbedding());
+		if(embeddingExchangeProtocol!=null) {
+			registrationRound += 1;
+			LinkedHashMap<Node, Tensor> embeddings = new LinkedHashMap<Node, Tensor>();
+			for(Node node : context.getNodes()) {
+				Tensor embedding = node.getOrCreateInstance(GNNNodeData.class).getEmbedding();
+				if(markForRegistration(node, embedding))
+					embeddings.put(node, embedding);
+			}
+			if(!embeddings.isEmpty())
+				embeddingExchangeProtocol.registerEmbeddings(ego, embeddings);
+		}
 	
 		// train LSTM (carefull to do this after embedding exhanges to not affect which parameters are exchanges)
 		for(Node node : context.getNodes())
@@ -323,39 +553,33 @@ public class GNNMiner extends SocialGraphMiner {
 		
 	}
 	
+	/**
+	 * Retrieves the aggregation of the ego's neighbor embeddings in the given context, as incrementally
+	 * maintained by {@link ContextTrainingExampleData#getNeighborAggregation(Node)}.
+	 * @param context The context in which to aggregate neighbor embeddings.
+	 * @return A tensor holding the normalized aggregation.
+	 */
 	protected Tensor aggregateNeighborEmbeddings(Context context) {
-		Node egoNode = context.getContextualEgoNetwork().getEgo();
-		Tensor ret = getContextualEgoNetwork().getEgo().getOrCreateInstance(GNNNodeData.class).getEmbedding().zeroCopy();
-		//double totalWeight = 0;
-		for(TrainingExample trainingExample : context.getOrCreateInstance(ContextTrainingExampleData.class).getTrainingExampleList()) {
-			if(trainingExample.getSrc()==egoNode) {
-				ret.selfAdd(trainingExample.getDst().getOrCreateInstance(GNNNodeData.class)
-						.getEmbedding()
-						.multiply(trainingExample.getWeight()*(trainingExample.getLabel()-0.5))
-						);
-				/*ret.selfAdd(trainingExample.getDst().getOrCreateInstance(GNNNodeData.class)
-						.getNeighborAggregation()
-						.multiply(-trainingExample.getWeight()*(trainingExample.getLabel()-0.5))
-						);*/
-				//totalWeight += trainingExample.getWeight();
-			}
-			if(trainingExample.getDst()==egoNode) {
-				ret.selfAdd(trainingExample.getSrc().getOrCreateInstance(GNNNodeData.class)
-						.getEmbedding()
-						.multiply(trainingExample.getWeight())
-						.multiply(trainingExample.getWeight()*(trainingExample.getLabel()-0.5))
-						);
-				/*ret.selfAdd(trainingExample.getSrc().getOrCreateInstance(GNNNodeData.class)
-						.getNeighborAggregation()
-						.multiply(trainingExample.getWeight())
-						.multiply(-trainingExample.getWeight()*(trainingExample.getLabel()-0.5))
-						);*/
-				//totalWeight += trainingExample.getWeight();
-			}
+		ContextTrainingExampleData trainingExampleData = context.getOrCreateInstance(ContextTrainingExampleData.class);
+		trainingExampleData.synchronizeNeighborAggregations();
+		return trainingExampleData.getNeighborAggregation(context.getContextualEgoNetwork().getEgo());
+	}
+	
+	/**
+	 * Retrieves the neighbor aggregation of a node used for second-order proximity. This is the aggregation received
+	 * from the node's device if {@link #setNeighborAggregationExchange(boolean)} is enabled and such an aggregation
+	 * has been received, or the locally maintained aggregation otherwise.
+	 * @param trainingExampleData The training example data of the context in which the node resides.
+	 * @param node The node whose neighbor aggregation to retrieve.
+	 * @return A tensor holding the neighbor aggregation.
+	 */
+	protected Tensor getNeighborAggregation(ContextTrainingExampleData trainingExampleData, Node node) {
+		if(neighborAggregationExchange && node!=getContextualEgoNetwork().getEgo()) {
+			Tensor received = node.getOrCreateInstance(GNNNodeData.class).getNeighborAggregation();
+			if(received.norm()!=0)
+				return received;
 		}
-		//if(totalWeight!=0)
-		//	ret = ret.multiply(1./totalWeight);
-		return ret.setToNormalized();
+		return trainingExampleData.getNeighborAggregation(node);
 	}
 	
 	public double getConfidence(Context context) {
@@ -402,6 +626,8 @@ public class GNNMiner extends SocialGraphMiner {
 		ret.put("confidence", (Double)getConfidence(context));
 		if(enableTrainingExamplePropagation)
 			ret.put("packed_examples", packExamples(context));
+		if(neighborAggregationExchange)
+			ret.put("neighbor_aggregation", permute(aggregateNeighborEmbeddings(context), egoDeniability));
 		ret.put("src_embedding", context.getOrCreateInstance(ContextTrainingExampleData.class).transformToSrcEmbedding);
 		ret.put("dst_embedding", context.getOrCreateInstance(ContextTrainingExampleData.class).transformToDstEmbedding);
 		//if(context.getOrCreateInstance(ContextTrainingExampleData.class).lstm!=null)
@@ -415,16 +641,60 @@ public class GNNMiner extends SocialGraphMiner {
 		return ret;
 	}
 	
-	protected void train(ContextTrainingExampleData trainingExampleData) {
-		double learningRate = this.learningRate;
-		double previousLoss = -1;
-		for(int epoch=0;epoch<maxEpoch;epoch++) {
-			double loss = trainEpoch(trainingExampleData, learningRate);
-			learningRate *= this.learningRateDegradation;
-			if(Math.abs(previousLoss-loss)<convergenceRelativeLoss*loss)
+	/**
+	 * Retrieves the progress of the last training run in the given context.
+	 * @param context The context whose training progress to retrieve.
+	 * @return The training progress, or <code>null</code> if no training has occurred in the context since
+	 * 	the contextual ego network was loaded.
+	 */
+	public TrainingProgress getTrainingProgress(Context context) {
+		return context.getOrCreateInstance(ContextTrainingExampleData.class).trainingProgress;
+	}
+	
+	/**
+	 * Continues training in the given context if its last training run has been interrupted by the
+	 * training deadline and {@link #setTrainingResumption(boolean)} is enabled. This is meant to be called
+	 * when the device is idle, with a time budget independent of the training deadline.
+	 * @param context The context in which to continue training.
+	 * @param milliseconds The time budget in milliseconds. Zero values do not bound training time.
+	 * @return The progress of the continued training run, or <code>null</code> if there was nothing to continue.
+	 */
+	public synchronized TrainingProgress trainIdle(Context context, double milliseconds) {
+		if(context==null)
+			return Utils.error("Can not train for null context", null);
+		ContextTrainingExampleData trainingExampleData = context.getOrCreateInstance(ContextTrainingExampleData.class);
+		TrainingProgress progress = trainingExampleData.trainingProgress;
+		if(!resumeInterruptedTraining || progress==null || !progress.isInterrupted())
+			return null;
+		train(trainingExampleData, progress, milliseconds);
+		return progress;
+	}
+	
+	protected TrainingProgress train(ContextTrainingExampleData trainingExampleData) {
+		TrainingProgress progress = trainingExampleData.trainingProgress;
+		if(resumeInterruptedTraining && progress!=null && progress.isInterrupted())
+			progress.resetConvergence();
+		else
+			progress = new TrainingProgress(learningRate);
+		trainingExampleData.trainingProgress = progress;
+		train(trainingExampleData, progress, trainingDeadline);
+		return progress;
+	}
+	
+	protected void train(ContextTrainingExampleData trainingExampleData, TrainingProgress progress, double milliseconds) {
+		long start = System.nanoTime();
+		long deadline = milliseconds==0?Long.MAX_VALUE:start+(long)(milliseconds*1.E6);
+		progress.startSession();
+		while(progress.getEpochs()<maxEpoch) {
+			double loss = trainEpoch(trainingExampleData, progress.getLearningRate());
+			if(progress.completeEpoch(loss, learningRateDegradation, convergenceRelativeLoss))
+				break;
+			if(progress.getEpochs()<maxEpoch && System.nanoTime()>=deadline) {
+				progress.interrupt();
 				break;
-			previousLoss = loss;
+			}
 		}
+		progress.addElapsedNanos(System.nanoTime()-start);
 	}
 	
 	protected double trainEpoch(ContextTrainingExampleData trainingExampleData, double learningRate) {
@@ -436,14 +706,21 @@ public class GNNMiner extends SocialGraphMiner {
 		double transformToSrcEmbeddingDerivativeWeight = 0;
 		double transformToDstEmbeddingDerivativeWeight = 0;
 		double loss = 0;
+		HashMap<Node, Tensor> neighborAggregations = new HashMap<Node, Tensor>();
+		if(secondOrderProximity)
+			trainingExampleData.synchronizeNeighborAggregations();
 		for(TrainingExample trainingExample : trainingExampleData.getTrainingExampleList()) {
 			Node u = trainingExample.getSrc();
 			Node v = trainingExample.getDst();
 			if(secondOrderProximity) {
+				if(!neighborAggregations.containsKey(u))
+					neighborAggregations.put(u, getNeighborAggregation(trainingExampleData, u));
+				if(!neighborAggregations.containsKey(v))
+					neighborAggregations.put(v, getNeighborAggregation(trainingExampleData, v));
 				Tensor embedding_u = u.getOrCreateInstance(GNNNodeData.class).getEmbedding().multiply(trainingExampleData.transformToSrcEmbedding);
 				Tensor embedding_v = v.getOrCreateInstance(GNNNodeData.class).getEmbedding().multiply(trainingExampleData.transformToDstEmbedding);
-				Tensor secondOrder_u = u.getOrCreateInstance(GNNNodeData.class).getNeighborAggregation().multiply(trainingExampleData.transformToSrcEmbedding);
-				Tensor secondOrder_v = v.getOrCreateInstance(GNNNodeData.class).getNeighborAggregation().multiply(trainingExampleData.transformToSrcEmbedding);
+				Tensor secondOrder_u = neighborAggregations.get(u).multiply(trainingExampleData.transformToSrcEmbedding);
+				Tensor secondOrder_v = neighborAggregations.get(v).multiply(trainingExampleData.transformToSrcEmbedding);
 				
 				double firstOrderActivation = embedding_u.dot(embedding_v);
 				
@@ -541,21 +818,26 @@ public class GNNMiner extends SocialGraphMiner {
 		if(context==null || u==null || v==null)
 			Utils.error(new IllegalArgumentException());
 		ContextTrainingExampleData trainingExampleData = context.getOrCreateInstance(ContextTrainingExampleData.class);
-		
+		if(secondOrderProximity)
+			trainingExampleData.synchronizeNeighborAggregations();
+		return predictNewInteraction(trainingExampleData, u, v);
+	}
+	
+	protected double predictNewInteraction(ContextTrainingExampleData trainingExampleData, Node u, Node v) {
 		if(trainingExampleData.transformToDstEmbedding==null) 
 			trainingExampleData.transformToDstEmbedding = u.getOrCreateInstance(GNNNodeData.class).getEmbedding().zeroCopy().setToOnes();
 		if(trainingExampleData.transformToSrcEmbedding==null) 
 			trainingExampleData.transformToSrcEmbedding = v.getOrCreateInstance(GNNNodeData.class).getEmbedding().zeroCopy().setToOnes();
 		
-		
 		Tensor embedding_u = u.getOrCreateInstance(GNNNodeData.class).getEmbedding().multiply(trainingExampleData.transformToSrcEmbedding);
 		Tensor embedding_v = v.getOrCreateInstance(GNNNodeData.class).getEmbedding().multiply(trainingExampleData.transformToDstEmbedding);
-		Tensor secondOrder_u = u.getOrCreateInstance(GNNNodeData.class).getNeighborAggregation().multiply(trainingExampleData.transformToSrcEmbedding);
-		Tensor secondOrder_v = v.getOrCreateInstance(GNNNodeData.class).getNeighborAggregation().multiply(trainingExampleData.transformToSrcEmbedding);
-		
-		
 		double firstOrderActivation = Loss.sigmoid(embedding_u.dot(embedding_v));
-		double secondOrderActivation = secondOrderProximity?Loss.sigmoid(embedding_u.dot(secondOrder_v))*Loss.sigmoid(embedding_v.dot(secondOrder_u)):1;
+		if(!secondOrderProximity)
+			return firstOrderActivation;
+		
+		Tensor secondOrder_u = getNeighborAggregation(trainingExampleData, u).multiply(trainingExampleData.transformToSrcEmbedding);
+		Tensor secondOrder_v = getNeighborAggregation(trainingExampleData, v).multiply(trainingExampleData.transformToSrcEmbedding);
+		double secondOrderActivation = Loss.sigmoid(embedding_u.dot(secondOrder_v))*Loss.sigmoid(embedding_v.dot(secondOrder_u));
 		
 		return firstOrderActivation*secondOrderActivation;
 	}
@@ -567,4 +849,22 @@ public class GNNMiner extends SocialGraphMiner {
 		return predictNewInteraction(context, u, v);
 		
 	}
+	
+	@Override
+	public HashMap<Node, Double> recommendInteractions(Context context) {
+		if(context==null) 
+			return Utils.error("Can not predict interactions for null context", new HashMap<Node, Double>());
+		ContextTrainingExampleData trainingExampleData = context.getOrCreateInstance(ContextTrainingExampleData.class);
+		if(secondOrderProximity)
+			trainingExampleData.synchronizeNeighborAggregations();
+		HashMap<Node, Double> scores = new HashMap<Node, Double>();
+		Node ego = context.getContextualEgoNetwork().getEgo();
+		for(Node node : context.getNodes())
+			if(node!=ego) {
+				double value = predictNewInteraction(trainingExampleData, ego, node);
+				if(Double.isFinite(value) && value!=0)
+					scores.put(node, value);
+			}
+		return scores;
+	}
 }
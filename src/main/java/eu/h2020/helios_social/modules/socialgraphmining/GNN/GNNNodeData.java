@@ -24,9 +24,26 @@ public class GNNNodeData {
 	private Tensor neighborAggregation = null;
 	
 	private LinkedList<Tensor> embeddingHistory = null;
+	private transient GNNSnapshot snapshot = null;
+	private String snapshotPath = null;
+	private long snapshotLastModified = 0;
+	private int snapshotIndex = -1;
 	
 	public GNNNodeData() {}
 	protected void initializeIfNeeded() {
+		if(embedding==null && snapshotPath!=null) {
+			if(snapshot==null)
+				snapshot = GNNSnapshot.reopen(snapshotPath, snapshotLastModified);
+			if(snapshot!=null) {
+				embedding = snapshot.readEmbedding(snapshotIndex);
+				regularization = snapshot.readRegularization(snapshotIndex);
+				neighborAggregation = snapshot.createZeroTensor();
+				embeddingHistory = snapshot.readEmbeddingHistory(snapshotIndex);
+			}
+			snapshot = null;
+			snapshotPath = null;
+			snapshotIndex = -1;
+		}
 		if(embedding==null) {
 			embedding = new DenseTensor(embeddingSize);
 			regularization = new DenseTensor(embeddingSize);
@@ -36,6 +53,24 @@ public class GNNNodeData {
 		}
 	}
 	
+	/**
+	 * Replaces the node's data with those stored at the given index of a {@link GNNSnapshot}. Data are
+	 * only read from the snapshot the next time they are accessed. Until then, the snapshot's path is kept
+	 * in place of the data, so that they are not lost if this instance is serialized.
+	 * @param snapshot The snapshot holding the node's data.
+	 * @param snapshotIndex The node's index in the snapshot.
+	 */
+	synchronized void loadFromSnapshot(GNNSnapshot snapshot, int snapshotIndex) {
+		embedding = null;
+		regularization = null;
+		neighborAggregation = null;
+		embeddingHistory = null;
+		this.snapshot = snapshot;
+		this.snapshotPath = snapshot.getPath();
+		this.snapshotLastModified = snapshot.getLastModified();
+		this.snapshotIndex = snapshotIndex;
+	}
+	
 	public synchronized void addEmbeddingToHistory() {
 		initializeIfNeeded();
 		if(embeddingHistory.size()>10)
@@ -110,6 +145,16 @@ public class GNNNodeData {
 		this.regularization = regularization;
 	}
 	
+	/**
+	 * Retrieves the regularization of the {@link #updateEmbedding(Tensor)} operation.
+	 * @return A tensor holding the regularization.
+	 * @see #setRegularization(Tensor)
+	 */
+	public synchronized Tensor getRegularization() {
+		initializeIfNeeded();
+		return regularization;
+	}
+	
 	/**
 	 * Sets the learning rate (default is 1) of the {@link #updateEmbedding(Tensor)} operation.
 	 * @param learningRate The given regularization weight.
@@ -143,6 +188,7 @@ public class GNNNodeData {
 	 * @see #setRegularization(Tensor)
 	 */
 	public synchronized void updateEmbedding(Tensor derivative) {
+		initializeIfNeeded();
 		//System.out.println(embedding.subtract(regularization).norm());
 		embedding = embedding
 						.add(regularization.subtract(embedding).selfMultiply(regularizationWeight*learningRate))
@@ -0,0 +1,350 @@
+package eu.h2020.helios_social.modules.socialgraphmining.GNN;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+
+import eu.h2020.helios_social.core.contextualegonetwork.Context;
+import eu.h2020.helios_social.core.contextualegonetwork.ContextualEgoNetwork;
+import eu.h2020.helios_social.core.contextualegonetwork.Node;
+import eu.h2020.helios_social.core.contextualegonetwork.Utils;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.tensor.DenseTensor;
+
+/**
+ * This class implements a dedicated snapshot format for the {@link GNNNodeData} of all nodes and the
+ * {@link ContextTrainingExampleData} of all contexts of a contextual ego network, which can be used instead
+ * of the network's generic storage to quickly restore {@link GNNMiner} state on startup.
+ * <br>
+ * Snapshots comprise a header of section offsets, a node identifier table, flat arrays of embeddings,
+ * regularizations and embedding histories, and a columnar block of training examples per context.
+ * They are written to a temporary file that atomically replaces the target file, so that crashes never
+ * leave partially written snapshots behind. Loading memory-maps the file and only materializes node data
+ * when first accessed, so that startup time does not depend on the number of nodes' embeddings.
+ * Node data that have not been accessed keep the path and modification time of the snapshot file, so that
+ * saving the contextual ego network before accessing them does not lose them; they are read from the file when
+ * accessed after the network is loaded again, unless the file has been modified in the meantime.
+ * Contexts are matched by their order in {@link ContextualEgoNetwork#getContexts()}.
+ * <br>
+ * Usage: call <code>GNNSnapshot.write(contextualEgoNetwork, file)</code> before shutting down and
+ * <code>GNNSnapshot.load(contextualEgoNetwork, file)</code> after loading the contextual ego network.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class GNNSnapshot {
+	private static final int MAGIC = 0x474E4E53;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 5*4+6*8;
+	private static final HashMap<String, WeakReference<GNNSnapshot>> openSnapshots = new HashMap<String, WeakReference<GNNSnapshot>>();
+
+	private MappedByteBuffer buffer;
+	private String path;
+	private long lastModified;
+	private int dims;
+	private int embeddingsOffset;
+	private int regularizationOffset;
+	private int historyIndexOffset;
+	private int historyOffset;
+
+	private GNNSnapshot(MappedByteBuffer buffer, String path, long lastModified) throws IOException {
+		this.buffer = buffer;
+		this.path = path;
+		this.lastModified = lastModified;
+		if(buffer.getInt(0)!=MAGIC)
+			throw new IOException("Not a GNN snapshot");
+		if(buffer.getInt(4)!=VERSION)
+			throw new IOException("Unsupported GNN snapshot version "+buffer.getInt(4));
+		dims = buffer.getInt(8);
+		embeddingsOffset = (int)buffer.getLong(28);
+		regularizationOffset = (int)buffer.getLong(36);
+		historyIndexOffset = (int)buffer.getLong(44);
+		historyOffset = (int)buffer.getLong(52);
+	}
+
+	private Tensor readTensor(int offset) {
+		Tensor tensor = new DenseTensor(dims);
+		for(int dim=0;dim<dims;dim++)
+			tensor.put(dim, buffer.getDouble(offset+8*dim));
+		return tensor;
+	}
+
+	Tensor readEmbedding(int index) {
+		return readTensor(embeddingsOffset+8*dims*index);
+	}
+
+	Tensor readRegularization(int index) {
+		return readTensor(regularizationOffset+8*dims*index);
+	}
+
+	LinkedList<Tensor> readEmbeddingHistory(int index) {
+		LinkedList<Tensor> history = new LinkedList<Tensor>();
+		int start = buffer.getInt(historyIndexOffset+4*index);
+		int end = buffer.getInt(historyIndexOffset+4*(index+1));
+		for(int pos=start;pos<end;pos++)
+			history.add(readTensor(historyOffset+8*dims*pos));
+		return history;
+	}
+
+	Tensor createZeroTensor() {
+		return new DenseTensor(dims);
+	}
+
+	String getPath() {
+		return path;
+	}
+
+	long getLastModified() {
+		return lastModified;
+	}
+
+	private static synchronized GNNSnapshot open(File file) throws IOException {
+		String path = file.getAbsolutePath();
+		long lastModified = file.lastModified();
+		WeakReference<GNNSnapshot> reference = openSnapshots.get(path);
+		GNNSnapshot snapshot = reference==null?null:reference.get();
+		if(snapshot!=null && snapshot.lastModified==lastModified)
+			return snapshot;
+		MappedByteBuffer buffer;
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			if(channel.size()>Integer.MAX_VALUE)
+				throw new IOException("GNN snapshots larger than 2GB are not supported");
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		finally {
+			randomAccessFile.close();
+		}
+		snapshot = new GNNSnapshot(buffer, path, lastModified);
+		openSnapshots.put(path, new WeakReference<GNNSnapshot>(snapshot));
+		return snapshot;
+	}
+
+	/**
+	 * Reopens the snapshot file from which node data were pending when the contextual ego network was saved.
+	 * @param path The absolute path of the snapshot file.
+	 * @param lastModified The modification time of the file when node data were loaded from it.
+	 * @return The snapshot, or <code>null</code> if the file has since been modified or cannot be read.
+	 */
+	static GNNSnapshot reopen(String path, long lastModified) {
+		File file = new File(path);
+		if(!file.exists() || file.lastModified()!=lastModified)
+			return null;
+		try {
+			return open(file);
+		}
+		catch(IOException e) {
+			return Utils.error(e, null);
+		}
+	}
+
+	private static byte[] encode(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void writeTensor(DataOutputStream out, Tensor tensor, int dims) throws IOException {
+		for(int dim=0;dim<dims;dim++)
+			out.writeDouble(tensor.get(dim));
+	}
+
+	/**
+	 * Writes a snapshot of all {@link GNNNodeData} and {@link ContextTrainingExampleData} of the given
+	 * contextual ego network. The file is atomically replaced, i.e. it either holds the previous or the new snapshot
+	 * at all times.
+	 * @param contextualEgoNetwork The contextual ego network whose GNN state to write.
+	 * @param file The snapshot file.
+	 * @throws IOException If the snapshot could not be written.
+	 */
+	public static void write(ContextualEgoNetwork contextualEgoNetwork, File file) throws IOException {
+		LinkedHashMap<Node, Integer> nodeIds = new LinkedHashMap<Node, Integer>();
+		ArrayList<ContextTrainingExampleData> contextData = new ArrayList<ContextTrainingExampleData>();
+		nodeIds.put(contextualEgoNetwork.getEgo(), 0);
+		for(Context context : contextualEgoNetwork.getContexts()) {
+			ContextTrainingExampleData trainingExampleData = context.getOrCreateInstance(ContextTrainingExampleData.class);
+			contextData.add(trainingExampleData);
+			for(Node node : context.getNodes())
+				if(!nodeIds.containsKey(node))
+					nodeIds.put(node, nodeIds.size());
+			for(TrainingExample example : trainingExampleData.getTrainingExampleList()) {
+				if(!nodeIds.containsKey(example.getSrc()))
+					nodeIds.put(example.getSrc(), nodeIds.size());
+				if(!nodeIds.containsKey(example.getDst()))
+					nodeIds.put(example.getDst(), nodeIds.size());
+			}
+		}
+		int numNodes = nodeIds.size();
+		ArrayList<byte[]> encodedIds = new ArrayList<byte[]>(numNodes);
+		ArrayList<Tensor> embeddings = new ArrayList<Tensor>(numNodes);
+		ArrayList<Tensor> regularizations = new ArrayList<Tensor>(numNodes);
+		ArrayList<ArrayList<Tensor>> histories = new ArrayList<ArrayList<Tensor>>(numNodes);
+		long nodeTableSize = 0;
+		int historySize = 0;
+		for(Node node : nodeIds.keySet()) {
+			GNNNodeData nodeData = node.getOrCreateInstance(GNNNodeData.class);
+			byte[] encodedId = encode(node.getId());
+			encodedIds.add(encodedId);
+			nodeTableSize += 4+encodedId.length;
+			synchronized(nodeData) {
+				embeddings.add(nodeData.getEmbedding());
+				regularizations.add(nodeData.getRegularization());
+				ArrayList<Tensor> history = new ArrayList<Tensor>(nodeData.getEmbeddingHistory());
+				histories.add(history);
+				historySize += history.size();
+			}
+		}
+		int dims = numNodes==0?0:(int)embeddings.get(0).size();
+		long nodeTableOffset = HEADER_SIZE;
+		long embeddingsOffset = nodeTableOffset+nodeTableSize;
+		long regularizationOffset = embeddingsOffset+8L*dims*numNodes;
+		long historyIndexOffset = regularizationOffset+8L*dims*numNodes;
+		long historyOffset = historyIndexOffset+4L*(numNodes+1);
+		long examplesOffset = historyOffset+8L*dims*historySize;
+
+		File temporaryFile = new File(file.getAbsoluteFile().getParentFile(), file.getName()+".tmp");
+		FileOutputStream fileStream = new FileOutputStream(temporaryFile);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileStream, 1<<16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(dims);
+			out.writeInt(numNodes);
+			out.writeInt(contextData.size());
+			out.writeLong(nodeTableOffset);
+			out.writeLong(embeddingsOffset);
+			out.writeLong(regularizationOffset);
+			out.writeLong(historyIndexOffset);
+			out.writeLong(historyOffset);
+			out.writeLong(examplesOffset);
+			for(byte[] encodedId : encodedIds) {
+				out.writeInt(encodedId.length);
+				out.write(encodedId);
+			}
+			for(Tensor embedding : embeddings)
+				writeTensor(out, embedding, dims);
+			for(Tensor regularization : regularizations)
+				writeTensor(out, regularization, dims);
+			int historyPosition = 0;
+			out.writeInt(historyPosition);
+			for(ArrayList<Tensor> history : histories) {
+				historyPosition += history.size();
+				out.writeInt(historyPosition);
+			}
+			for(ArrayList<Tensor> history : histories)
+				for(Tensor tensor : history)
+					writeTensor(out, tensor, dims);
+			for(ContextTrainingExampleData trainingExampleData : contextData) {
+				ArrayList<TrainingExample> examples;
+				Tensor transformToSrcEmbedding;
+				Tensor transformToDstEmbedding;
+				synchronized(trainingExampleData) {
+					examples = new ArrayList<TrainingExample>(trainingExampleData.getTrainingExampleList());
+					transformToSrcEmbedding = trainingExampleData.transformToSrcEmbedding;
+					transformToDstEmbedding = trainingExampleData.transformToDstEmbedding;
+				}
+				out.writeInt(examples.size());
+				for(TrainingExample example : examples)
+					out.writeInt(nodeIds.get(example.getSrc()));
+				for(TrainingExample example : examples)
+					out.writeInt(nodeIds.get(example.getDst()));
+				for(TrainingExample example : examples)
+					out.writeByte(example.getLabel());
+				for(TrainingExample example : examples)
+					out.writeDouble(example.getWeight());
+				boolean hasTransforms = transformToSrcEmbedding!=null && transformToDstEmbedding!=null;
+				out.writeBoolean(hasTransforms);
+				if(hasTransforms) {
+					writeTensor(out, transformToSrcEmbedding, dims);
+					writeTensor(out, transformToDstEmbedding, dims);
+				}
+			}
+			out.flush();
+			fileStream.getFD().sync();
+		}
+		finally {
+			fileStream.close();
+		}
+		try {
+			Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch(AtomicMoveNotSupportedException exception) {
+			Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Loads a snapshot written by {@link #write(ContextualEgoNetwork, File)} into the given contextual ego network.
+	 * Snapshot node data replace the {@link GNNNodeData} of respective nodes (nodes are created if needed), but are
+	 * only read from the memory-mapped file the first time each node's data are accessed. Training examples of
+	 * contexts are restored immediately.
+	 * @param contextualEgoNetwork The contextual ego network in which to load GNN state.
+	 * @param file The snapshot file.
+	 * @return The number of nodes whose data were found in the snapshot.
+	 * @throws IOException If the snapshot could not be read.
+	 */
+	public static int load(ContextualEgoNetwork contextualEgoNetwork, File file) throws IOException {
+		GNNSnapshot snapshot = open(file);
+		MappedByteBuffer buffer = snapshot.buffer;
+		int numNodes = buffer.getInt(12);
+		int numContexts = buffer.getInt(16);
+		int position = (int)buffer.getLong(20);
+		Node[] nodes = new Node[numNodes];
+		for(int index=0;index<numNodes;index++) {
+			int length = buffer.getInt(position);
+			byte[] encodedId = new byte[length];
+			for(int i=0;i<length;i++)
+				encodedId[i] = buffer.get(position+4+i);
+			position += 4+length;
+			nodes[index] = contextualEgoNetwork.getOrCreateNode(new String(encodedId, StandardCharsets.UTF_8), null);
+			nodes[index].getOrCreateInstance(GNNNodeData.class).loadFromSnapshot(snapshot, index);
+		}
+		position = (int)buffer.getLong(60);
+		int contextIndex = 0;
+		HashMap<Integer, Context> contexts = new HashMap<Integer, Context>();
+		for(Context context : contextualEgoNetwork.getContexts())
+			contexts.put(contextIndex++, context);
+		for(contextIndex=0;contextIndex<numContexts;contextIndex++) {
+			int numExamples = buffer.getInt(position);
+			int srcOffset = position+4;
+			int dstOffset = srcOffset+4*numExamples;
+			int labelOffset = dstOffset+4*numExamples;
+			int weightOffset = labelOffset+numExamples;
+			position = weightOffset+8*numExamples;
+			boolean hasTransforms = buffer.get(position)!=0;
+			position += 1;
+			Context context = contexts.get(contextIndex);
+			if(context!=null) {
+				ContextTrainingExampleData trainingExampleData = context.getOrCreateInstance(ContextTrainingExampleData.class);
+				synchronized(trainingExampleData) {
+					trainingExampleData.clearTrainingExamples();
+					for(int example=0;example<numExamples;example++)
+						trainingExampleData.addTrainingExample(new TrainingExample(
+								nodes[buffer.getInt(srcOffset+4*example)],
+								nodes[buffer.getInt(dstOffset+4*example)],
+								buffer.get(labelOffset+example))
+								.degrade(buffer.getDouble(weightOffset+8*example)));
+					if(hasTransforms) {
+						trainingExampleData.transformToSrcEmbedding = snapshot.readTensor(position);
+						trainingExampleData.transformToDstEmbedding = snapshot.readTensor(position+8*snapshot.dims);
+					}
+				}
+			}
+			if(hasTransforms)
+				position += 16*snapshot.dims;
+		}
+		return numNodes;
+	}
+}
@@ -0,0 +1,124 @@
+package eu.h2020.helios_social.modules.socialgraphmining.GNN;
+
+import java.util.Arrays;
+import java.util.WeakHashMap;
+
+import eu.h2020.helios_social.core.contextualegonetwork.Node;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.util.Sort;
+
+/**
+ * This class aligns the dimensions of embeddings received from other devices with their locally understood
+ * spectral representation, by matching the ranks of dimensions in received and local reference embeddings.
+ * It is used by {@link GNNMiner} when spectral alignment is enabled through {@link GNNMiner#setSpectralAlignment(boolean)}.
+ * <br>
+ * The permutation of each alter is cached and is recomputed only when the sort order of either its received or its
+ * local reference embedding changes. Checking whether cached sort orders are still valid takes linear time, and
+ * permutations are applied in place without allocating new tensors.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class SpectralAlignment {
+	private static class Alignment {
+		private double[] sourceValues;
+		private double[] targetValues;
+		private int[] sourceOrder = null;
+		private int[] targetOrder = null;
+		private boolean sourceAscending;
+		private boolean targetAscending;
+		private int[] permutation;
+		private boolean[] visited;
+
+		private Alignment(int dims) {
+			sourceValues = new double[dims];
+			targetValues = new double[dims];
+			permutation = new int[dims];
+			visited = new boolean[dims];
+		}
+	}
+
+	private WeakHashMap<Node, Alignment> alignments = new WeakHashMap<Node, Alignment>();
+	private long recomputations = 0;
+
+	private static boolean isSorted(double[] values, int[] order, boolean ascending) {
+		for(int i=1;i<order.length;i++) {
+			double difference = values[order[i]]-values[order[i-1]];
+			if(ascending?difference<0:difference>0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Permutes the dimensions of a received embedding in place so that the ranks of the received reference
+	 * embedding's dimensions are mapped to the ranks of the local reference embedding's dimensions. References are the
+	 * sums of the respective ego and alter embeddings.
+	 * @param alter The node whose permutation to retrieve from the cache.
+	 * @param source The received embedding to permute in place.
+	 * @param sourceEgo The received ego embedding.
+	 * @param sourceAlter The received alter embedding.
+	 * @param targetEgo The local ego embedding.
+	 * @param targetAlter The local alter embedding.
+	 * @return The source tensor, after being permuted.
+	 */
+	public synchronized Tensor align(Node alter, Tensor source, Tensor sourceEgo, Tensor sourceAlter, Tensor targetEgo, Tensor targetAlter) {
+		int dims = (int)source.size();
+		Alignment alignment = alignments.get(alter);
+		if(alignment==null || alignment.permutation.length!=dims)
+			alignments.put(alter, alignment = new Alignment(dims));
+		for(int dim=0;dim<dims;dim++) {
+			alignment.sourceValues[dim] = sourceEgo.get(dim)+sourceAlter.get(dim);
+			alignment.targetValues[dim] = targetEgo.get(dim)+targetAlter.get(dim);
+		}
+		boolean changed = false;
+		if(alignment.sourceOrder==null || !isSorted(alignment.sourceValues, alignment.sourceOrder, alignment.sourceAscending)) {
+			alignment.sourceOrder = Sort.sortedIndexes(alignment.sourceValues.clone());
+			alignment.sourceAscending = dims==0 || alignment.sourceValues[alignment.sourceOrder[0]]<=alignment.sourceValues[alignment.sourceOrder[dims-1]];
+			changed = true;
+		}
+		if(alignment.targetOrder==null || !isSorted(alignment.targetValues, alignment.targetOrder, alignment.targetAscending)) {
+			alignment.targetOrder = Sort.sortedIndexes(alignment.targetValues.clone());
+			alignment.targetAscending = dims==0 || alignment.targetValues[alignment.targetOrder[0]]<=alignment.targetValues[alignment.targetOrder[dims-1]];
+			changed = true;
+		}
+		if(changed) {
+			for(int i=0;i<dims;i++)
+				alignment.permutation[alignment.sourceOrder[i]] = alignment.targetOrder[i];
+			recomputations += 1;
+		}
+		int[] permutation = alignment.permutation;
+		boolean[] visited = alignment.visited;
+		Arrays.fill(visited, false);
+		for(int start=0;start<dims;start++) {
+			if(visited[start])
+				continue;
+			int position = start;
+			double carried = source.get(position);
+			do {
+				int next = permutation[position];
+				double displaced = source.get(next);
+				source.put(next, carried);
+				visited[next] = true;
+				carried = displaced;
+				position = next;
+			} while(position!=start);
+		}
+		return source;
+	}
+
+	/**
+	 * Retrieves the number of times permutations were recomputed, i.e. the number of alignments that could
+	 * not reuse a cached permutation.
+	 * @return The number of recomputations.
+	 */
+	public synchronized long getRecomputations() {
+		return recomputations;
+	}
+
+	/**
+	 * Discards all cached permutations.
+	 */
+	public synchronized void clear() {
+		alignments.clear();
+	}
+}
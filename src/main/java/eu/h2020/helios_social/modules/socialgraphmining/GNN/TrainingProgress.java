@@ -0,0 +1,109 @@
+package eu.h2020.helios_social.modules.socialgraphmining.GNN;
+
+/**
+ * This class reports how far a {@link GNNMiner} training run got and holds the information needed to resume
+ * it if it was interrupted by the training deadline set with {@link GNNMiner#setTrainingDeadline(double)}.
+ * The last training progress of each context can be obtained through {@link GNNMiner#getTrainingProgress(
+ * eu.h2020.helios_social.core.contextualegonetwork.Context)}.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class TrainingProgress {
+	private int epochs = 0;
+	private double learningRate;
+	private double previousLoss = -1;
+	private double loss = Double.NaN;
+	private boolean converged = false;
+	private boolean interrupted = false;
+	private long elapsedNanos = 0;
+	private int sessions = 0;
+
+	TrainingProgress(double learningRate) {
+		this.learningRate = learningRate;
+	}
+
+	void startSession() {
+		interrupted = false;
+		sessions += 1;
+	}
+
+	void resetConvergence() {
+		previousLoss = -1;
+	}
+
+	boolean completeEpoch(double loss, double learningRateDegradation, double convergenceRelativeLoss) {
+		epochs += 1;
+		learningRate *= learningRateDegradation;
+		this.loss = loss;
+		converged = Math.abs(previousLoss-loss)<convergenceRelativeLoss*loss;
+		previousLoss = loss;
+		return converged;
+	}
+
+	void interrupt() {
+		interrupted = true;
+	}
+
+	void addElapsedNanos(long nanos) {
+		elapsedNanos += nanos;
+	}
+
+	double getLearningRate() {
+		return learningRate;
+	}
+
+	/**
+	 * Retrieves the number of epochs run so far, across all sessions of the training run.
+	 * @return The number of epochs.
+	 */
+	public int getEpochs() {
+		return epochs;
+	}
+
+	/**
+	 * Retrieves the number of sessions the training run was split into, for example by resuming it after
+	 * deadline interruptions.
+	 * @return The number of sessions.
+	 */
+	public int getSessions() {
+		return sessions;
+	}
+
+	/**
+	 * Retrieves the loss of the last trained epoch.
+	 * @return The loss, or NaN if no epoch has been trained.
+	 */
+	public double getLoss() {
+		return loss;
+	}
+
+	/**
+	 * Checks whether training stopped because the loss converged.
+	 * @return Whether training converged.
+	 */
+	public boolean isConverged() {
+		return converged;
+	}
+
+	/**
+	 * Checks whether training was stopped by the training deadline before converging or reaching the maximum epoch.
+	 * @return Whether training was interrupted.
+	 */
+	public boolean isInterrupted() {
+		return interrupted;
+	}
+
+	/**
+	 * Retrieves the total time spent training, across all sessions of the training run.
+	 * @return The time in milliseconds.
+	 */
+	public double getElapsedMilliseconds() {
+		return elapsedNanos/1.E6;
+	}
+
+	@Override
+	public String toString() {
+		return "epochs "+epochs+" in "+sessions+" sessions, loss "+loss+", "+getElapsedMilliseconds()+" ms"
+				+(converged?", converged":"")+(interrupted?", interrupted":"");
+	}
+}
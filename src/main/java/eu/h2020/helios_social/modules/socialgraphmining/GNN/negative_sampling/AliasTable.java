@@ -0,0 +1,95 @@
+package eu.h2020.helios_social.modules.socialgraphmining.GNN.negative_sampling;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import eu.h2020.helios_social.core.contextualegonetwork.Utils;
+
+/**
+ * This class implements Vose's alias method, which preprocesses a discrete distribution in linear time so that
+ * each subsequent draw requires constant time, regardless of the number of items.
+ *
+ * @param <ItemType> The type of the items being sampled.
+ * @author Emmanouil Krasanakis
+ */
+public class AliasTable<ItemType> {
+	private ArrayList<ItemType> items;
+	private double[] probabilities;
+	private int[] aliases;
+
+	/**
+	 * Constructs an alias table for the given items.
+	 * @param items The items to be sampled.
+	 * @param weights Non-negative (not necessarily normalized) sampling weights, one for each item.
+	 */
+	public AliasTable(List<ItemType> items, double[] weights) {
+		if(items.size()!=weights.length)
+			Utils.error(new IllegalArgumentException("Alias table needs one weight per item"));
+		int n = weights.length;
+		this.items = new ArrayList<ItemType>(items);
+		probabilities = new double[n];
+		aliases = new int[n];
+		double sum = 0;
+		for(double weight : weights)
+			sum += weight;
+		if(n==0 || sum<=0 || !Double.isFinite(sum)) {
+			for(int i=0;i<n;i++) {
+				probabilities[i] = 1;
+				aliases[i] = i;
+			}
+			return;
+		}
+		double[] scaled = new double[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int numSmall = 0;
+		int numLarge = 0;
+		for(int i=0;i<n;i++) {
+			scaled[i] = weights[i]*n/sum;
+			if(scaled[i]<1)
+				small[numSmall++] = i;
+			else
+				large[numLarge++] = i;
+		}
+		while(numSmall>0 && numLarge>0) {
+			int less = small[--numSmall];
+			int more = large[--numLarge];
+			probabilities[less] = scaled[less];
+			aliases[less] = more;
+			scaled[more] = scaled[more]+scaled[less]-1;
+			if(scaled[more]<1)
+				small[numSmall++] = more;
+			else
+				large[numLarge++] = more;
+		}
+		// leftovers are due to floating point errors and correspond to probabilities of one
+		while(numLarge>0) {
+			int i = large[--numLarge];
+			probabilities[i] = 1;
+			aliases[i] = i;
+		}
+		while(numSmall>0) {
+			int i = small[--numSmall];
+			probabilities[i] = 1;
+			aliases[i] = i;
+		}
+	}
+
+	/**
+	 * Retrieves the number of items in the table.
+	 * @return The number of items.
+	 */
+	public int size() {
+		return items.size();
+	}
+
+	/**
+	 * Performs a constant-time draw given two uniformly random numbers.
+	 * @param column A random integer in the range [0, {@link #size()}).
+	 * @param coin A random number in the range [0,1).
+	 * @return The sampled item.
+	 */
+	public ItemType sample(int column, double coin) {
+		return items.get(coin<probabilities[column]?column:aliases[column]);
+	}
+}
@@ -0,0 +1,121 @@
+package eu.h2020.helios_social.modules.socialgraphmining.GNN.negative_sampling;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+
+import eu.h2020.helios_social.core.contextualegonetwork.Context;
+import eu.h2020.helios_social.core.contextualegonetwork.Edge;
+import eu.h2020.helios_social.core.contextualegonetwork.Node;
+import eu.h2020.helios_social.core.contextualegonetwork.Utils;
+
+/**
+ * This class implements a {@link NegativeSampler} that selects context nodes with probability proportional to
+ * a power of their degree (default exponent is 0.75), where node degrees are initialized from context edges and
+ * are incremented with each observed interaction. When degrees are initialized by an observed interaction, its
+ * edge is not counted during initialization, so that it is counted only once. Draws use an {@link AliasTable} and hence take constant time.
+ * The table is rebuilt only when context nodes change or when the total degree grows by more than a tolerated
+ * fraction since the last rebuild, so that rebuilding costs are amortized over many interactions.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class DegreeNegativeSampler extends NegativeSampler {
+	private static class ContextDegrees {
+		private HashMap<Node, Double> degrees = new HashMap<Node, Double>();
+		private double totalDegree = 0;
+		private double tableTotalDegree = 0;
+		private int tableNodes = -1;
+		private AliasTable<Node> table = null;
+	}
+
+	private double exponent = 0.75;
+	private double rebuildTolerance = 0.1;
+	private WeakHashMap<Context, ContextDegrees> contextDegrees = new WeakHashMap<Context, ContextDegrees>();
+	private UniformNegativeSampler fallback;
+
+	public DegreeNegativeSampler() {
+		fallback = new UniformNegativeSampler();
+	}
+
+	public DegreeNegativeSampler(long seed) {
+		super(seed);
+		fallback = new UniformNegativeSampler(seed+1);
+	}
+
+	/**
+	 * Sets the exponent of node degrees used as sampling weights (default is 0.75).
+	 * @param exponent A non-negative exponent. Zero yields uniform sampling.
+	 * @return <code>this</code> sampler.
+	 */
+	public DegreeNegativeSampler setExponent(double exponent) {
+		if(!Double.isFinite(exponent) || exponent<0)
+			Utils.error(new IllegalArgumentException("Degree exponent "+exponent+" should be non-negative"));
+		this.exponent = exponent;
+		return this;
+	}
+
+	/**
+	 * Sets the fraction by which the total degree of a context can grow before its alias table is rebuilt (default is 0.1).
+	 * Zero values rebuild the table after every observed interaction.
+	 * @param rebuildTolerance A non-negative fraction.
+	 * @return <code>this</code> sampler.
+	 */
+	public DegreeNegativeSampler setRebuildTolerance(double rebuildTolerance) {
+		if(!Double.isFinite(rebuildTolerance) || rebuildTolerance<0)
+			Utils.error(new IllegalArgumentException("Rebuild tolerance "+rebuildTolerance+" should be non-negative"));
+		this.rebuildTolerance = rebuildTolerance;
+		return this;
+	}
+
+	private ContextDegrees getContextDegrees(Context context, Edge excludedEdge) {
+		ContextDegrees degrees = contextDegrees.get(context);
+		if(degrees==null) {
+			degrees = new ContextDegrees();
+			for(Edge edge : context.getEdges()) {
+				if(edge==excludedEdge)
+					continue;
+				degrees.degrees.put(edge.getSrc(), degrees.degrees.getOrDefault(edge.getSrc(), 0.)+1);
+				degrees.degrees.put(edge.getDst(), degrees.degrees.getOrDefault(edge.getDst(), 0.)+1);
+				degrees.totalDegree += 2;
+			}
+			contextDegrees.put(context, degrees);
+		}
+		return degrees;
+	}
+
+	@Override
+	public synchronized void observe(Context context, Edge edge) {
+		ContextDegrees degrees = getContextDegrees(context, edge);
+		degrees.degrees.put(edge.getSrc(), degrees.degrees.getOrDefault(edge.getSrc(), 0.)+1);
+		degrees.degrees.put(edge.getDst(), degrees.degrees.getOrDefault(edge.getDst(), 0.)+1);
+		degrees.totalDegree += 2;
+	}
+
+	@Override
+	public Node sample(Context context, Edge edge) {
+		AliasTable<Node> table;
+		synchronized(this) {
+			ContextDegrees degrees = getContextDegrees(context, null);
+			ArrayList<Node> nodes = context.getNodes();
+			if(degrees.table==null
+					|| degrees.tableNodes!=nodes.size()
+					|| degrees.totalDegree>degrees.tableTotalDegree*(1+rebuildTolerance)) {
+				double[] weights = new double[nodes.size()];
+				for(int i=0;i<weights.length;i++)
+					weights[i] = Math.pow(degrees.degrees.getOrDefault(nodes.get(i), 0.)+1, exponent);
+				degrees.table = new AliasTable<Node>(nodes, weights);
+				degrees.tableNodes = nodes.size();
+				degrees.tableTotalDegree = degrees.totalDegree;
+			}
+			table = degrees.table;
+		}
+		if(table.size()<=2)
+			return null;
+		for(int attempt=0;attempt<maxSamplingAttempts;attempt++) {
+			Node node = table.sample(nextInt(table.size()), nextDouble());
+			if(node!=edge.getSrc() && node!=edge.getDst())
+				return node;
+		}
+		return fallback.sample(context, edge);
+	}
+}
@@ -0,0 +1,78 @@
+package eu.h2020.helios_social.modules.socialgraphmining.GNN.negative_sampling;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+import eu.h2020.helios_social.core.contextualegonetwork.Context;
+import eu.h2020.helios_social.core.contextualegonetwork.Edge;
+import eu.h2020.helios_social.core.contextualegonetwork.Node;
+
+/**
+ * This class provides an abstraction of strategies that select the negative nodes used to create
+ * negative training examples by {@link eu.h2020.helios_social.modules.socialgraphmining.GNN.GNNMiner}
+ * whenever a positive interaction occurs.
+ *
+ * Randomness is drawn from <code>ThreadLocalRandom</code> by default, or from a seeded <code>SplittableRandom</code>
+ * when a seed is passed to the constructor to produce reproducible simulations.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public abstract class NegativeSampler {
+	/** The number of rejection sampling draws of samplers before they fall back to a slower strategy. */
+	protected static final int maxSamplingAttempts = 8;
+	private SplittableRandom random = null;
+
+	public NegativeSampler() {}
+
+	/**
+	 * Instantiates a negative sampler whose random draws are reproducible given the provided seed.
+	 * @param seed The seed of the sampler's random number generator.
+	 */
+	public NegativeSampler(long seed) {
+		random = new SplittableRandom(seed);
+	}
+
+	/**
+	 * Retrieves a random integer in the range [0, bound).
+	 * @param bound The exclusive upper bound of the generated integer. Should be positive.
+	 * @return The generated integer.
+	 */
+	protected int nextInt(int bound) {
+		if(random==null)
+			return ThreadLocalRandom.current().nextInt(bound);
+		synchronized(random) {
+			return random.nextInt(bound);
+		}
+	}
+
+	/**
+	 * Retrieves a random number in the range [0,1).
+	 * @return The generated number.
+	 */
+	protected double nextDouble() {
+		if(random==null)
+			return ThreadLocalRandom.current().nextDouble();
+		synchronized(random) {
+			return random.nextDouble();
+		}
+	}
+
+	/**
+	 * Notifies the sampler that a positive interaction occurred, for example to update node statistics.
+	 * This is called once for each positive training example, before any {@link #sample(Context, Edge)} calls
+	 * for the same example. The default implementation does nothing.
+	 * @param context The context in which the positive interaction occurred.
+	 * @param edge The edge of the positive interaction.
+	 */
+	public void observe(Context context, Edge edge) {
+	}
+
+	/**
+	 * Selects a node of the given context that does not lie on the given positive edge.
+	 * @param context The context in which the positive interaction occurred.
+	 * @param edge The edge of the positive interaction.
+	 * @return A node different than both the source and destination of the edge, or <code>null</code> if no
+	 * 	such node could be found.
+	 */
+	public abstract Node sample(Context context, Edge edge);
+}
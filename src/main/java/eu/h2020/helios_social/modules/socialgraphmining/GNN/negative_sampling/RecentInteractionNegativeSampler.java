@@ -0,0 +1,91 @@
+package eu.h2020.helios_social.modules.socialgraphmining.GNN.negative_sampling;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.WeakHashMap;
+
+import eu.h2020.helios_social.core.contextualegonetwork.Context;
+import eu.h2020.helios_social.core.contextualegonetwork.Edge;
+import eu.h2020.helios_social.core.contextualegonetwork.Node;
+import eu.h2020.helios_social.core.contextualegonetwork.Utils;
+
+/**
+ * This class implements a {@link NegativeSampler} that produces hard negatives, i.e. nodes that recently
+ * participated in other interactions of the same context and which are hence harder to tell apart from
+ * the positive ones. With a given probability (default is 0.5), or when no recent nodes are available,
+ * negatives are instead selected uniformly from the context.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class RecentInteractionNegativeSampler extends NegativeSampler {
+	private int historySize = 10;
+	private double hardNegativeProbability = 0.5;
+	private WeakHashMap<Context, LinkedHashSet<Node>> recentNodes = new WeakHashMap<Context, LinkedHashSet<Node>>();
+	private UniformNegativeSampler fallback;
+
+	public RecentInteractionNegativeSampler() {
+		fallback = new UniformNegativeSampler();
+	}
+
+	public RecentInteractionNegativeSampler(long seed) {
+		super(seed);
+		fallback = new UniformNegativeSampler(seed+1);
+	}
+
+	/**
+	 * Sets the number of most recently interacted nodes per context to draw hard negatives from (default is 10).
+	 * @param historySize A positive number of nodes.
+	 * @return <code>this</code> sampler.
+	 */
+	public RecentInteractionNegativeSampler setHistorySize(int historySize) {
+		if(historySize<=0)
+			Utils.error(new IllegalArgumentException("History size "+historySize+" should be positive"));
+		this.historySize = historySize;
+		return this;
+	}
+
+	/**
+	 * Sets the probability of drawing each negative among recently interacted nodes instead of
+	 * uniformly from the context (default is 0.5).
+	 * @param hardNegativeProbability A probability in the range [0,1].
+	 * @return <code>this</code> sampler.
+	 */
+	public RecentInteractionNegativeSampler setHardNegativeProbability(double hardNegativeProbability) {
+		if(!Double.isFinite(hardNegativeProbability) || hardNegativeProbability<0 || hardNegativeProbability>1)
+			Utils.error(new IllegalArgumentException("Hard negative probability "+hardNegativeProbability+" should lie in the range [0,1]"));
+		this.hardNegativeProbability = hardNegativeProbability;
+		return this;
+	}
+
+	@Override
+	public synchronized void observe(Context context, Edge edge) {
+		LinkedHashSet<Node> recent = recentNodes.get(context);
+		if(recent==null)
+			recentNodes.put(context, recent = new LinkedHashSet<Node>());
+		Node ego = context.getContextualEgoNetwork().getEgo();
+		for(Node node : new Node[] {edge.getSrc(), edge.getDst()})
+			if(node!=ego) {
+				recent.remove(node);
+				recent.add(node);
+			}
+		while(recent.size()>historySize)
+			recent.remove(recent.iterator().next());
+	}
+
+	@Override
+	public Node sample(Context context, Edge edge) {
+		if(nextDouble()<hardNegativeProbability) {
+			ArrayList<Node> candidates = new ArrayList<Node>();
+			synchronized(this) {
+				LinkedHashSet<Node> recent = recentNodes.get(context);
+				if(recent!=null)
+					for(Node node : recent)
+						if(node!=edge.getSrc() && node!=edge.getDst())
+							candidates.add(node);
+			}
+			if(!candidates.isEmpty())
+				return candidates.get(nextInt(candidates.size()));
+		}
+		return fallback.sample(context, edge);
+	}
+}
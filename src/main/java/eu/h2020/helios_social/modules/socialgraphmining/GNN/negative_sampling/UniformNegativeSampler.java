@@ -0,0 +1,43 @@
+package eu.h2020.helios_social.modules.socialgraphmining.GNN.negative_sampling;
+
+import java.util.ArrayList;
+
+import eu.h2020.helios_social.core.contextualegonetwork.Context;
+import eu.h2020.helios_social.core.contextualegonetwork.Edge;
+import eu.h2020.helios_social.core.contextualegonetwork.Node;
+
+/**
+ * This class implements a {@link NegativeSampler} that selects context nodes uniformly at random.
+ * It is the default negative sampling strategy of {@link eu.h2020.helios_social.modules.socialgraphmining.GNN.GNNMiner}.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class UniformNegativeSampler extends NegativeSampler {
+	public UniformNegativeSampler() {}
+
+	public UniformNegativeSampler(long seed) {
+		super(seed);
+	}
+
+	@Override
+	public Node sample(Context context, Edge edge) {
+		ArrayList<Node> nodes = context.getNodes();
+		if(nodes.size()<=2)
+			return null;
+		Node src = edge.getSrc();
+		Node dst = edge.getDst();
+		// rejection needs few draws for contexts of more than two nodes, but fall back to a scan just in case
+		for(int attempt=0;attempt<maxSamplingAttempts;attempt++) {
+			Node node = nodes.get(nextInt(nodes.size()));
+			if(node!=src && node!=dst)
+				return node;
+		}
+		int offset = nextInt(nodes.size());
+		for(int i=0;i<nodes.size();i++) {
+			Node node = nodes.get((offset+i) % nodes.size());
+			if(node!=src && node!=dst)
+				return node;
+		}
+		return null;
+	}
+}
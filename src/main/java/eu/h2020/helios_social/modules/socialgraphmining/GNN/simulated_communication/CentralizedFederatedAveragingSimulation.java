@@ -1,58 +1,55 @@
 package eu.h2020.helios_social.modules.socialgraphmining.GNN.simulated_communication;
 
-import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import eu.h2020.helios_social.core.contextualegonetwork.Node;
+import eu.h2020.helios_social.core.contextualegonetwork.Utils;
 import mklab.JGNN.core.Tensor;
 
+/**
+ * This class simulates a central server that averages the embeddings each device estimates for its alters,
+ * weighted by how recently estimations were registered, where each estimating device is available with a
+ * given probability. Averages are maintained by a {@link FederatedAveragingAggregator} and estimations are
+ * shared among all protocols of the same {@link EmbeddingExchangeHub}.
+ *
+ * @author Emmanouil Krasanakis
+ */
 public class CentralizedFederatedAveragingSimulation extends EmbeddingExchangeProtocol{
-	private static double currentTime = 0;
-	private static boolean increaseTimeNextRegister = true;
-	private static HashMap<String, HashMap<String, Tensor>> estimations = new HashMap<String, HashMap<String, Tensor>>();
-	private static HashMap<String, HashMap<String, Double>> times = new HashMap<String, HashMap<String, Double>>();
-	private static HashMap<String, Double> lastTimes = new HashMap<String, Double>();
+	private static class SharedEstimations {
+		private AtomicLong currentTime = new AtomicLong(0);
+		private AtomicBoolean increaseTimeNextRegister = new AtomicBoolean(true);
+		private FederatedAveragingAggregator aggregator = new FederatedAveragingAggregator();
+	}
+	
+	private SharedEstimations sharedEstimations;
+	private EmbeddingExchangeHub hub;
 	private double availability;
 
 	public CentralizedFederatedAveragingSimulation(double availability) {
+		this(availability, EmbeddingExchangeHub.getDefault());
+	}
+
+	public CentralizedFederatedAveragingSimulation(double availability, EmbeddingExchangeHub hub) {
+		if(hub==null)
+			Utils.error(new IllegalArgumentException("Embedding exchange hub should not be null"));
 		this.availability = availability;
+		this.hub = hub;
+		sharedEstimations = hub.getOrCreateInstance(SharedEstimations.class, SharedEstimations::new);
 	}
 	
 	@Override
 	public Tensor requestEmbeddings(Node ego, Node alter) {
-		String alterId = alter.getId();
-		if(!estimations.containsKey(alterId))
-			return null;
-		increaseTimeNextRegister = true;
-		Tensor sum = null;
-		double totalWeight = 0;
-		for(String estimatorId : estimations.get(alterId).keySet()) {
-			if(Math.random()>availability)
-				continue;
-			if(sum==null)
-				sum = estimations.get(alterId).get(estimatorId).zeroCopy();
-			double weight = Math.exp(-0.001*(times.get(alterId).get(estimatorId)-lastTimes.get(alterId)));
-			sum.selfAdd(estimations.get(alterId).get(estimatorId).multiply(weight));
-			totalWeight += weight;
-		}
-		if(sum==null)
-			return null;
-		return sum.selfMultiply(1./totalWeight);
+		sharedEstimations.increaseTimeNextRegister.set(true);
+		return sharedEstimations.aggregator.average(alter.getId(), availability, hub);
 	}
 
 	@Override
 	public void registerEmbeddings(Node ego, Node alter, Tensor parameters) {
-		if(increaseTimeNextRegister) 
-			currentTime += 1;
-		increaseTimeNextRegister = false;
-		String egoId = ego.getId();
-		String alterId = alter.getId();
-		if(!estimations.containsKey(alterId)) {
-			estimations.put(alterId, new HashMap<String, Tensor>());
-			times.put(alterId, new HashMap<String, Double>());
-		}
-		estimations.get(alterId).put(egoId, parameters.copy());
-		times.get(alterId).put(egoId, currentTime);
-		lastTimes.put(alterId, currentTime);
+		long time = sharedEstimations.increaseTimeNextRegister.getAndSet(false)
+				? sharedEstimations.currentTime.incrementAndGet()
+				: sharedEstimations.currentTime.get();
+		sharedEstimations.aggregator.register(alter.getId(), ego.getId(), parameters.copy(), time);
 	}
 
 }
@@ -0,0 +1,75 @@
+package eu.h2020.helios_social.modules.socialgraphmining.GNN.simulated_communication;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * This class scopes the shared state of simulated {@link EmbeddingExchangeProtocol} implementations, so that
+ * protocols registered on the same hub exchange embeddings with each other and protocols of different hubs
+ * are independent of each other (e.g. to run several simulations in the same JVM). Hubs are thread-safe and can
+ * be used by many devices in parallel.
+ * <br>
+ * Randomness of simulated events (e.g. device availability) is drawn from <code>ThreadLocalRandom</code> by default,
+ * or from a seeded <code>SplittableRandom</code> when a seed is passed to the constructor to produce reproducible simulations.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class EmbeddingExchangeHub {
+	private static EmbeddingExchangeHub defaultHub = new EmbeddingExchangeHub();
+
+	private ConcurrentHashMap<Class<?>, Object> instances = new ConcurrentHashMap<Class<?>, Object>();
+	private SplittableRandom random = null;
+
+	/**
+	 * Retrieves the hub used by protocols that were created without specifying one.
+	 * @return The default hub.
+	 */
+	public static EmbeddingExchangeHub getDefault() {
+		return defaultHub;
+	}
+
+	public EmbeddingExchangeHub() {}
+
+	/**
+	 * Instantiates a hub whose random draws are reproducible given the provided seed.
+	 * @param seed The seed of the hub's random number generator.
+	 */
+	public EmbeddingExchangeHub(long seed) {
+		random = new SplittableRandom(seed);
+	}
+
+	/**
+	 * Retrieves the hub's instance of the given class, creating it with the given supplier if needed.
+	 * This is used by protocols to store their shared state.
+	 * @param type The class of the instance.
+	 * @param supplier The supplier that creates the instance if it does not exist.
+	 * @return The hub's instance of the given class.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T getOrCreateInstance(Class<T> type, Supplier<T> supplier) {
+		return (T)instances.computeIfAbsent(type, key -> supplier.get());
+	}
+
+	/**
+	 * Retrieves a random number in the range [0,1).
+	 * @return The generated number.
+	 */
+	public double nextDouble() {
+		if(random==null)
+			return ThreadLocalRandom.current().nextDouble();
+		synchronized(random) {
+			return random.nextDouble();
+		}
+	}
+
+	/**
+	 * Simulates whether an event of the given probability occurs.
+	 * @param availability The probability of the event.
+	 * @return Whether the event occurred.
+	 */
+	public boolean isAvailable(double availability) {
+		return availability>=1 || nextDouble()<availability;
+	}
+}
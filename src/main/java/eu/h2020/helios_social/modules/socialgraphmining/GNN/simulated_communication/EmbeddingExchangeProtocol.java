@@ -1,5 +1,10 @@
 package eu.h2020.helios_social.modules.socialgraphmining.GNN.simulated_communication;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
 import eu.h2020.helios_social.core.contextualegonetwork.Node;
 import mklab.JGNN.core.Tensor;
 
@@ -7,4 +12,34 @@ public abstract class EmbeddingExchangeProtocol {
 	public EmbeddingExchangeProtocol() {}
 	public abstract Tensor requestEmbeddings(Node ego, Node alter);
 	public abstract void registerEmbeddings(Node ego, Node alter, Tensor parameters);
+	
+	/**
+	 * Requests the embeddings of many alters in one exchange. The default implementation calls
+	 * {@link #requestEmbeddings(Node, Node)} for each alter, but protocols over real transports should
+	 * override this to retrieve all embeddings in a single round trip.
+	 * @param ego The node requesting the embeddings.
+	 * @param alters The nodes whose embeddings are requested.
+	 * @return A map from alters to their embeddings, which omits alters whose embeddings could not be retrieved.
+	 */
+	public Map<Node, Tensor> requestEmbeddings(Node ego, Collection<Node> alters) {
+		HashMap<Node, Tensor> embeddings = new HashMap<Node, Tensor>();
+		for(Node alter : alters) {
+			Tensor embedding = requestEmbeddings(ego, alter);
+			if(embedding!=null)
+				embeddings.put(alter, embedding);
+		}
+		return embeddings;
+	}
+	
+	/**
+	 * Registers the embeddings of many alters in one exchange. The default implementation calls
+	 * {@link #registerEmbeddings(Node, Node, Tensor)} for each alter, but protocols over real transports should
+	 * override this to send all embeddings in a single round trip.
+	 * @param ego The node registering the embeddings.
+	 * @param embeddings A map from alters to their embeddings.
+	 */
+	public void registerEmbeddings(Node ego, Map<Node, Tensor> embeddings) {
+		for(Entry<Node, Tensor> entry : embeddings.entrySet())
+			registerEmbeddings(ego, entry.getKey(), entry.getValue());
+	}
 }
@@ -0,0 +1,190 @@
+package eu.h2020.helios_social.modules.socialgraphmining.GNN.simulated_communication;
+
+import java.util.HashMap;
+
+import eu.h2020.helios_social.core.contextualegonetwork.Utils;
+import mklab.JGNN.core.Tensor;
+
+/**
+ * This class averages the embeddings that different estimators (e.g. devices) register for the same alter,
+ * where each estimation is weighted by <i>exp(decay*(time-latest time))</i> so that recent estimations weigh more.
+ * <br>
+ * Weighted sums of estimations are maintained incrementally per alter with respect to a base time, which cancels out
+ * when sums are normalized. Hence, averages are retrieved in time proportional to the embedding dimension, regardless
+ * of the number of estimators. Sums are rebased only when weights would grow too large and are periodically
+ * recomputed to avoid the accumulation of floating point errors. Alters are split among a number of shards, each
+ * synchronized independently.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class FederatedAveragingAggregator {
+	private static class Estimation {
+		private final Tensor embedding;
+		private final double time;
+		private Estimation(Tensor embedding, double time) {
+			this.embedding = embedding;
+			this.time = time;
+		}
+	}
+	
+	private static class AlterAggregation {
+		private HashMap<String, Estimation> estimations = new HashMap<String, Estimation>();
+		private Tensor weightedSum = null;
+		private double totalWeight = 0;
+		private double baseTime = 0;
+		private int updates = 0;
+	}
+	
+	/**
+	 * This class holds the aggregations of a subset of alters.
+	 */
+	public static class Shard {
+		private HashMap<String, AlterAggregation> aggregations = new HashMap<String, AlterAggregation>();
+		
+		/**
+		 * Retrieves the number of alters whose estimations are aggregated in the shard.
+		 * @return The number of alters.
+		 */
+		public synchronized int size() {
+			return aggregations.size();
+		}
+	}
+	
+	private static final double MAX_EXPONENT = 100;
+	private static final int MAX_INCREMENTAL_UPDATES = 10000;
+	private double decay;
+	private Shard[] shards;
+	
+	/**
+	 * Instantiates an aggregator with decay 0.001 and 16 shards.
+	 */
+	public FederatedAveragingAggregator() {
+		this(0.001, 16);
+	}
+	
+	/**
+	 * Instantiates an aggregator.
+	 * @param decay The non-negative rate at which the weight of estimations decays over time.
+	 * @param numShards The positive number of shards among which alters are split.
+	 */
+	public FederatedAveragingAggregator(double decay, int numShards) {
+		if(!Double.isFinite(decay) || decay<0)
+			Utils.error(new IllegalArgumentException("Decay "+decay+" should be non-negative"));
+		if(numShards<=0)
+			Utils.error(new IllegalArgumentException("Number of shards "+numShards+" should be positive"));
+		this.decay = decay;
+		shards = new Shard[numShards];
+		for(int i=0;i<numShards;i++)
+			shards[i] = new Shard();
+	}
+	
+	/**
+	 * Retrieves the shard that holds the aggregation of the given alter.
+	 * @param alterId The alter's identifier.
+	 * @return The alter's shard.
+	 */
+	public Shard getShard(String alterId) {
+		return shards[(alterId.hashCode() & 0x7fffffff) % shards.length];
+	}
+	
+	private double getWeight(AlterAggregation aggregation, double time) {
+		return Math.exp(decay*(time-aggregation.baseTime));
+	}
+	
+	private void recompute(AlterAggregation aggregation, double baseTime) {
+		aggregation.baseTime = baseTime;
+		aggregation.weightedSum = null;
+		aggregation.totalWeight = 0;
+		aggregation.updates = 0;
+		for(Estimation estimation : aggregation.estimations.values()) {
+			double weight = getWeight(aggregation, estimation.time);
+			if(aggregation.weightedSum==null)
+				aggregation.weightedSum = estimation.embedding.zeroCopy();
+			aggregation.weightedSum.selfAdd(estimation.embedding.multiply(weight));
+			aggregation.totalWeight += weight;
+		}
+	}
+	
+	/**
+	 * Registers an estimator's embedding of an alter, replacing its previous estimation of the same alter.
+	 * @param alterId The alter's identifier.
+	 * @param estimatorId The estimator's identifier.
+	 * @param embedding The estimated embedding. It is not copied and should not be edited afterwards.
+	 * @param time The time of the estimation.
+	 */
+	public void register(String alterId, String estimatorId, Tensor embedding, double time) {
+		Shard shard = getShard(alterId);
+		synchronized(shard) {
+			AlterAggregation aggregation = shard.aggregations.get(alterId);
+			if(aggregation==null) {
+				shard.aggregations.put(alterId, aggregation = new AlterAggregation());
+				aggregation.baseTime = time;
+			}
+			Estimation previous = aggregation.estimations.put(estimatorId, new Estimation(embedding, time));
+			aggregation.updates += 1;
+			if(decay*(time-aggregation.baseTime)>MAX_EXPONENT || aggregation.updates>MAX_INCREMENTAL_UPDATES) {
+				recompute(aggregation, time);
+				return;
+			}
+			if(aggregation.weightedSum==null)
+				aggregation.weightedSum = embedding.zeroCopy();
+			if(previous!=null) {
+				double weight = getWeight(aggregation, previous.time);
+				aggregation.weightedSum.selfAdd(previous.embedding.multiply(-weight));
+				aggregation.totalWeight -= weight;
+			}
+			double weight = getWeight(aggregation, time);
+			aggregation.weightedSum.selfAdd(embedding.multiply(weight));
+			aggregation.totalWeight += weight;
+		}
+	}
+	
+	/**
+	 * Retrieves the weighted average of all estimations of an alter.
+	 * @param alterId The alter's identifier.
+	 * @return A new tensor holding the average, or <code>null</code> if there are no estimations of the alter.
+	 */
+	public Tensor average(String alterId) {
+		Shard shard = getShard(alterId);
+		synchronized(shard) {
+			AlterAggregation aggregation = shard.aggregations.get(alterId);
+			if(aggregation==null || aggregation.totalWeight<=0)
+				return null;
+			return aggregation.weightedSum.multiply(1./aggregation.totalWeight);
+		}
+	}
+	
+	/**
+	 * Retrieves the weighted average of the estimations of an alter whose estimators are available, where each estimator
+	 * is available with the given probability. This takes time proportional to the number of the alter's estimators when
+	 * availability is less than one and defaults to {@link #average(String)} otherwise.
+	 * @param alterId The alter's identifier.
+	 * @param availability The probability of each estimator being available.
+	 * @param hub The hub whose random number generator determines availability.
+	 * @return A new tensor holding the average, or <code>null</code> if no estimator was available.
+	 */
+	public Tensor average(String alterId, double availability, EmbeddingExchangeHub hub) {
+		if(availability>=1)
+			return average(alterId);
+		Shard shard = getShard(alterId);
+		synchronized(shard) {
+			AlterAggregation aggregation = shard.aggregations.get(alterId);
+			if(aggregation==null)
+				return null;
+			Tensor sum = null;
+			double totalWeight = 0;
+			for(Estimation estimation : aggregation.estimations.values()) {
+				if(!hub.isAvailable(availability))
+					continue;
+				double weight = getWeight(aggregation, estimation.time);
+				if(sum==null)
+					sum = estimation.embedding.zeroCopy();
+				sum.selfAdd(estimation.embedding.multiply(weight));
+				totalWeight += weight;
+			}
+			if(sum==null || totalWeight<=0)
+				return null;
+			return sum.selfMultiply(1./totalWeight);
+		}
+	}
+}
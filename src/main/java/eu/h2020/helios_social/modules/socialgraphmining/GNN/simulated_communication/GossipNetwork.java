@@ -0,0 +1,190 @@
+package eu.h2020.helios_social.modules.socialgraphmining.GNN.simulated_communication;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+import eu.h2020.helios_social.core.contextualegonetwork.Utils;
+import mklab.JGNN.core.Tensor;
+
+/**
+ * This class simulates the dissemination of device embeddings with push-pull gossip. Each device keeps the latest
+ * embeddings it knows of other devices together with a version vector, i.e. the latest version it knows of each
+ * device's embedding. In each round, every device contacts a bounded number of distinct random peers other than
+ * itself (default is 2) and the two sides exchange version vectors and then only the embeddings the other side is
+ * missing, so that embeddings reach all devices within a number of rounds logarithmic to the number of devices.
+ * <br>
+ * Rounds run automatically after a given number of registrations (default is 10) or can be run explicitly with
+ * {@link #runRound()}. Networks are shared by all {@link GossipProtocol} instances of the same {@link EmbeddingExchangeHub}
+ * and report their number of rounds and messages, as well as their convergence, i.e. the fraction of device embeddings
+ * whose latest version is known by each device.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class GossipNetwork {
+	private static class VersionedEmbedding {
+		private final Tensor embedding;
+		private final long version;
+		private VersionedEmbedding(Tensor embedding, long version) {
+			this.embedding = embedding;
+			this.version = version;
+		}
+	}
+	
+	private static class Peer {
+		private HashMap<String, VersionedEmbedding> embeddings = new HashMap<String, VersionedEmbedding>();
+		private HashMap<String, Long> versionVector = new HashMap<String, Long>();
+		private void store(String origin, VersionedEmbedding embedding) {
+			embeddings.put(origin, embedding);
+			versionVector.put(origin, embedding.version);
+		}
+	}
+	
+	private EmbeddingExchangeHub hub;
+	private HashMap<String, Peer> peers = new HashMap<String, Peer>();
+	private ArrayList<String> peerIds = new ArrayList<String>();
+	private int fanout = 2;
+	private int roundPeriod = 10;
+	private int registrationsSinceRound = 0;
+	private long rounds = 0;
+	private long messages = 0;
+	private long transferredEmbeddings = 0;
+	
+	GossipNetwork(EmbeddingExchangeHub hub) {
+		this.hub = hub;
+	}
+	
+	/**
+	 * Sets the number of random peers each device contacts per round (default is 2).
+	 * @param fanout A positive number of peers.
+	 * @return <code>this</code> network.
+	 */
+	public synchronized GossipNetwork setFanout(int fanout) {
+		if(fanout<=0)
+			Utils.error(new IllegalArgumentException("Gossip fanout "+fanout+" should be positive"));
+		this.fanout = fanout;
+		return this;
+	}
+	
+	/**
+	 * Sets the number of registrations after which a gossip round automatically runs (default is 10).
+	 * @param roundPeriod A non-negative number of registrations, or 0 to run rounds only explicitly.
+	 * @return <code>this</code> network.
+	 */
+	public synchronized GossipNetwork setRoundPeriod(int roundPeriod) {
+		if(roundPeriod<0)
+			Utils.error(new IllegalArgumentException("Gossip round period "+roundPeriod+" should be non-negative"));
+		this.roundPeriod = roundPeriod;
+		return this;
+	}
+	
+	private Peer getOrCreatePeer(String id) {
+		Peer peer = peers.get(id);
+		if(peer==null) {
+			peers.put(id, peer = new Peer());
+			peerIds.add(id);
+		}
+		return peer;
+	}
+	
+	synchronized void register(String id, Tensor embedding) {
+		Peer peer = getOrCreatePeer(id);
+		peer.store(id, new VersionedEmbedding(embedding, peer.versionVector.getOrDefault(id, 0L)+1));
+		registrationsSinceRound += 1;
+		if(roundPeriod!=0 && registrationsSinceRound>=roundPeriod)
+			runRound();
+	}
+	
+	synchronized Tensor request(String id, String alterId) {
+		Peer peer = peers.get(id);
+		if(peer==null)
+			return null;
+		VersionedEmbedding embedding = peer.embeddings.get(alterId);
+		return embedding==null?null:embedding.embedding;
+	}
+	
+	private void sendMissing(Peer from, Peer to) {
+		for(Entry<String, VersionedEmbedding> entry : from.embeddings.entrySet())
+			if(to.versionVector.getOrDefault(entry.getKey(), 0L)<entry.getValue().version) {
+				to.store(entry.getKey(), entry.getValue());
+				transferredEmbeddings += 1;
+			}
+	}
+	
+	/**
+	 * Runs a push-pull gossip round, in which each device exchanges missing embeddings with randomly selected peers.
+	 * Each exchange costs three messages; one for each side's version vector and one carrying the embeddings
+	 * requested by the initiating device together with those it pushes.
+	 */
+	public synchronized void runRound() {
+		registrationsSinceRound = 0;
+		rounds += 1;
+		int numPeers = peerIds.size();
+		if(numPeers<2)
+			return;
+		int numContacts = Math.min(fanout, numPeers-1);
+		int[] contacts = new int[numContacts];
+		ArrayList<String> roundPeerIds = new ArrayList<String>(peerIds);
+		for(int index=0;index<numPeers;index++) {
+			Peer peer = peers.get(roundPeerIds.get(index));
+			sampleContacts(contacts, numPeers-1);
+			for(int contact : contacts) {
+				Peer other = peers.get(roundPeerIds.get(contact<index?contact:contact+1));
+				sendMissing(peer, other);
+				sendMissing(other, peer);
+				messages += 3;
+			}
+		}
+	}
+	
+	/**
+	 * Fills the given array with distinct random integers in the range [0, bound) with Floyd's algorithm.
+	 * Peers are contacted by mapping these integers to all peer positions except the contacting one.
+	 */
+	private void sampleContacts(int[] contacts, int bound) {
+		int numContacts = 0;
+		for(int candidateBound=bound-contacts.length;candidateBound<bound;candidateBound++) {
+			int candidate = (int)(hub.nextDouble()*(candidateBound+1));
+			for(int i=0;i<numContacts;i++)
+				if(contacts[i]==candidate) {
+					candidate = candidateBound;
+					break;
+				}
+			contacts[numContacts++] = candidate;
+		}
+	}
+	
+	/**
+	 * Retrieves the fraction of devices' embeddings whose latest version is known by each device,
+	 * averaged across all devices. This is 1 when gossip has fully converged.
+	 * @return The convergence in the range [0,1].
+	 */
+	public synchronized double getConvergence() {
+		if(peerIds.isEmpty())
+			return 1;
+		double known = 0;
+		for(Peer peer : peers.values())
+			for(String origin : peerIds)
+				if(peer.versionVector.getOrDefault(origin, 0L).equals(peers.get(origin).versionVector.get(origin)))
+					known += 1;
+		return known/peerIds.size()/peerIds.size();
+	}
+	
+	public synchronized long getRounds() {
+		return rounds;
+	}
+	
+	public synchronized long getMessages() {
+		return messages;
+	}
+	
+	public synchronized long getTransferredEmbeddings() {
+		return transferredEmbeddings;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return "gossip rounds: "+rounds+", messages: "+messages+", transferred embeddings: "+transferredEmbeddings
+				+", convergence: "+getConvergence();
+	}
+}
@@ -0,0 +1,47 @@
+package eu.h2020.helios_social.modules.socialgraphmining.GNN.simulated_communication;
+
+import eu.h2020.helios_social.core.contextualegonetwork.Node;
+import eu.h2020.helios_social.core.contextualegonetwork.Utils;
+import mklab.JGNN.core.Tensor;
+
+/**
+ * This class implements a decentralized exchange, in which devices register their own embeddings and these are
+ * disseminated to other devices by the push-pull gossip rounds of a {@link GossipNetwork}. Requested alter embeddings
+ * are the latest ones that have reached the requesting device, if any.
+ * Networks are shared among all protocols of the same {@link EmbeddingExchangeHub}.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class GossipProtocol extends EmbeddingExchangeProtocol {
+	private GossipNetwork network;
+	
+	public GossipProtocol() {
+		this(EmbeddingExchangeHub.getDefault());
+	}
+	
+	public GossipProtocol(EmbeddingExchangeHub hub) {
+		if(hub==null)
+			Utils.error(new IllegalArgumentException("Embedding exchange hub should not be null"));
+		network = hub.getOrCreateInstance(GossipNetwork.class, () -> new GossipNetwork(hub));
+	}
+	
+	/**
+	 * Retrieves the gossip network over which embeddings are disseminated, for example to configure its fanout
+	 * or obtain its metrics.
+	 * @return The gossip network.
+	 */
+	public GossipNetwork getNetwork() {
+		return network;
+	}
+
+	@Override
+	public Tensor requestEmbeddings(Node ego, Node alter) {
+		return network.request(ego.getId(), alter.getId());
+	}
+
+	@Override
+	public void registerEmbeddings(Node ego, Node alter, Tensor parameters) {
+		if(ego == alter)
+			network.register(ego.getId(), parameters.copy());
+	}
+}
@@ -1,29 +1,50 @@
 package eu.h2020.helios_social.modules.socialgraphmining.GNN.simulated_communication;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import eu.h2020.helios_social.core.contextualegonetwork.Node;
+import eu.h2020.helios_social.core.contextualegonetwork.Utils;
 import mklab.JGNN.core.Tensor;
 
+/**
+ * This class simulates an exchange in which devices register their own embeddings and alters' embeddings
+ * can be retrieved only if their devices are available, which happens with a given probability.
+ * Embeddings are shared among all protocols of the same {@link EmbeddingExchangeHub}.
+ *
+ * @author Emmanouil Krasanakis
+ */
 public class UncertainAvailabilitySimulation extends EmbeddingExchangeProtocol {
-	private static HashMap<String, Tensor> lastEmbeddings = new HashMap<String, Tensor>();
+	private static class SharedEmbeddings {
+		private ConcurrentHashMap<String, Tensor> lastEmbeddings = new ConcurrentHashMap<String, Tensor>();
+	}
+	
+	private SharedEmbeddings sharedEmbeddings;
+	private EmbeddingExchangeHub hub;
 	private double availability;
 	
 	public UncertainAvailabilitySimulation(double availability) {
+		this(availability, EmbeddingExchangeHub.getDefault());
+	}
+	
+	public UncertainAvailabilitySimulation(double availability, EmbeddingExchangeHub hub) {
+		if(hub==null)
+			Utils.error(new IllegalArgumentException("Embedding exchange hub should not be null"));
 		this.availability = availability;
+		this.hub = hub;
+		sharedEmbeddings = hub.getOrCreateInstance(SharedEmbeddings.class, SharedEmbeddings::new);
 	}
 
 	@Override
 	public Tensor requestEmbeddings(Node ego, Node alter) {
-		if(Math.random()>availability)
+		if(!hub.isAvailable(availability))
 			return null;
-		return lastEmbeddings.get(alter.getId());
+		return sharedEmbeddings.lastEmbeddings.get(alter.getId());
 	}
 
 	@Override
 	public void registerEmbeddings(Node ego, Node alter, Tensor parameters) {
 		if(ego == alter)
-			lastEmbeddings.put(ego.getId(), parameters.copy());
+			sharedEmbeddings.lastEmbeddings.put(ego.getId(), parameters.copy());
 	}
 
 }
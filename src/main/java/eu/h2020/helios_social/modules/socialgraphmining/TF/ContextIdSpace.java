@@ -0,0 +1,149 @@
+package eu.h2020.helios_social.modules.socialgraphmining.TF;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import eu.h2020.helios_social.core.contextualegonetwork.Context;
+import eu.h2020.helios_social.core.contextualegonetwork.Edge;
+import eu.h2020.helios_social.core.contextualegonetwork.Node;
+
+/**
+ * This class assigns dense integer identifiers to the nodes of a context, which {@link TFMiner} uses
+ * as matrix rows. Identifiers of nodes that leave the context are released and reused by new nodes, so that
+ * the range of identifiers tracks the number of nodes in the context instead of all nodes ever seen.
+ * Identifiers can also be compacted to the range [0, number of nodes).
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class ContextIdSpace {
+	private HashMap<Node, Integer> ids = new HashMap<Node, Integer>();
+	private Node[] nodes = new Node[16];
+	private int[] freeIds = new int[16];
+	private int numFreeIds = 0;
+	private int idBound = 0;
+	private int[] seen = new int[16];
+	private int generation = 0;
+
+	/**
+	 * Retrieves the identifier of a node, assigning it a released identifier or a new one if it has none.
+	 * @param node The node.
+	 * @return The node's identifier.
+	 */
+	public int getOrCreateId(Node node) {
+		Integer id = ids.get(node);
+		if(id!=null)
+			return id;
+		int newId;
+		if(numFreeIds!=0)
+			newId = freeIds[--numFreeIds];
+		else {
+			if(idBound==nodes.length) {
+				nodes = Arrays.copyOf(nodes, idBound*2);
+				seen = Arrays.copyOf(seen, idBound*2);
+			}
+			newId = idBound++;
+		}
+		nodes[newId] = node;
+		seen[newId] = generation;
+		ids.put(node, newId);
+		return newId;
+	}
+
+	/**
+	 * Retrieves the identifier of a node.
+	 * @param node The node.
+	 * @return The node's identifier, or -1 if it has none.
+	 */
+	public int getId(Node node) {
+		Integer id = ids.get(node);
+		return id==null?-1:id;
+	}
+
+	/**
+	 * Checks whether an identifier is assigned to a node.
+	 * @param id The identifier.
+	 * @return Whether the identifier is in use.
+	 */
+	public boolean isAssigned(int id) {
+		return id>=0 && id<idBound && nodes[id]!=null;
+	}
+
+	/**
+	 * Retrieves the number of nodes with identifiers.
+	 * @return The number of nodes.
+	 */
+	public int size() {
+		return ids.size();
+	}
+
+	/**
+	 * Retrieves a bound for identifiers, i.e. all identifiers are smaller than this number.
+	 * @return One plus the largest identifier ever assigned since the last compaction.
+	 */
+	public int getIdBound() {
+		return idBound;
+	}
+
+	/**
+	 * Releases the identifier of a node so that it can be reused.
+	 * @param node The node.
+	 * @return Whether the node had an identifier.
+	 */
+	public boolean release(Node node) {
+		Integer id = ids.remove(node);
+		if(id==null)
+			return false;
+		nodes[id] = null;
+		if(numFreeIds==freeIds.length)
+			freeIds = Arrays.copyOf(freeIds, numFreeIds*2);
+		freeIds[numFreeIds++] = id;
+		return true;
+	}
+
+	/**
+	 * Assigns identifiers to the ego, all nodes of a context and the endpoints of its edges, and releases the
+	 * identifiers of other nodes.
+	 * @param context The context.
+	 * @return Whether any identifier was released.
+	 */
+	public boolean synchronize(Context context) {
+		generation += 1;
+		seen[getOrCreateId(context.getContextualEgoNetwork().getEgo())] = generation;
+		for(Node node : context.getNodes())
+			seen[getOrCreateId(node)] = generation;
+		for(Edge edge : context.getEdges()) {
+			seen[getOrCreateId(edge.getSrc())] = generation;
+			seen[getOrCreateId(edge.getDst())] = generation;
+		}
+		boolean released = false;
+		for(int id=0;id<idBound;id++)
+			if(nodes[id]!=null && seen[id]!=generation)
+				released = release(nodes[id]) || released;
+		return released;
+	}
+
+	/**
+	 * Reassigns identifiers so that they are in the range [0, {@link #size()}) and there are no released ones.
+	 * @return An array whose element at each old identifier is the respective new identifier, or -1 for released
+	 *  identifiers.
+	 */
+	public int[] compact() {
+		int[] mapping = new int[idBound];
+		int newIdBound = 0;
+		for(int id=0;id<idBound;id++) {
+			if(nodes[id]==null) {
+				mapping[id] = -1;
+				continue;
+			}
+			mapping[id] = newIdBound;
+			nodes[newIdBound] = nodes[id];
+			seen[newIdBound] = seen[id];
+			ids.put(nodes[newIdBound], newIdBound);
+			newIdBound += 1;
+		}
+		Arrays.fill(nodes, newIdBound, idBound, null);
+		idBound = newIdBound;
+		numFreeIds = 0;
+		return mapping;
+	}
+}
@@ -0,0 +1,202 @@
+package eu.h2020.helios_social.modules.socialgraphmining.TF;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+
+import eu.h2020.helios_social.core.contextualegonetwork.Utils;
+
+/**
+ * This class converts edge lists exchanged by {@link TFMiner} instances to and from a compact binary representation,
+ * which is wrapped in a Base64 string so that it can be placed in miner parameters. Messages start with a header of
+ * the sender's edge log epoch and version and the epoch and version of the receiver's edges the sender acknowledges.
+ * Node identifiers are then written once in a per-message dictionary and edges refer to them by index.
+ * Integers are written as variable-length quantities and edge weights as single-precision floats.
+ * Node identifiers are written as UTF-8 strings and can contain any character.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class EdgeListCodec {
+	private static final int FORMAT = 1;
+
+	/**
+	 * A decoded message.
+	 */
+	public static class Message {
+		private long epoch;
+		private long version;
+		private long ackEpoch;
+		private long ackVersion;
+		private ArrayList<String> srcIds = new ArrayList<String>();
+		private ArrayList<String> dstIds = new ArrayList<String>();
+		private ArrayList<Float> weights = new ArrayList<Float>();
+
+		/**
+		 * Instantiates an empty message.
+		 * @param epoch An identifier of the sender's edge log, which changes whenever versions are reset.
+		 * @param version The version of the sender's edge log after the message's edges.
+		 * @param ackEpoch The epoch of the receiver's edge log that is acknowledged.
+		 * @param ackVersion The version of the receiver's edge log up to which edges have been received.
+		 */
+		public Message(long epoch, long version, long ackEpoch, long ackVersion) {
+			this.epoch = epoch;
+			this.version = version;
+			this.ackEpoch = ackEpoch;
+			this.ackVersion = ackVersion;
+		}
+
+		/**
+		 * Adds an edge to the message.
+		 * @param srcId The identifier of the edge's source node.
+		 * @param dstId The identifier of the edge's destination node.
+		 * @param weight The edge's weight.
+		 * @return <code>this</code> message.
+		 */
+		public Message addEdge(String srcId, String dstId, double weight) {
+			srcIds.add(srcId);
+			dstIds.add(dstId);
+			weights.add((float)weight);
+			return this;
+		}
+
+		public long getEpoch() {
+			return epoch;
+		}
+
+		public long getVersion() {
+			return version;
+		}
+
+		public long getAckEpoch() {
+			return ackEpoch;
+		}
+
+		public long getAckVersion() {
+			return ackVersion;
+		}
+
+		public int getNumEdges() {
+			return srcIds.size();
+		}
+
+		public String getSrcId(int edge) {
+			return srcIds.get(edge);
+		}
+
+		public String getDstId(int edge) {
+			return dstIds.get(edge);
+		}
+
+		public double getWeight(int edge) {
+			return weights.get(edge);
+		}
+	}
+
+	private EdgeListCodec() {}
+
+	private static void writeVarLong(ByteArrayOutputStream out, long value) {
+		while((value & ~0x7FL)!=0) {
+			out.write((int)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int)value);
+	}
+
+	private static long readVarLong(ByteBuffer in) {
+		long value = 0;
+		for(int shift=0;shift<64;shift+=7) {
+			byte b = in.get();
+			value |= (long)(b & 0x7F) << shift;
+			if((b & 0x80)==0)
+				return value;
+		}
+		return Utils.error(new IllegalArgumentException("Malformed variable-length integer"), 0L);
+	}
+
+	private static void writeString(ByteArrayOutputStream out, String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarLong(out, bytes.length);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[(int)readVarLong(in)];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static int getOrCreateIndex(HashMap<String, Integer> dictionary, List<String> ids, String id) {
+		Integer index = dictionary.get(id);
+		if(index==null) {
+			index = ids.size();
+			dictionary.put(id, index);
+			ids.add(id);
+		}
+		return index;
+	}
+
+	/**
+	 * Converts a message to its compact string representation.
+	 * @param message The message to convert.
+	 * @return A Base64 string.
+	 * @see #decode(String)
+	 */
+	public static String encode(Message message) {
+		HashMap<String, Integer> dictionary = new HashMap<String, Integer>();
+		ArrayList<String> ids = new ArrayList<String>();
+		int numEdges = message.getNumEdges();
+		int[] srcIndexes = new int[numEdges];
+		int[] dstIndexes = new int[numEdges];
+		for(int edge=0;edge<numEdges;edge++) {
+			srcIndexes[edge] = getOrCreateIndex(dictionary, ids, message.getSrcId(edge));
+			dstIndexes[edge] = getOrCreateIndex(dictionary, ids, message.getDstId(edge));
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeVarLong(out, FORMAT);
+		writeVarLong(out, message.epoch);
+		writeVarLong(out, message.version);
+		writeVarLong(out, message.ackEpoch);
+		writeVarLong(out, message.ackVersion);
+		writeVarLong(out, ids.size());
+		for(String id : ids)
+			writeString(out, id);
+		writeVarLong(out, numEdges);
+		ByteBuffer weight = ByteBuffer.allocate(4);
+		for(int edge=0;edge<numEdges;edge++) {
+			writeVarLong(out, srcIndexes[edge]);
+			writeVarLong(out, dstIndexes[edge]);
+			weight.clear();
+			weight.putFloat(message.weights.get(edge));
+			out.write(weight.array(), 0, 4);
+		}
+		return Base64.getEncoder().encodeToString(out.toByteArray());
+	}
+
+	/**
+	 * Converts a string created by {@link #encode(Message)} back to a message.
+	 * @param encoded The Base64 string.
+	 * @return The decoded message.
+	 */
+	public static Message decode(String encoded) {
+		ByteBuffer in = ByteBuffer.wrap(Base64.getDecoder().decode(encoded));
+		long format = readVarLong(in);
+		if(format!=FORMAT)
+			Utils.error(new IllegalArgumentException("Unsupported edge list format "+format));
+		Message message = new Message(readVarLong(in), readVarLong(in), readVarLong(in), readVarLong(in));
+		int numIds = (int)readVarLong(in);
+		String[] ids = new String[numIds];
+		for(int i=0;i<numIds;i++)
+			ids[i] = readString(in);
+		long numEdges = readVarLong(in);
+		for(long edge=0;edge<numEdges;edge++) {
+			String srcId = ids[(int)readVarLong(in)];
+			String dstId = ids[(int)readVarLong(in)];
+			message.addEdge(srcId, dstId, in.getFloat());
+		}
+		return message;
+	}
+}
@@ -0,0 +1,139 @@
+package eu.h2020.helios_social.modules.socialgraphmining.TF;
+
+import java.util.HashMap;
+
+import eu.h2020.helios_social.core.contextualegonetwork.Edge;
+import eu.h2020.helios_social.core.contextualegonetwork.Utils;
+
+/**
+ * This class stores edge weights that decay over time, as used by {@link TFMiner} for the edges of a context.
+ * Weights are kept in a primitive array alongside a global scale, so that decaying all weights only
+ * updates the scale and effective weights are computed when read. Stored values are rescaled when the scale
+ * becomes too small to be accurately represented, and edges whose weights have decayed below a threshold are
+ * periodically removed. Removed edges have zero weight, so that {@link TFMiner} leaves them out of training.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class EdgeWeightStore {
+	private static final double minScale = 1.E-100;
+	private HashMap<Edge, Integer> indexes = new HashMap<Edge, Integer>();
+	private Edge[] edges = new Edge[16];
+	private double[] weights = new double[16];
+	private int size = 0;
+	private double scale = 1;
+	private double pruningThreshold = 1.E-9;
+	private int pruningPeriod = 64;
+	private int decaysSincePruning = 0;
+
+	/**
+	 * Sets the effective weight below which edges are removed and the number of decays between removals.
+	 * @param pruningThreshold A non-negative weight threshold (default is 1.E-9).
+	 * @param pruningPeriod A positive number of decays (default is 64).
+	 * @return <code>this</code> store.
+	 */
+	public EdgeWeightStore setPruning(double pruningThreshold, int pruningPeriod) {
+		if(!Double.isFinite(pruningThreshold) || pruningThreshold<0)
+			Utils.error(new IllegalArgumentException("Pruning threshold "+pruningThreshold+" should be non-negative"));
+		if(pruningPeriod<=0)
+			Utils.error(new IllegalArgumentException("Pruning period "+pruningPeriod+" should be positive"));
+		this.pruningThreshold = pruningThreshold;
+		this.pruningPeriod = pruningPeriod;
+		return this;
+	}
+
+	/**
+	 * Retrieves the effective weight of an edge.
+	 * @param edge The edge.
+	 * @return The edge's weight, or zero if the edge has no stored weight.
+	 */
+	public double get(Edge edge) {
+		Integer index = indexes.get(edge);
+		return index==null?0:weights[index]*scale;
+	}
+
+	/**
+	 * Sets the effective weight of an edge.
+	 * @param edge The edge.
+	 * @param weight The edge's new weight.
+	 */
+	public void set(Edge edge, double weight) {
+		weights[getOrCreateIndex(edge)] = weight/scale;
+	}
+
+	/**
+	 * Adds a value to the effective weight of an edge.
+	 * @param edge The edge.
+	 * @param weight The value to add.
+	 */
+	public void add(Edge edge, double weight) {
+		weights[getOrCreateIndex(edge)] += weight/scale;
+	}
+
+	/**
+	 * Multiplies the weights of all edges with the given factor in constant time, apart from periodic rescaling
+	 * and pruning.
+	 * @param factor A factor in the range (0,1].
+	 */
+	public void decay(double factor) {
+		if(factor<=0 || factor>1)
+			Utils.error(new IllegalArgumentException("Decay factor "+factor+" should be in the range (0,1]"));
+		scale *= factor;
+		if(scale<minScale) {
+			for(int i=0;i<size;i++)
+				weights[i] *= scale;
+			scale = 1;
+		}
+		decaysSincePruning += 1;
+		if(decaysSincePruning>=pruningPeriod)
+			prune();
+	}
+
+	/**
+	 * Removes all edges whose effective weight is below the pruning threshold.
+	 */
+	public void prune() {
+		decaysSincePruning = 0;
+		int newSize = 0;
+		for(int i=0;i<size;i++) {
+			if(Math.abs(weights[i]*scale)<pruningThreshold) {
+				indexes.remove(edges[i]);
+				continue;
+			}
+			if(newSize!=i) {
+				edges[newSize] = edges[i];
+				weights[newSize] = weights[i];
+				indexes.put(edges[newSize], newSize);
+			}
+			newSize += 1;
+		}
+		for(int i=newSize;i<size;i++)
+			edges[i] = null;
+		size = newSize;
+	}
+
+	/**
+	 * Retrieves the number of edges with stored weights.
+	 * @return The number of edges.
+	 */
+	public int size() {
+		return size;
+	}
+
+	private int getOrCreateIndex(Edge edge) {
+		Integer index = indexes.get(edge);
+		if(index!=null)
+			return index;
+		if(size==weights.length) {
+			Edge[] newEdges = new Edge[size*2];
+			double[] newWeights = new double[size*2];
+			System.arraycopy(edges, 0, newEdges, 0, size);
+			System.arraycopy(weights, 0, newWeights, 0, size);
+			edges = newEdges;
+			weights = newWeights;
+		}
+		edges[size] = edge;
+		weights[size] = 0;
+		indexes.put(edge, size);
+		return size++;
+	}
+}
@@ -0,0 +1,111 @@
+package eu.h2020.helios_social.modules.socialgraphmining.TF;
+
+import java.util.Arrays;
+
+/**
+ * This class implements a set of primitive long values with open addressing and linear probing,
+ * which avoids boxing values and allocating entries. It is used by {@link TFMiner} to check whether
+ * sampled node pairs are edges in constant time.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class LongHashSet {
+	private static final long EMPTY = Long.MIN_VALUE;
+	private long[] keys;
+	private int size = 0;
+	private boolean containsEmpty = false;
+
+	/**
+	 * Instantiates an empty set.
+	 */
+	public LongHashSet() {
+		this(16);
+	}
+
+	/**
+	 * Instantiates an empty set that can hold the given number of values before growing.
+	 * @param expectedSize The expected number of values.
+	 */
+	public LongHashSet(int expectedSize) {
+		int capacity = 16;
+		while(capacity<expectedSize*2)
+			capacity *= 2;
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+	}
+
+	private static int hash(long key) {
+		key ^= key>>>33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key>>>33;
+		return (int)key;
+	}
+
+	private int find(long[] keys, long key) {
+		int mask = keys.length-1;
+		int pos = hash(key) & mask;
+		while(keys[pos]!=EMPTY && keys[pos]!=key)
+			pos = (pos+1) & mask;
+		return pos;
+	}
+
+	/**
+	 * Adds a value to the set.
+	 * @param key The value to add.
+	 * @return Whether the value was not already in the set.
+	 */
+	public boolean add(long key) {
+		if(key==EMPTY) {
+			boolean added = !containsEmpty;
+			if(added)
+				size += 1;
+			containsEmpty = true;
+			return added;
+		}
+		int pos = find(keys, key);
+		if(keys[pos]==key)
+			return false;
+		keys[pos] = key;
+		size += 1;
+		if(size*2>keys.length)
+			grow();
+		return true;
+	}
+
+	/**
+	 * Checks whether a value is in the set.
+	 * @param key The value to check.
+	 * @return Whether the value is in the set.
+	 */
+	public boolean contains(long key) {
+		if(key==EMPTY)
+			return containsEmpty;
+		return keys[find(keys, key)]==key;
+	}
+
+	/**
+	 * Retrieves the number of values in the set.
+	 * @return The number of values.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all values from the set.
+	 */
+	public void clear() {
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+		containsEmpty = false;
+	}
+
+	private void grow() {
+		long[] newKeys = new long[keys.length*2];
+		Arrays.fill(newKeys, EMPTY);
+		for(long key : keys)
+			if(key!=EMPTY)
+				newKeys[find(newKeys, key)] = key;
+		keys = newKeys;
+	}
+}
@@ -1,13 +1,19 @@
 package eu.h2020.helios_social.modules.socialgraphmining.TF;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.WeakHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 import eu.h2020.helios_social.core.contextualegonetwork.Context;
 import eu.h2020.helios_social.core.contextualegonetwork.ContextualEgoNetwork;
 import eu.h2020.helios_social.core.contextualegonetwork.Edge;
 import eu.h2020.helios_social.core.contextualegonetwork.Interaction;
 import eu.h2020.helios_social.core.contextualegonetwork.Node;
+import eu.h2020.helios_social.core.contextualegonetwork.Utils;
 import eu.h2020.helios_social.modules.socialgraphmining.SocialGraphMiner;
 import eu.h2020.helios_social.modules.socialgraphmining.GNN.GNNNodeData;
 import mklab.JGNN.core.Model;
@@ -18,86 +24,399 @@ import mklab.JGNN.core.matrix.DenseMatrix;
 import mklab.JGNN.core.matrix.SparseSymmetric;
 import mklab.JGNN.core.optimizers.Adam;
 import mklab.JGNN.core.tensor.DenseTensor;
-import mklab.JGNN.models.IdConverter;
 
+/**
+ * This class implements a miner that trains a graph neural network with a DistMult decoder over
+ * the edges of each context, which are shared between devices alongside ego embeddings.
+ * <br>
+ * Each context keeps a persistent model whose adjacency matrix is updated in place as edges arrive and
+ * whose parameters and Adam optimizer state are kept across interactions. Nodes are assigned identifiers by a
+ * per-context {@link ContextIdSpace} that reuses the identifiers of nodes leaving the context, so that matrices
+ * are sized by the number of context nodes. Matrices are allocated with spare capacity, grow (doubling their rows)
+ * only when new nodes exceed it and shrink when most of it is unused.
+ * <br>
+ * The protected <code>model</code>, <code>idConverter</code> and <code>edgeWeights</code> fields of earlier versions
+ * have been removed, since this state is now kept per context. Subclasses can access it through
+ * {@link #getContextModel(Context)} and {@link #getEdgeWeights(Context)}.
+ *
+ * @author Emmanouil Krasanakis
+ */
 public class TFMiner extends SocialGraphMiner {
-	protected Model model;
-	protected IdConverter idConverter = new IdConverter();
-	protected HashMap<Edge, Double> edgeWeights = new HashMap<Edge, Double>();
+	private static final long dims = 10;
+	private WeakHashMap<Context, EdgeWeightStore> edgeWeightStores = new WeakHashMap<Context, EdgeWeightStore>();
+	private WeakHashMap<Context, ContextModel> contextModels = new WeakHashMap<Context, ContextModel>();
+	private int trainingEpochs = 10;
+	private int negativeSamples = 1;
+	private static final int maxNegativeSamplingAttempts = 100;
+	private WeakHashMap<Context, EdgeLog> edgeLogs = new WeakHashMap<Context, EdgeLog>();
+	
+	/**
+	 * Holds the order in which edges were first seen in a context, so that each edge has a version equal to its
+	 * position plus one. Also holds the versions of edges acknowledged by each alter and the versions of edges
+	 * received from each alter, so that only edges added after the acknowledged version are sent. Since alters
+	 * send each edge only until it is acknowledged, the edges each alter has reported are also kept, so that their
+	 * weights can be refreshed on every interaction with that alter.
+	 * <br>
+	 * Edges removed from the context are kept in the log until they make up at least half of it, in which case
+	 * the log is compacted to the context's edges. Since this changes versions, compaction starts a new epoch and
+	 * forgets acknowledged versions, so that all edges are sent anew to each alter.
+	 */
+	private static class EdgeLog {
+		private static final int minCompactedEdges = 64;
+		private long epoch = createEpoch(0);
+		private ArrayList<Edge> edges = new ArrayList<Edge>();
+		private HashSet<Edge> loggedEdges = new HashSet<Edge>();
+		private int numContextEdges = -1;
+		private HashMap<Node, Long> acknowledgedVersions = new HashMap<Node, Long>();
+		private HashMap<Node, long[]> receivedVersions = new HashMap<Node, long[]>();
+		private HashMap<Node, HashSet<Edge>> reportedEdges = new HashMap<Node, HashSet<Edge>>();
+		
+		private static long createEpoch(long previousEpoch) {
+			long epoch;
+			do {
+				epoch = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+			} while(epoch==0 || epoch==previousEpoch);
+			return epoch;
+		}
+		
+		private void synchronize(Context context) {
+			if(context.getEdges().size()==numContextEdges)
+				return;
+			for(Edge edge : context.getEdges())
+				if(loggedEdges.add(edge))
+					edges.add(edge);
+			numContextEdges = context.getEdges().size();
+			int removedEdges = edges.size()-numContextEdges;
+			if(removedEdges>=minCompactedEdges && removedEdges*2>=edges.size())
+				compact(context);
+		}
+		
+		private void compact(Context context) {
+			ArrayList<Edge> contextEdges = new ArrayList<Edge>(numContextEdges);
+			for(Edge edge : edges)
+				if(context.getEdge(edge.getSrc(), edge.getDst())==edge)
+					contextEdges.add(edge);
+			edges = contextEdges;
+			loggedEdges = new HashSet<Edge>(contextEdges);
+			epoch = createEpoch(epoch);
+			acknowledgedVersions.clear();
+			HashSet<Node> contextNodes = new HashSet<Node>(context.getNodes());
+			receivedVersions.keySet().retainAll(contextNodes);
+			reportedEdges.keySet().retainAll(contextNodes);
+			for(HashSet<Edge> alterEdges : reportedEdges.values())
+				alterEdges.retainAll(loggedEdges);
+		}
+	}
+	
+	/**
+	 * Holds the persistent model of a context.
+	 */
+	protected static class ContextModel {
+		private ContextIdSpace ids = new ContextIdSpace();
+		private long capacity = 0;
+		private int syncedEdges = -1;
+		private long syncedEdgeLogEpoch = 0;
+		private Matrix W;
+		private Matrix H0;
+		private Tensor distMult = new DenseTensor(dims).setToRandom().setToNormalized();
+		private Matrix W1 = new DenseMatrix(dims, dims).setToRandom().setToNormalized();
+		private Matrix W2 = new DenseMatrix(dims, dims).setToRandom().setToNormalized();
+		private Model model = null;
+		private Adam optimizer = new Adam(1);
+		
+		private int getOrCreateId(Node node) {
+			return ids.getOrCreateId(node);
+		}
+		
+		private LongHashSet edgeKeys = new LongHashSet();
+		
+		private static long getEdgeKey(long u, long v) {
+			return Math.min(u, v)<<32 | Math.max(u, v);
+		}
+		
+		private void addEdge(Edge edge) {
+			int u = getOrCreateId(edge.getSrc());
+			int v = getOrCreateId(edge.getDst());
+			W.put(u, v, 1);
+			edgeKeys.add(getEdgeKey(u, v));
+		}
+		
+		private boolean isEdge(long u, long v) {
+			return edgeKeys.contains(getEdgeKey(u, v));
+		}
+		
+		/**
+		 * Retrieves the identifier of a node, which is the node's row in {@link #getEmbeddings()}.
+		 * @param node The node.
+		 * @return The node's identifier, or -1 if it has none.
+		 */
+		public int getId(Node node) {
+			return ids.getId(node);
+		}
+		
+		/**
+		 * Retrieves the number of rows matrices are allocated with.
+		 * @return The capacity of matrices.
+		 */
+		public long getCapacity() {
+			return capacity;
+		}
+		
+		/**
+		 * Retrieves the matrix whose rows hold the embeddings of nodes, as trained during the last interaction.
+		 * @return The embedding matrix, or <code>null</code> if no training has occurred.
+		 */
+		public Matrix getEmbeddings() {
+			return H0;
+		}
+		
+		/**
+		 * Retrieves the adjacency matrix of the context's edges.
+		 * @return The adjacency matrix, or <code>null</code> if no training has occurred.
+		 */
+		public Matrix getAdjacency() {
+			return W;
+		}
+		
+		/**
+		 * Retrieves the DistMult decoder's parameters.
+		 * @return The DistMult tensor.
+		 */
+		public Tensor getDistMult() {
+			return distMult;
+		}
+		
+		/**
+		 * Retrieves the parameters that transform neighbor embeddings.
+		 * @return The neighbor transformation matrix.
+		 */
+		public Matrix getW1() {
+			return W1;
+		}
+		
+		/**
+		 * Retrieves the parameters that transform node embeddings.
+		 * @return The self transformation matrix.
+		 */
+		public Matrix getW2() {
+			return W2;
+		}
+		
+		/**
+		 * Makes sure that matrices can hold the identifiers of all context nodes and that the adjacency
+		 * matrix holds all context edges. Identifiers of nodes that have left the context are released for reuse.
+		 * Matrices are grown (doubling their rows) when identifiers exceed their capacity and are compacted
+		 * when identifiers occupy less than a quarter of it. Only edges the edge log first saw since the last
+		 * synchronization are added to the adjacency matrix, which is rebuilt from all context edges only when
+		 * identifiers are released or matrices are resized. All context edges are added again if the edge log
+		 * has been compacted. In all cases, existing parameters and optimizer state are kept.
+		 */
+		private void synchronize(Context context, EdgeLog edgeLog) {
+			boolean released = ids.synchronize(context);
+			int[] mapping = null;
+			long newCapacity = capacity;
+			if(ids.getIdBound()>capacity)
+				newCapacity = Math.max(Math.max(16, capacity*2), ids.getIdBound());
+			else if(capacity>16 && ids.size()*4<capacity) {
+				mapping = ids.compact();
+				newCapacity = Math.max(16, ids.size()*2);
+			}
+			if(newCapacity!=capacity) {
+				Matrix newH0 = new DenseMatrix(newCapacity, dims);
+				for(long i=0;i<capacity && i<newCapacity && mapping==null;i++)
+					for(long dim=0;dim<dims;dim++)
+						newH0.put(i, dim, H0.get(i, dim));
+				if(mapping!=null)
+					for(int i=0;i<mapping.length;i++)
+						if(mapping[i]!=-1)
+							for(long dim=0;dim<dims;dim++)
+								newH0.put(mapping[i], dim, H0.get(i, dim));
+				H0 = newH0;
+				capacity = newCapacity;
+				released = true;
+			}
+			if(released) {
+				W = new SparseSymmetric(capacity, capacity);
+				edgeKeys.clear();
+				syncedEdges = -1;
+				model = new ModelBuilder()
+						.var("u")
+						.var("v")
+						.constant("W", W)
+						.param("H0", H0)
+						.param("DistMult", distMult)
+						.param("W1", W1)
+						.param("W2", W2)
+						.operation("H1 = W * H0 * W1 + H0 * W2")
+						.operation("sim = sigmoid( sum(H1[u].H1[v].DistMult) )")
+						.out("sim")
+						.assertBackwardValidity()
+						.getModel();
+			}
+			if(syncedEdges==-1 || syncedEdgeLogEpoch!=edgeLog.epoch)
+				for(Edge edge : context.getEdges())
+					addEdge(edge);
+			else
+				for(int i=syncedEdges;i<edgeLog.edges.size();i++) {
+					Edge edge = edgeLog.edges.get(i);
+					if(context.getEdge(edge.getSrc(), edge.getDst())==edge)
+						addEdge(edge);
+				}
+			syncedEdges = edgeLog.edges.size();
+			syncedEdgeLogEpoch = edgeLog.epoch;
+		}
+	}
 	
 	public TFMiner(ContextualEgoNetwork contextualEgoNetwork) {
 		super(contextualEgoNetwork);
 	}
+	
+	/**
+	 * Sets the number of training epochs performed on each received interaction. Since model parameters
+	 * are kept across interactions, each interaction only refines them.
+	 * @param trainingEpochs A positive number of epochs (default is 10).
+	 * @return <code>this</code> miner's instance.
+	 */
+	public TFMiner setTrainingEpochs(int trainingEpochs) {
+		if(trainingEpochs<=0)
+			Utils.error(new IllegalArgumentException("Number of training epochs "+trainingEpochs+" should be positive"));
+		this.trainingEpochs = trainingEpochs;
+		return this;
+	}
+	
+	/**
+	 * Sets the number of negative node pairs sampled for each context edge during training.
+	 * Negative pairs are drawn uniformly among pairs of distinct nodes that are not connected by an edge.
+	 * @param negativeSamples A positive number of negative samples per edge (default is 1).
+	 * @return <code>this</code> miner's instance.
+	 */
+	public TFMiner setNegativeSamples(int negativeSamples) {
+		if(negativeSamples<=0)
+			Utils.error(new IllegalArgumentException("Number of negative samples "+negativeSamples+" should be positive"));
+		this.negativeSamples = negativeSamples;
+		return this;
+	}
+	
+	/**
+	 * Retrieves the persistent model of the given context, creating it if needed.
+	 * @param context The context.
+	 * @return The context's model.
+	 */
+	protected synchronized ContextModel getContextModel(Context context) {
+		ContextModel contextModel = contextModels.get(context);
+		if(contextModel==null)
+			contextModels.put(context, contextModel = new ContextModel());
+		return contextModel;
+	}
+
+	/**
+	 * Brings the persistent model of the given context up to date with the context's nodes and edges, which
+	 * happens before training on each interaction. This may grow or compact the model's matrices.
+	 * @param context The context.
+	 * @return The context's model.
+	 * @see #getContextModel(Context)
+	 */
+	protected synchronized ContextModel synchronizeContextModel(Context context) {
+		ContextModel contextModel = getContextModel(context);
+		contextModel.synchronize(context, getEdgeLog(context));
+		return contextModel;
+	}
+
+	/**
+	 * Retrieves the store of the given context's edge weights, creating it if needed.
+	 * @param context The context.
+	 * @return The context's edge weights.
+	 */
+	protected synchronized EdgeWeightStore getEdgeWeights(Context context) {
+		EdgeWeightStore edgeWeightStore = edgeWeightStores.get(context);
+		if(edgeWeightStore==null)
+			edgeWeightStores.put(context, edgeWeightStore = new EdgeWeightStore());
+		return edgeWeightStore;
+	}
+	
+	private EdgeLog getEdgeLog(Context context) {
+		EdgeLog edgeLog = edgeLogs.get(context);
+		if(edgeLog==null)
+			edgeLogs.put(context, edgeLog = new EdgeLog());
+		edgeLog.synchronize(context);
+		return edgeLog;
+	}
 
 	@Override
-	public void newInteractionParameters(Interaction interaction, SocialGraphMinerParameters params, InteractionType interactionType) {
+	public synchronized void newInteractionParameters(Interaction interaction, SocialGraphMinerParameters params, InteractionType interactionType) {
 		if(interactionType==InteractionType.SEND)
 			return;
 		Context context = interaction.getEdge().getContext();
-		for(Edge edge : context.getEdges()) 
-			edgeWeights.put(edge, edgeWeights.getOrDefault(edge, 0.)*0.5);
-		idConverter.getOrCreateId(interaction.getEdge().getSrc());
-		idConverter.getOrCreateId(interaction.getEdge().getDst());
-		edgeWeights.put(interaction.getEdge(), edgeWeights.get(interaction.getEdge())+1);
+		ContextModel contextModel = getContextModel(context);
+		EdgeWeightStore edgeWeights = getEdgeWeights(context);
+		edgeWeights.decay(0.5);
+		contextModel.getOrCreateId(interaction.getEdge().getSrc());
+		contextModel.getOrCreateId(interaction.getEdge().getDst());
+		edgeWeights.add(interaction.getEdge(), 1);
 		
 		interaction
 			.getEdge()
 			.getAlter()
 			.getOrCreateInstance(GNNNodeData.class)
 			.forceSetEmbedding((Tensor)params.get("embedding"));
-		for(String edgeRepresentation : ((String)params.get("edges")).split("\\s")) {
-			String[] nodes = edgeRepresentation.split("\\-");
-			Edge edge = context.getOrAddEdge(	context.getContextualEgoNetwork().getOrCreateNode(nodes[0]), 
-												context.getContextualEgoNetwork().getOrCreateNode(nodes[1]) );
-			edgeWeights.put(edge, edgeWeights.get(interaction.getEdge()));//Math.max(edgeWeights.getOrDefault(edge, 0.), Double.parseDouble(nodes[2])));
-
-			idConverter.getOrCreateId(context.getContextualEgoNetwork().getOrCreateNode(nodes[0]));
-			idConverter.getOrCreateId(context.getContextualEgoNetwork().getOrCreateNode(nodes[1]));
+		EdgeLog edgeLog = getEdgeLog(context);
+		Node alter = interaction.getEdge().getAlter();
+		EdgeListCodec.Message message = EdgeListCodec.decode((String)params.get("edges"));
+		edgeLog.receivedVersions.put(alter, new long[] {message.getEpoch(), message.getVersion()});
+		if(message.getAckEpoch()==edgeLog.epoch)
+			edgeLog.acknowledgedVersions.put(alter, Math.max(edgeLog.acknowledgedVersions.getOrDefault(alter, 0L), 
+					Math.min(message.getAckVersion(), edgeLog.edges.size())));
+		HashSet<Edge> reportedEdges = edgeLog.reportedEdges.get(alter);
+		if(reportedEdges==null)
+			edgeLog.reportedEdges.put(alter, reportedEdges = new HashSet<Edge>());
+		for(int i=0;i<message.getNumEdges();i++) {
+			Edge edge = context.getOrAddEdge(	context.getContextualEgoNetwork().getOrCreateNode(message.getSrcId(i)), 
+												context.getContextualEgoNetwork().getOrCreateNode(message.getDstId(i)) );
+			reportedEdges.add(edge);
+			contextModel.getOrCreateId(edge.getSrc());
+			contextModel.getOrCreateId(edge.getDst());
+		}
+		double interactionWeight = edgeWeights.get(interaction.getEdge());
+		for(Iterator<Edge> iterator=reportedEdges.iterator();iterator.hasNext();) {
+			Edge edge = iterator.next();
+			if(context.getEdge(edge.getSrc(), edge.getDst())!=edge)
+				iterator.remove();
+			else
+				edgeWeights.set(edge, interactionWeight);
 		}
 		
 		if(context.getNodes().size()<12)
 			return;
 		
-		Matrix W = new SparseSymmetric(idConverter.size(), idConverter.size());
-		for(Edge edge : context.getEdges())
-			W.put(idConverter.getId(edge.getSrc()), idConverter.getId(edge.getDst()), 1);
-		W.put(	idConverter.getId(interaction.getEdge().getSrc()), 
-				idConverter.getId(interaction.getEdge().getAlter()) );
-		
-		//System.out.println("Density:"+W.getNumNonZeroElements()/(double)W.getRows()/W.getCols());
+		synchronizeContextModel(context);
+		Matrix H0 = contextModel.H0;
+		int idBound = contextModel.ids.getIdBound();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
 		
+		//System.out.println("Density:"+contextModel.W.getNumNonZeroElements()/(double)idBound/idBound);
 		
-		long dims = 10;
-		Matrix H0 = new DenseMatrix(idConverter.size(), dims);
 		for(Node node : context.getNodes()) {
-			long i = idConverter.getId(node);
+			long i = contextModel.ids.getId(node);
 			Tensor previousEmbedding = node.getOrCreateInstance(GNNNodeData.class).getEmbedding();
 			for(long dim=0;dim<dims;dim++)
 				H0.put(i, dim, previousEmbedding.get(dim));
 		}
-		model = new ModelBuilder()
-				.var("u")
-				.var("v")
-				.constant("W", W)
-				.param("H0", H0)
-				.param("DistMult", new DenseTensor(dims).setToRandom().setToNormalized())
-				.param("W1", new DenseMatrix(dims, dims).setToRandom().setToNormalized())
-				.param("W2", new DenseMatrix(dims, dims).setToRandom().setToNormalized())
-				.operation("H1 = W * H0 * W1 + H0 * W2")
-				.operation("sim = sigmoid( sum(H1[u].H1[v].DistMult) )")
-				.out("sim")
-				.assertBackwardValidity()
-				.getModel();
-		
-		long numEdges = W.getNumNonZeroElements()*4;
+		
+		ArrayList<Edge> weightedEdges = new ArrayList<Edge>();
+		for(Edge edge : context.getEdges())
+			if(edgeWeights.get(edge)!=0)
+				weightedEdges.add(edge);
+		if(weightedEdges.isEmpty())
+			return;
+		long numEdges = weightedEdges.size()*(long)(1+negativeSamples);
 		Tensor weights = new DenseTensor(numEdges);
 		Tensor labels = new DenseTensor(numEdges);
 		Tensor uList = new DenseTensor(numEdges);
 		Tensor vList = new DenseTensor(numEdges);
 		long pos = 0;
-		for(Edge edge : context.getEdges()) {
-			long u = (long)idConverter.getId(edge.getSrc());
-			long v = (long)idConverter.getId(edge.getDst());
+		for(Edge edge : weightedEdges) {
+			long u = (long)contextModel.ids.getId(edge.getSrc());
+			long v = (long)contextModel.ids.getId(edge.getDst());
 			
 			uList.put(pos, u);
 			vList.put(pos, v);
@@ -105,24 +424,32 @@ public class TFMiner extends SocialGraphMiner {
 			weights.put(pos, edgeWeights.get(edge));
 			pos += 1;
 
-			long neg1 = (int)(W.getRows()*Math.random());
-			long neg2 = (int)(W.getRows()*Math.random());
-			while(W.get(neg1,neg2)!=0 || neg1==neg2) {
-				neg1 = (int)(W.getRows()*Math.random());
-				neg2 = (int)(W.getRows()*Math.random());
+			for(int sample=0;sample<negativeSamples;sample++) {
+				long neg1 = 0;
+				long neg2 = 0;
+				boolean found = false;
+				for(int attempt=0;attempt<maxNegativeSamplingAttempts && !found;attempt++) {
+					neg1 = random.nextInt(idBound);
+					neg2 = random.nextInt(idBound);
+					found = neg1!=neg2 
+							&& contextModel.ids.isAssigned((int)neg1) 
+							&& contextModel.ids.isAssigned((int)neg2) 
+							&& !contextModel.isEdge(neg1, neg2);
+				}
+				uList.put(pos, neg1);
+				vList.put(pos, neg2);
+				labels.put(pos, 0);
+				weights.put(pos, found?1:0);
+				pos += 1;
 			}
-			uList.put(pos, neg1);
-			vList.put(pos, neg2);
-			weights.put(pos, 1);
-			pos += 1;
 		}
-		for(int epoch=0;epoch<10;epoch++)
-			model.trainSample(new Adam(1), Arrays.asList(uList, vList),  Arrays.asList(labels), Arrays.asList(weights));
+		for(int epoch=0;epoch<trainingEpochs;epoch++)
+			contextModel.model.trainSample(contextModel.optimizer, Arrays.asList(uList, vList),  Arrays.asList(labels), Arrays.asList(weights));
 		
 		for(Node node : context.getNodes()) {
 			//if(node!=context.getContextualEgoNetwork().getEgo())
 			//	continue;
-			long i = idConverter.getId(node);
+			long i = contextModel.ids.getId(node);
 			Tensor previousEmbedding = node.getOrCreateInstance(GNNNodeData.class).getEmbedding();
 			for(long dim=0;dim<dims;dim++)
 				previousEmbedding.put(dim, H0.get(i, dim));
@@ -144,8 +471,13 @@ public class TFMiner extends SocialGraphMiner {
 		throw new RuntimeException("Failed to sample (should not occur)");
 	}
 
+	/**
+	 * Constructs parameters that hold the ego's embedding and the context edges the interaction's alter has not
+	 * acknowledged receiving, encoded with {@link EdgeListCodec}. Edges are resent until the alter acknowledges them,
+	 * so that messages that fail to be delivered do not lose edges.
+	 */
 	@Override
-	public SocialGraphMinerParameters constructModelParameterObject(Interaction interaction) {
+	public synchronized SocialGraphMinerParameters constructModelParameterObject(Interaction interaction) {
 		Context context = interaction.getEdge().getContext();
 		SocialGraphMinerParameters params = new SocialGraphMinerParameters();
 		params.put("embedding", context
@@ -153,20 +485,31 @@ public class TFMiner extends SocialGraphMiner {
 									.getEgo()
 									.getOrCreateInstance(GNNNodeData.class)
 									.getEmbedding());
-		String edges = "";
-		for(Edge edge : context.getEdges())
-			edges += " "+edge.getSrc().getId()+"-"+edge.getDst().getId()+"-"+edgeWeights.get(edge);
-		params.put("edges", edges.trim());
+		EdgeLog edgeLog = getEdgeLog(context);
+		EdgeWeightStore edgeWeights = getEdgeWeights(context);
+		Node alter = interaction.getEdge().getAlter();
+		long[] receivedVersion = edgeLog.receivedVersions.get(alter);
+		EdgeListCodec.Message message = new EdgeListCodec.Message(edgeLog.epoch, edgeLog.edges.size(), 
+				receivedVersion==null?0:receivedVersion[0], receivedVersion==null?0:receivedVersion[1]);
+		for(int i=edgeLog.acknowledgedVersions.getOrDefault(alter, 0L).intValue();i<edgeLog.edges.size();i++) {
+			Edge edge = edgeLog.edges.get(i);
+			if(context.getEdge(edge.getSrc(), edge.getDst())==edge)
+				message.addEdge(edge.getSrc().getId(), edge.getDst().getId(), edgeWeights.get(edge));
+		}
+		params.put("edges", EdgeListCodec.encode(message));
 		return params;
 	}
 
 	@Override
-	public double predictNewInteraction(Context context, Node destinationNode) {
-		if(model==null)
+	public synchronized double predictNewInteraction(Context context, Node destinationNode) {
+		ContextModel contextModel = contextModels.get(context);
+		if(contextModel==null || contextModel.model==null)
+			return 0;
+		int u = contextModel.ids.getId(context.getContextualEgoNetwork().getEgo());
+		int v = contextModel.ids.getId(destinationNode);
+		if(u==-1 || v==-1)
 			return 0;
-		int u = idConverter.getId(context.getContextualEgoNetwork().getEgo());
-		int v = idConverter.getId(destinationNode);
-		return model.predict(Arrays.asList(Tensor.fromDouble(u), Tensor.fromDouble(v))).get(0).get(0);
+		return contextModel.model.predict(Arrays.asList(Tensor.fromDouble(u), Tensor.fromDouble(v))).get(0).get(0);
 	}
 
 }
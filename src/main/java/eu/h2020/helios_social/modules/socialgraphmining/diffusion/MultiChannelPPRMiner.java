@@ -0,0 +1,395 @@
+package eu.h2020.helios_social.modules.socialgraphmining.diffusion;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import eu.h2020.helios_social.core.contextualegonetwork.Context;
+import eu.h2020.helios_social.core.contextualegonetwork.ContextualEgoNetwork;
+import eu.h2020.helios_social.core.contextualegonetwork.Edge;
+import eu.h2020.helios_social.core.contextualegonetwork.Interaction;
+import eu.h2020.helios_social.core.contextualegonetwork.Node;
+import eu.h2020.helios_social.core.contextualegonetwork.Utils;
+import eu.h2020.helios_social.modules.socialgraphmining.SocialGraphMiner;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.core.tensor.SparseTensor;
+
+/**
+ * This class implements several Personalized PageRank schemes (called channels) that share the same
+ * diffusion pass over the decentralized social graph, instead of running one {@link PPRMiner} per channel.
+ * All channels are stored as one flat tensor per context and edge, in which each channel occupies a
+ * contiguous range of elements. Smoothing updates all channels at once and they are exchanged
+ * between devices as a single parameter.
+ * <br>
+ * Channels are added with {@link #addChannel(String, Tensor)} before the miner processes any interactions and
+ * are accessed through {@link #getChannel(String)}, whose {@link Channel} views provide the same methods as
+ * {@link PPRMiner} to retrieve and update personalizations of individual channels.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class MultiChannelPPRMiner extends SocialGraphMiner {
+	private String name;
+	private ArrayList<Channel> channels = new ArrayList<Channel>();
+	private HashMap<String, Channel> channelNames = new HashMap<String, Channel>();
+	private long size = 0;
+	private boolean sparse = true;
+	private boolean layoutFinalized = false;
+	private Tensor defaultPersonalization = null;
+	private NeighborScoreSums neighborScoreSums = new NeighborScoreSums();
+	private Set<Context> smoothedContexts = Collections.newSetFromMap(new WeakHashMap<Context, Boolean>());
+
+	/**
+	 * A view of one channel of a {@link MultiChannelPPRMiner}. Tensors returned by its methods are copies of the
+	 * respective elements of the miner's flat tensors.
+	 */
+	public class Channel {
+		private String name;
+		private long offset;
+		private long size;
+		private double restartProbability = 0.1;
+		private Tensor defaultPersonalization;
+
+		private Channel(String name, long offset, Tensor personalization) {
+			this.name = name;
+			this.offset = offset;
+			this.size = personalization.size();
+			this.defaultPersonalization = personalization;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Retrieves the number of elements of the channel's personalization.
+		 * @return The channel's size.
+		 */
+		public long size() {
+			return size;
+		}
+
+		/**
+		 * Retrieves the restart probability of the channel's personalized PageRank scheme.
+		 * @return The restart probability.
+		 * @see PPRMiner#getRestartProbability()
+		 */
+		public double getRestartProbability() {
+			synchronized(MultiChannelPPRMiner.this) {
+				return restartProbability;
+			}
+		}
+
+		/**
+		 * Sets the restart probability of the channel's personalized PageRank scheme.
+		 * @param restartProbability The restart probability in the range (0,1) (default is 0.1).
+		 * @return <code>this</code> channel.
+		 * @see PPRMiner#setRestartProbability(double)
+		 */
+		public Channel setRestartProbability(double restartProbability) {
+			if(restartProbability<=0 || restartProbability>=1)
+				Utils.error(new IllegalArgumentException("Restart probabilty should be in the open range (0,1)"));
+			synchronized(MultiChannelPPRMiner.this) {
+				this.restartProbability = restartProbability;
+			}
+			return this;
+		}
+
+		private Tensor extract(Tensor flat) {
+			Tensor ret = sparse?new SparseTensor(size):new DenseTensor(size);
+			for(long pos=0;pos<size;pos++) {
+				double value = flat.get(offset+pos);
+				if(value!=0)
+					ret.put(pos, value);
+			}
+			return ret;
+		}
+
+		/**
+		 * Copies the elements of a given vector to the channel of the ego's personalization in the provided context.
+		 * @param context The context in which to set the new personalization vector.
+		 * @param personalization The tensor to set as the channel's new personalization vector.
+		 * @return <code>this</code> channel.
+		 * @see PPRMiner#updatePersonalization(Context, Tensor)
+		 */
+		public Channel updatePersonalization(Context context, Tensor personalization) {
+			if(personalization.size()!=size)
+				Utils.error(new IllegalArgumentException("Personalization of size "+personalization.size()+" should have size "+size));
+			synchronized(MultiChannelPPRMiner.this) {
+				Tensor flat = MultiChannelPPRMiner.this.getPersonalization(context);
+				for(long pos=0;pos<size;pos++)
+					flat.put(offset+pos, personalization.get(pos));
+				updateSmoothedPersonalization(context);
+			}
+			return this;
+		}
+
+		/**
+		 * Updates the channel of the ego's personalization in <b>all</b> contexts, as well as its default value
+		 * for future contexts.
+		 * @param personalization The tensor to set as the channel's new personalization vector.
+		 * @return <code>this</code> channel.
+		 * @see PPRMiner#updatePersonalization(Tensor)
+		 */
+		public Channel updatePersonalization(Tensor personalization) {
+			if(personalization.size()!=size)
+				Utils.error(new IllegalArgumentException("Personalization of size "+personalization.size()+" should have size "+size));
+			synchronized(MultiChannelPPRMiner.this) {
+				defaultPersonalization = personalization;
+				if(MultiChannelPPRMiner.this.defaultPersonalization!=null)
+					for(long pos=0;pos<size;pos++)
+						MultiChannelPPRMiner.this.defaultPersonalization.put(offset+pos, personalization.get(pos));
+				for(Context context : getContextualEgoNetwork().getContexts())
+					updatePersonalization(context, personalization);
+			}
+			return this;
+		}
+
+		/**
+		 * Retrieves the channel of the ego's personalization for the specific context.
+		 * @param context The context from which to obtain the personalization.
+		 * @return A copy of the channel's personalization vector.
+		 * @see PPRMiner#getPersonalization(Context)
+		 */
+		public Tensor getPersonalization(Context context) {
+			synchronized(MultiChannelPPRMiner.this) {
+				return extract(MultiChannelPPRMiner.this.getPersonalization(context));
+			}
+		}
+
+		/**
+		 * Retrieves the channel of the outcome of smoothing the ego's personalization through the social graph.
+		 * @param context The context from which to obtain the smoothed personalization.
+		 * @return A copy of the channel's smoothed personalization.
+		 * @see PPRMiner#getSmoothedPersonalization(Context)
+		 */
+		public Tensor getSmoothedPersonalization(Context context) {
+			synchronized(MultiChannelPPRMiner.this) {
+				return extract(MultiChannelPPRMiner.this.getSmoothedPersonalization(context));
+			}
+		}
+
+		/**
+		 * Retrieves the outcome of {@link #getSmoothedPersonalization(Context)} and postprocesses it so that its minimum value is zero
+		 * and its elements sum to 1.
+		 * @param context The context from which to obtain the smoothed personalization.
+		 * @return A Tensor holding a normalized version of the channel's smoothed personalization.
+		 * @see PPRMiner#getNormalizedSmoothedPersonalization(Context)
+		 */
+		public Tensor getNormalizedSmoothedPersonalization(Context context) {
+			Tensor ret = getSmoothedPersonalization(context);
+			double min = ret.min();
+			if(min==ret.max())
+				min = 0;// if it's a uniform distribution return a uniform distribution
+			return ret.add(-min).setToProbability();
+		}
+
+		private double predict(Tensor smoothed, Tensor edgeScore) {
+			double dot = 0;
+			double sum = 0;
+			for(long pos=offset;pos<offset+size;pos++) {
+				double value = edgeScore.get(pos);
+				if(value!=0) {
+					dot += value*smoothed.get(pos);
+					sum += value;
+				}
+			}
+			return sum==0?0:dot/sum;
+		}
+	}
+
+	public MultiChannelPPRMiner(String name, ContextualEgoNetwork contextualEgoNetwork) {
+		super(contextualEgoNetwork);
+		if(name==null || name.isEmpty())
+			Utils.error(new IllegalArgumentException());
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Adds a new channel to the miner. Channels can only be added before the miner starts
+	 * storing scores, i.e. before it processes any interactions or smooths any personalization.
+	 * @param channelName The name of the channel. Should be unique among the miner's channels.
+	 * @param personalization The default personalization of the channel. If all channel personalizations are
+	 *  JGNN sparse tensors, the miner stores and exchanges sparse flat tensors.
+	 * @return <code>this</code> miner's instance.
+	 */
+	public synchronized MultiChannelPPRMiner addChannel(String channelName, Tensor personalization) {
+		if(layoutFinalized)
+			Utils.error(new IllegalStateException("Channels can not be added after the miner has started storing scores"));
+		if(channelName==null || channelName.isEmpty() || channelNames.containsKey(channelName))
+			Utils.error(new IllegalArgumentException("Channel names should be unique and non-empty"));
+		if(personalization==null || personalization.size()==0)
+			Utils.error(new IllegalArgumentException("Channel personalization should be a non-empty tensor"));
+		Channel channel = new Channel(channelName, size, personalization);
+		channels.add(channel);
+		channelNames.put(channelName, channel);
+		size += personalization.size();
+		sparse = sparse && personalization instanceof SparseTensor;
+		return this;
+	}
+
+	/**
+	 * Retrieves a view of the channel with the given name.
+	 * @param channelName The name of the channel.
+	 * @return The channel.
+	 */
+	public synchronized Channel getChannel(String channelName) {
+		Channel channel = channelNames.get(channelName);
+		if(channel==null)
+			Utils.error(new IllegalArgumentException("No channel named "+channelName));
+		return channel;
+	}
+
+	/**
+	 * Retrieves all channels in the order they were added.
+	 * @return A list of channels.
+	 */
+	public synchronized ArrayList<Channel> getChannels() {
+		return new ArrayList<Channel>(channels);
+	}
+
+	/**
+	 * Retrieves the module's name used as prefix to identifiers for the {@link Node#getOrCreateInstance(String, Class)}
+	 * methods when retrieving data attached to nodes.
+	 * @return The module name's prefix.
+	 */
+	protected String getModuleName() {
+		return getClass().getCanonicalName()+"#"+name+".";
+	}
+
+	private Tensor getDefaultPersonalization() {
+		if(!layoutFinalized) {
+			if(channels.isEmpty())
+				Utils.error(new IllegalStateException("At least one channel should be added to the miner"));
+			layoutFinalized = true;
+			defaultPersonalization = sparse?new SparseTensor(size):new DenseTensor(size);
+			for(Channel channel : channels)
+				for(long pos=0;pos<channel.size;pos++) {
+					double value = channel.defaultPersonalization.get(pos);
+					if(value!=0)
+						defaultPersonalization.put(channel.offset+pos, value);
+				}
+		}
+		return defaultPersonalization;
+	}
+
+	/**
+	 * Retrieves the ego node's personalization of all channels for the specific context.
+	 * @param context The context from which to obtain the personalization.
+	 * @return The flat personalization tensor.
+	 */
+	public synchronized Tensor getPersonalization(Context context) {
+		Tensor personalization = getDefaultPersonalization();
+		return context.getOrCreateInstance(getModuleName()+"personalization", () -> personalization.copy());
+	}
+
+	/**
+	 * Retrieves the outcome of smoothing the ego's personalization of all channels through the social graph.
+	 * Similarly to {@link PPRMiner}, smoothing is computed the first time each context is used.
+	 * @param context The context from which to obtain the smoothed personalization.
+	 * @return The flat smoothed personalization tensor.
+	 * @see Channel#getSmoothedPersonalization(Context)
+	 */
+	public synchronized Tensor getSmoothedPersonalization(Context context) {
+		Tensor score = context.getOrCreateInstance(getModuleName()+"score", () -> getPersonalization(context).copy());
+		if(smoothedContexts.add(context))
+			updateSmoothedPersonalization(context);
+		return score;
+	}
+
+	/**
+	 * Retrieves the sum of the flat scores received from the ego's neighbors in the given context.
+	 * @param context The context in which to sum neighbor scores.
+	 * @return A tensor holding the sum, which should not be edited.
+	 * @see PPRMiner#getNeighborScoreSum(Context)
+	 */
+	protected Tensor getNeighborScoreSum(Context context) {
+		return neighborScoreSums.get(context, getModuleName()+"score", getPersonalization(context));
+	}
+
+	private Channel getChannelAt(long pos) {
+		int low = 0;
+		int high = channels.size()-1;
+		while(low<high) {
+			int mid = (low+high+1)/2;
+			if(channels.get(mid).offset<=pos)
+				low = mid;
+			else
+				high = mid-1;
+		}
+		return channels.get(low);
+	}
+
+	/**
+	 * Recomputes the smoothed personalization of all channels by visiting only the elements the personalization and the
+	 * neighbor score sum iterate over, i.e. only their non-zero elements for sparse flat tensors.
+	 * @param context The context whose smoothed personalization to recompute.
+	 */
+	protected synchronized void updateSmoothedPersonalization(Context context) {
+		int numNodes = context.getNodes().size();
+		Tensor score = getSmoothedPersonalization(context);
+		Tensor personalization = getPersonalization(context);
+		SparseVectors.assign(score, personalization);
+		if(numNodes==0)
+			return;
+		ArrayList<Long> positions = new ArrayList<Long>();
+		for(long pos : score)
+			positions.add(pos);
+		for(long pos : positions) {
+			double value = score.get(pos);
+			if(value!=0)
+				score.put(pos, value*getChannelAt(pos).restartProbability);
+		}
+		Tensor neighborScoreSum = getNeighborScoreSum(context);
+		for(long pos : neighborScoreSum) {
+			double value = neighborScoreSum.get(pos);
+			if(value!=0)
+				score.put(pos, score.get(pos)+(1-getChannelAt(pos).restartProbability)/numNodes*value);
+		}
+	}
+
+	@Override
+	public synchronized void newInteractionParameters(Interaction interaction, SocialGraphMinerParameters neighborModelParameters, InteractionType interactionType) {
+		if(interaction.getEdge().getAlter()==null || neighborModelParameters==null)
+			return;
+		Object neighborScore = neighborModelParameters.get("scores");
+		if(neighborScore==null)
+			return;
+		Context context = interaction.getEdge().getContext();
+		Tensor edgeScore = interaction
+			.getEdge()
+			.getOrCreateInstance(getModuleName()+"score", ()->getPersonalization(context).zeroCopy());
+		neighborScoreSums.setEdgeScore(context, edgeScore, neighborScore);
+		updateSmoothedPersonalization(context);
+	}
+
+	@Override
+	public synchronized SocialGraphMinerParameters constructModelParameterObject(Interaction interaction) {
+		SocialGraphMinerParameters params = new SocialGraphMinerParameters();
+		Tensor score = getSmoothedPersonalization(interaction.getEdge().getContext());
+		params.put("scores", sparse?SparseVectors.encode(score):score);
+		return params;
+	}
+
+	/**
+	 * Predicts new interactions as the average over channels of the predictions {@link PPRMiner} would make.
+	 */
+	@Override
+	public synchronized double predictNewInteraction(Context context, Node destinationNode) {
+		Edge edge = context.getEdge(context.getContextualEgoNetwork().getEgo(), destinationNode);
+		if(edge==null || channels.isEmpty())
+			return 0;
+		Tensor smoothed = getSmoothedPersonalization(context);
+		Tensor edgeScore = edge.getOrCreateInstance(getModuleName()+"score", ()->smoothed.zeroCopy());
+		double prediction = 0;
+		for(Channel channel : channels)
+			prediction += channel.predict(smoothed, edgeScore);
+		return prediction/channels.size();
+	}
+}
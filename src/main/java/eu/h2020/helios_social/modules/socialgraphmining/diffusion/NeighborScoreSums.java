@@ -0,0 +1,77 @@
+package eu.h2020.helios_social.modules.socialgraphmining.diffusion;
+
+import java.util.WeakHashMap;
+
+import eu.h2020.helios_social.core.contextualegonetwork.Context;
+import eu.h2020.helios_social.core.contextualegonetwork.Edge;
+import mklab.JGNN.core.Tensor;
+
+/**
+ * This class maintains the sums of the scores that diffusion miners (i.e. {@link PPRMiner} and
+ * {@link MultiChannelPPRMiner}) store on the edges of each context. Sums are updated incrementally
+ * when edge scores are replaced through {@link #setEdgeScore(Context, Tensor, Object)} and are recomputed
+ * from all edges only when context edges change otherwise or after many incremental updates,
+ * to avoid the accumulation of floating point errors.
+ *
+ * @author Emmanouil Krasanakis
+ */
+class NeighborScoreSums {
+	private static final int maxIncrementalUpdates = 1000;
+
+	private static class NeighborScoreSum {
+		private Tensor sum = null;
+		private int numEdges = -1;
+		private int updates = 0;
+	}
+
+	private WeakHashMap<Context, NeighborScoreSum> neighborScoreSums = new WeakHashMap<Context, NeighborScoreSum>();
+
+	/**
+	 * Retrieves the sum of the scores stored on the edges of the given context.
+	 * @param context The context in which to sum edge scores.
+	 * @param scoreName The identifier with which scores are stored on edges.
+	 * @param prototype A tensor whose {@link Tensor#zeroCopy()} is of the same type and size as edge scores.
+	 * @return A tensor holding the sum, which should not be edited.
+	 */
+	Tensor get(Context context, String scoreName, Tensor prototype) {
+		NeighborScoreSum neighborScoreSum = neighborScoreSums.get(context);
+		if(neighborScoreSum==null)
+			neighborScoreSums.put(context, neighborScoreSum = new NeighborScoreSum());
+		if(neighborScoreSum.sum==null
+				|| neighborScoreSum.numEdges!=context.getEdges().size()
+				|| neighborScoreSum.updates>maxIncrementalUpdates) {
+			Tensor sum = prototype.zeroCopy();
+			for(Edge edge : context.getEdges())
+				if(edge.getEgo()!=null)
+					SparseVectors.add(sum, edge.getOrCreateInstance(scoreName, ()->sum.zeroCopy()), 1);
+			neighborScoreSum.sum = sum;
+			neighborScoreSum.numEdges = context.getEdges().size();
+			neighborScoreSum.updates = 0;
+		}
+		return neighborScoreSum.sum;
+	}
+
+	/**
+	 * Replaces the score stored on an edge of the given context with a received one, while keeping the context's
+	 * sum up to date.
+	 * @param context The context of the edge.
+	 * @param edgeScore The score stored on the edge, which is edited.
+	 * @param neighborScore The received score, either as a tensor or as an encoding by {@link SparseVectors#encode(Tensor)}.
+	 */
+	void setEdgeScore(Context context, Tensor edgeScore, Object neighborScore) {
+		NeighborScoreSum neighborScoreSum = neighborScoreSums.get(context);
+		boolean incremental = neighborScoreSum!=null && neighborScoreSum.sum!=null && neighborScoreSum.numEdges==context.getEdges().size();
+		if(incremental)
+			SparseVectors.add(neighborScoreSum.sum, edgeScore, -1);
+		else if(neighborScoreSum!=null)
+			neighborScoreSum.sum = null;
+		if(neighborScore instanceof String)
+			SparseVectors.decode((String)neighborScore, edgeScore);
+		else
+			SparseVectors.assign(edgeScore, (Tensor)neighborScore);
+		if(incremental) {
+			SparseVectors.add(neighborScoreSum.sum, edgeScore, 1);
+			neighborScoreSum.updates += 1;
+		}
+	}
+}
@@ -1,5 +1,11 @@
 package eu.h2020.helios_social.modules.socialgraphmining.diffusion;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
 import eu.h2020.helios_social.core.contextualegonetwork.Context;
 import eu.h2020.helios_social.core.contextualegonetwork.ContextualEgoNetwork;
 import eu.h2020.helios_social.core.contextualegonetwork.Edge;
@@ -9,6 +15,7 @@ import eu.h2020.helios_social.core.contextualegonetwork.Utils;
 import eu.h2020.helios_social.modules.socialgraphmining.SocialGraphMiner;
 
 import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.tensor.SparseTensor;
 
 /**
  * This class implements a Personalized PageRank scheme, where each ego node's personalization
@@ -16,6 +23,10 @@ import mklab.JGNN.core.Tensor;
  * the decentralized social graph. Smoothing outcome for contexts is obtained through the method
  * {@link #getSmoothedPersonalization(Context)}. The miner predicts new interactions based on the cosine
  * similarity of smoothed attributes.
+ * <br>
+ * Personalization can also be a JGNN sparse tensor, in which case scores stored on edges and contexts are
+ * also sparse, smoothing only visits non-zero elements and scores are exchanged between devices in the compact
+ * representation of {@link SparseVectors#encode(Tensor)}.
  * 
  * @author Emmanouil Krasanakis
  */
@@ -24,6 +35,24 @@ public class PPRMiner extends SocialGraphMiner {
 	private double restartProbability = 0.1;
 	private boolean personalizationAsGroundTruth = false;
 	private Tensor defaultPersonalization;
+	private long defaultPersonalizationVersion = 0;
+	private NeighborScoreSums neighborScoreSums = new NeighborScoreSums();
+	private double pushThreshold = 0;
+	private WeakHashMap<Edge, Tensor> lastPushedScores = new WeakHashMap<Edge, Tensor>();
+	private WeakHashMap<Edge, Tensor> pendingPushedScores = new WeakHashMap<Edge, Tensor>();
+	private Set<Edge> pendingReplyAcks = Collections.newSetFromMap(new WeakHashMap<Edge, Boolean>());
+	private WeakHashMap<Edge, Tensor> normalizedEdgeScores = new WeakHashMap<Edge, Tensor>();
+	
+	/**
+	 * Holds which version of the default personalization has been copied to a context and whether the context's
+	 * personalization has been explicitly set by {@link PPRMiner#updatePersonalization(Context, Tensor)}.
+	 * Instances are stored in contexts alongside their personalization.
+	 */
+	public static class PersonalizationState {
+		private long version = 0;
+		private boolean overridden = false;
+		public PersonalizationState() {}
+	}
 	
 	public String getName() {
 		return name;
@@ -60,6 +89,15 @@ public class PPRMiner extends SocialGraphMiner {
 		return this;
 	}
 	
+	/**
+	 * Retrieves whether personalization is considered as ground truth.
+	 * @return Whether personalization is considered as ground truth.
+	 * @see #setPersonalizationAsGroundTruth(boolean)
+	 */
+	public synchronized boolean isPersonalizationAsGroundTruth() {
+		return personalizationAsGroundTruth;
+	}
+	
 	/**
 	 * Sets the restart probability of the personalized PageRank scheme. Smaller values induce
 	 * broader diffusion of predictions, i.e. many hops away in the social graph. The equivalent
@@ -79,6 +117,28 @@ public class PPRMiner extends SocialGraphMiner {
 		return this;
 	}
 
+	/**
+	 * Sets a threshold that enables a push-style diffusion, similar to the local push algorithm of Andersen, Chung
+	 * and Lang for approximating personalized PageRank. For each edge, the miner tracks the residual between its
+	 * smoothed personalization and the score it last sent to the edge's alter, and attaches its score to parameters
+	 * only when the L1 norm of the residual exceeds the threshold. Similarly, received scores that differ from
+	 * stored ones by at most the threshold are ignored without recomputing smoothing.
+	 * <br>
+	 * Sent scores count as known by the alter only once acknowledged, i.e. by the reply to a sent interaction or,
+	 * for scores sent with replies, by the alter's next interaction on the same edge. Until then, scores are sent
+	 * regardless of the threshold. Thus, whenever a score is not sent, the score the alter stores for the ego
+	 * differs by at most twice the threshold (once for each of the two filters) from the ego's smoothed
+	 * personalization.
+	 * @param pushThreshold A non-negative threshold (default is 0, which sends and processes all scores).
+	 * @return <code>this</code> miner's instance.
+	 */
+	public synchronized PPRMiner setPushThreshold(double pushThreshold) {
+		if(!Double.isFinite(pushThreshold) || pushThreshold<0)
+			Utils.error(new IllegalArgumentException("Push threshold "+pushThreshold+" should be non-negative"));
+		this.pushThreshold = pushThreshold;
+		return this;
+	}
+	
 	/**
 	 * Copies the elements of a given vector to the ego's personalization vector in the provided context.
 	 * @param context The context in which to set the new personalization vector.
@@ -87,28 +147,65 @@ public class PPRMiner extends SocialGraphMiner {
 	 * @see #updatePersonalization(Tensor)
 	 */
 	public synchronized PPRMiner updatePersonalization(Context context, Tensor personalization) {
-		context
-			.getOrCreateInstance(getModuleName()+"personalization", ()->personalization.zeroCopy())
-			.setToZero()
-			.selfAdd(personalization);
+		PersonalizationState state = getPersonalizationState(context);
+		state.overridden = true;
+		SparseVectors.assign(context.getOrCreateInstance(getModuleName()+"personalization", ()->personalization.zeroCopy()), personalization);
 		updateSmoothedPersonalization(context);
 		return this;
 	}
 	
 	/**
-	 * Wraps the method {@link #updatePersonalization(Context, Tensor)} to update <b>all</b>
-	 * contexts with the given personalization. The given personalization is also automatically
-	 * initialized for <b>future</b> context generations.
+	 * Sets the default personalization of <b>all</b> contexts, including future context generations,
+	 * apart from those whose personalization has been explicitly set with {@link #updatePersonalization(Context, Tensor)}.
+	 * This only records a new version of the default personalization; each context copies it and recomputes its
+	 * smoothed personalization the next time it is used.
 	 * @param personalization The tensor to set as new personalization vector in all contexts.
 	 * @return <code>this</code> miner's instance.
+	 * @see #resetPersonalization(Context)
 	 */
-	public PPRMiner updatePersonalization(Tensor personalization) {
+	public synchronized PPRMiner updatePersonalization(Tensor personalization) {
+		if(personalization==null)
+			Utils.error(new IllegalArgumentException("Personalization should not be null"));
 		defaultPersonalization = personalization;
-		for(Context context : getContextualEgoNetwork().getContexts())
-			updatePersonalization(context, personalization);
+		long version;
+		do {
+			version = ThreadLocalRandom.current().nextLong();
+		} while(version==0 || version==defaultPersonalizationVersion);
+		defaultPersonalizationVersion = version;
+		return this;
+	}
+	
+	/**
+	 * Discards the personalization explicitly set for a context with {@link #updatePersonalization(Context, Tensor)},
+	 * so that the context uses the default personalization again.
+	 * @param context The context whose personalization to reset.
+	 * @return <code>this</code> miner's instance.
+	 */
+	public synchronized PPRMiner resetPersonalization(Context context) {
+		PersonalizationState state = getPersonalizationState(context);
+		state.overridden = false;
+		state.version = 0;
 		return this;
 	}
 	
+	private PersonalizationState getPersonalizationState(Context context) {
+		return context.getOrCreateInstance(getModuleName()+"personalizationState", ()->new PersonalizationState());
+	}
+	
+	/**
+	 * Copies the latest version of the default personalization to the given context and recomputes its smoothing,
+	 * if the context uses the default personalization and has not already done so.
+	 * @param context The context to bring up to date.
+	 */
+	protected synchronized void materializePersonalization(Context context) {
+		PersonalizationState state = getPersonalizationState(context);
+		if(state.overridden || state.version==defaultPersonalizationVersion)
+			return;
+		state.version = defaultPersonalizationVersion;
+		SparseVectors.assign(context.getOrCreateInstance(getModuleName()+"personalization", ()->defaultPersonalization.zeroCopy()), defaultPersonalization);
+		updateSmoothedPersonalization(context);
+	}
+	
 	/**
 	 * Retrieves the module's name used as prefix to identifiers for the {@link Node#getOrCreateInstance(String, Class)} 
 	 * methods when retrieving data attached to nodes.
@@ -120,16 +217,17 @@ public class PPRMiner extends SocialGraphMiner {
 	
 	/**
 	 * Retrieves the ego node's personalization set for the <b>specific</b> context.
-	 * Changing the returned tensor also changes the personalization for the specific context,
-	 * equivalently to {@link #updatePersonalization(Context, Tensor)}.
-	 * However it does not affect the default personalization.
-	 * Future calls to {@link #updatePersonalization(Tensor)} <b>overwrite</b> setting custom context personalizations.
-	 * This means that the PPRMiner's constructor also sets all context personalization to the same values.
+	 * Changing the returned tensor in-place also changes the personalization for the specific context
+	 * but not the default personalization. Contrary to {@link #updatePersonalization(Context, Tensor)}, such changes
+	 * neither recompute the context's smoothed personalization nor mark its personalization as explicitly set.
+	 * Hence, unless the context's personalization has been set with {@link #updatePersonalization(Context, Tensor)},
+	 * future calls to {@link #updatePersonalization(Tensor)} <b>overwrite</b> such changes.
 	 * @param context The context from which to obtain the personalization.
 	 * @return The personalization vector.
 	 * @see #getSmoothedPersonalization(Context)
 	 */
-	public Tensor getPersonalization(Context context) {
+	public synchronized Tensor getPersonalization(Context context) {
+		materializePersonalization(context);
 		return context.getOrCreateInstance(getModuleName()+"personalization", () -> defaultPersonalization.copy());
 	}
 	
@@ -142,6 +240,7 @@ public class PPRMiner extends SocialGraphMiner {
 	 * @see #getNormalizedSmoothedPersonalization(Context)
 	 */
 	public synchronized Tensor getSmoothedPersonalization(Context context) {
+		materializePersonalization(context);
 		return context.getOrCreateInstance(getModuleName()+"score", () -> getPersonalization(context).copy());
 	}
 
@@ -162,50 +261,155 @@ public class PPRMiner extends SocialGraphMiner {
 	
 	@Override
 	public synchronized void newInteractionParameters(Interaction interaction, SocialGraphMinerParameters neighborModelParameters, InteractionType interactionType) {
-		if(interaction.getEdge().getAlter()==null)
+		if(interaction.getEdge().getAlter()==null || neighborModelParameters==null)
 			return;
-		Tensor neighborScore = (Tensor) neighborModelParameters.get("score");
-		interaction
+		if(pushThreshold!=0)
+			acknowledgePushedScores(interaction.getEdge(), neighborModelParameters, interactionType);
+		Object neighborScore = neighborModelParameters.get("score");
+		if(neighborScore==null)
+			return;
+		Context context = interaction.getEdge().getContext();
+		Tensor edgeScore = interaction
 			.getEdge()
-			.getOrCreateInstance(getModuleName()+"score", ()->neighborScore.zeroCopy())
-			.setToZero()
-			.selfAdd(neighborScore);
-		updateSmoothedPersonalization(interaction.getEdge().getContext());
+			.getOrCreateInstance(getModuleName()+"score", ()->getPersonalization(context).zeroCopy());
+		if(pushThreshold!=0) {
+			Tensor receivedScore = neighborScore instanceof String
+					?SparseVectors.decode((String)neighborScore, edgeScore.zeroCopy())
+					:(Tensor)neighborScore;
+			if(SparseVectors.distance(edgeScore, receivedScore)<=pushThreshold)
+				return;
+			neighborScore = receivedScore;
+		}
+		updateEdgeScore(interaction.getEdge(), edgeScore, neighborScore);
+	}
+	
+	/**
+	 * Replaces the score stored on an edge with one received from the edge's alter and recomputes the smoothed
+	 * personalization of the edge's context. Subclasses can override this to update smoothing incrementally,
+	 * in which case they should replace the score with {@link #setEdgeScore(Edge, Tensor, Object)}.
+	 * @param edge The edge whose score to replace.
+	 * @param edgeScore The score stored on the edge.
+	 * @param neighborScore The received score, either as a tensor or as an encoding by {@link SparseVectors#encode(Tensor)}.
+	 */
+	protected void updateEdgeScore(Edge edge, Tensor edgeScore, Object neighborScore) {
+		setEdgeScore(edge, edgeScore, neighborScore);
+		updateSmoothedPersonalization(edge.getContext());
+	}
+	
+	/**
+	 * Replaces the score stored on an edge with a received one, while keeping the sum of neighbor scores and the
+	 * normalized edge score up to date. This does not update the smoothed personalization.
+	 * @param edge The edge whose score to replace.
+	 * @param edgeScore The score stored on the edge.
+	 * @param neighborScore The received score, either as a tensor or as an encoding by {@link SparseVectors#encode(Tensor)}.
+	 */
+	protected void setEdgeScore(Edge edge, Tensor edgeScore, Object neighborScore) {
+		neighborScoreSums.setEdgeScore(edge.getContext(), edgeScore, neighborScore);
+		normalizedEdgeScores.put(edge, edgeScore.normalized().setToProbability());
+	}
+	
+	/**
+	 * Marks the score last sent on the given edge as known by the alter if the given parameters acknowledge it and
+	 * keeps track of replies whose scores should be acknowledged by the ego's next interaction on the edge.
+	 */
+	private void acknowledgePushedScores(Edge edge, SocialGraphMinerParameters neighborModelParameters, InteractionType interactionType) {
+		if(interactionType==InteractionType.RECEIVE_REPLY || neighborModelParameters.get("ack")!=null) {
+			Tensor pendingPushedScore = pendingPushedScores.remove(edge);
+			if(pendingPushedScore!=null)
+				lastPushedScores.put(edge, pendingPushedScore);
+		}
+		if(interactionType==InteractionType.RECEIVE_REPLY && neighborModelParameters.get("score")!=null)
+			pendingReplyAcks.add(edge);
+	}
+	
+	/**
+	 * Retrieves the sum of the scores received from the ego's neighbors in the given context. The sum is maintained
+	 * incrementally by {@link #newInteractionParameters(Interaction, SocialGraphMinerParameters, InteractionType)}
+	 * and is recomputed from all edges only when context edges change otherwise or after many incremental updates,
+	 * to avoid the accumulation of floating point errors.
+	 * @param context The context in which to sum neighbor scores.
+	 * @return A tensor holding the sum, which should not be edited.
+	 */
+	protected Tensor getNeighborScoreSum(Context context) {
+		return neighborScoreSums.get(context, getModuleName()+"score", getPersonalization(context));
 	}
 	
 	protected void updateSmoothedPersonalization(Context context) {
 		int numNodes = context.getNodes().size();
 		if(numNodes!=0 && (!personalizationAsGroundTruth || getPersonalization(context).norm()==0)) {
-			Tensor score = getSmoothedPersonalization(context)
-					.setToZero()
-					.selfAdd(getPersonalization(context))
-					.selfMultiply(numNodes*restartProbability/(1-restartProbability));
-			for(Edge edge : context.getEdges()) 
-				if(edge.getEgo()!=null)
-					score.selfAdd(edge.getOrCreateInstance(getModuleName()+"score", ()->score.zeroCopy()));
-			score.selfMultiply((1-restartProbability)/numNodes);
+			Tensor score = getSmoothedPersonalization(context);
+			SparseVectors.assign(score, getPersonalization(context));
+			SparseVectors.multiply(score, restartProbability);
+			SparseVectors.add(score, getNeighborScoreSum(context), (1-restartProbability)/numNodes);
 		}
 		else
-			getSmoothedPersonalization(context)
-				.setToZero()
-				.selfAdd(getPersonalization(context));
+			SparseVectors.assign(getSmoothedPersonalization(context), getPersonalization(context));
 	}
 
 	@Override
-	public SocialGraphMinerParameters constructModelParameterObject(Interaction interaction) {
+	public synchronized SocialGraphMinerParameters constructModelParameterObject(Interaction interaction) {
 		SocialGraphMinerParameters params = new SocialGraphMinerParameters();
-		params.put("score", getSmoothedPersonalization(interaction.getEdge().getContext()));
+		Tensor score = getSmoothedPersonalization(interaction.getEdge().getContext());
+		if(pushThreshold!=0) {
+			Edge edge = interaction.getEdge();
+			if(pendingReplyAcks.remove(edge))
+				params.put("ack", (Boolean)true);
+			Tensor lastPushedScore = lastPushedScores.get(edge);
+			if(lastPushedScore!=null 
+					&& !pendingPushedScores.containsKey(edge) 
+					&& SparseVectors.distance(lastPushedScore, score)<=pushThreshold)
+				return params;
+			pendingPushedScores.put(edge, score.copy());
+		}
+		params.put("score", score instanceof SparseTensor?SparseVectors.encode(score):score);
 		return params;
 	}
 
+	/**
+	 * Retrieves the score stored on the given edge, normalized so that its elements sum to 1. Normalized scores
+	 * are cached and refreshed only when new scores are received by
+	 * {@link #newInteractionParameters(Interaction, SocialGraphMinerParameters, InteractionType)}.
+	 * @param edge The edge whose normalized score to retrieve.
+	 * @return A tensor holding the normalized score, which should not be edited.
+	 */
+	protected synchronized Tensor getNormalizedEdgeScore(Edge edge) {
+		Tensor normalizedEdgeScore = normalizedEdgeScores.get(edge);
+		if(normalizedEdgeScore==null) {
+			normalizedEdgeScore = edge.getOrCreateInstance(getModuleName()+"score", ()->defaultPersonalization.zeroCopy()).normalized().setToProbability();
+			normalizedEdgeScores.put(edge, normalizedEdgeScore);
+		}
+		return normalizedEdgeScore;
+	}
+
 	@Override
-	public double predictNewInteraction(Context context, Node destinationNode) {
+	public synchronized double predictNewInteraction(Context context, Node destinationNode) {
 		Edge edge = context.getEdge(context.getContextualEgoNetwork().getEgo(), destinationNode);
 		if(edge==null)
 			return 0;
-		return getSmoothedPersonalization(context)
-				.dot(edge.getOrCreateInstance(getModuleName()+"score", ()->defaultPersonalization.zeroCopy()).normalized().setToProbability());
+		return SparseVectors.dot(getSmoothedPersonalization(context), getNormalizedEdgeScore(edge));
 		//throw new RuntimeException("PPRMiner is not meant to predict interactions");
 	}
+	
+	/**
+	 * Scores all alters the ego has sent interactions to in the given context in one pass over the context's edges,
+	 * by computing the dot products of their cached normalized edge scores with the ego's smoothed personalization.
+	 * This obtains the same scores as calling {@link #predictNewInteraction(Context, Node)} for all context nodes
+	 * without looking up edges for each node.
+	 */
+	@Override
+	public synchronized HashMap<Node, Double> recommendInteractions(Context context) {
+		if(context==null) 
+			return Utils.error("Can not predict interactions for null context", new HashMap<Node, Double>());
+		HashMap<Node, Double> scores = new HashMap<Node, Double>();
+		Node ego = context.getContextualEgoNetwork().getEgo();
+		Tensor smoothedPersonalization = getSmoothedPersonalization(context);
+		for(Edge edge : context.getEdges())
+			if(edge.getSrc()==ego && edge.getDst()!=ego) {
+				double value = SparseVectors.dot(smoothedPersonalization, getNormalizedEdgeScore(edge));
+				if(Double.isFinite(value) && value!=0)
+					scores.put(edge.getDst(), value);
+			}
+		return scores;
+	}
 
 }
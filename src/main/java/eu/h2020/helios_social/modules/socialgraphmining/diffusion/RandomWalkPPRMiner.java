@@ -0,0 +1,265 @@
+package eu.h2020.helios_social.modules.socialgraphmining.diffusion;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.WeakHashMap;
+
+import eu.h2020.helios_social.core.contextualegonetwork.Context;
+import eu.h2020.helios_social.core.contextualegonetwork.ContextualEgoNetwork;
+import eu.h2020.helios_social.core.contextualegonetwork.Edge;
+import eu.h2020.helios_social.core.contextualegonetwork.Node;
+import eu.h2020.helios_social.core.contextualegonetwork.Utils;
+import mklab.JGNN.core.Tensor;
+
+/**
+ * This class extends {@link PPRMiner} to estimate the smoothed personalization with a bounded number of
+ * random walks with restart instead of summing the scores received on all edges. Each walk restarts with
+ * the miner's restart probability, in which case it emits one position sampled from the ego's personalization,
+ * and otherwise moves to a uniformly random node of the context, in which case it emits one position sampled
+ * from the scores received from that node. Positions are sampled proportionally to the absolute values of vector
+ * elements and weighted by the sampled vector's L1 norm, so that the histogram of emitted positions has the same
+ * expected value as the smoothing of {@link PPRMiner}. Hence, the estimate has at most as many non-zero elements
+ * as there are walks and its cost depends only on the number of walks, which trades off accuracy for speed.
+ * <br>
+ * Walks are kept across interactions. When a score is received from an alter, only the walks at that alter emit
+ * new positions and a fraction of all walks (see {@link #setResampledFraction(double)}) is sampled anew, so that
+ * each update costs time proportional to the number of walks and the estimate's sampling error averages out over
+ * interactions. All walks are sampled anew when the context's nodes, the personalization, the restart probability
+ * or the number of walks change. Edits to the tensors returned by {@link #getPersonalization(Context)} or
+ * {@link #getSmoothedPersonalization(Context)} take effect only when all walks are next sampled anew.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class RandomWalkPPRMiner extends PPRMiner {
+	private int numWalks = 1000;
+	private double resampledFraction = 0.1;
+	private Random random = new Random();
+	private static final int maxIncrementalUpdates = 1000;
+	private WeakHashMap<Context, Walks> contextWalks = new WeakHashMap<Context, Walks>();
+	private WeakHashMap<Edge, PositionSampler> edgeSamplers = new WeakHashMap<Edge, PositionSampler>();
+
+	/**
+	 * Samples positions of a vector's non-zero elements proportionally to their absolute values in
+	 * logarithmic time, after a preprocessing that takes time proportional to the number of non-zero elements.
+	 */
+	private static class PositionSampler {
+		private static final PositionSampler empty = new PositionSampler(null);
+		private final Tensor vector;
+		private final long[] positions;
+		private final double[] cumulative;
+		private final double mass;
+
+		private PositionSampler(Tensor vector) {
+			this.vector = vector;
+			ArrayList<Long> nonZeros = new ArrayList<Long>();
+			if(vector!=null)
+				for(long pos : vector)
+					if(vector.get(pos)!=0)
+						nonZeros.add(pos);
+			positions = new long[nonZeros.size()];
+			cumulative = new double[nonZeros.size()];
+			double mass = 0;
+			for(int i=0;i<positions.length;i++) {
+				positions[i] = nonZeros.get(i);
+				mass += Math.abs(vector.get(positions[i]));
+				cumulative[i] = mass;
+			}
+			this.mass = mass;
+		}
+
+		private long sample(Random random) {
+			if(positions.length==0)
+				return -1;
+			double target = random.nextDouble()*mass;
+			int low = 0;
+			int high = positions.length-1;
+			while(low<high) {
+				int mid = (low+high)/2;
+				if(cumulative[mid]>target)
+					high = mid;
+				else
+					low = mid+1;
+			}
+			return positions[low];
+		}
+	}
+
+	private static class Walks {
+		private Node[] nodes;
+		private long[] positions;
+		private double[] weights;
+		private int numNodes;
+		private Node lastNode;
+		private double restartProbability;
+		private PositionSampler personalizationSampler;
+		private int updates;
+	}
+
+	public RandomWalkPPRMiner(String name, ContextualEgoNetwork contextualEgoNetwork, Tensor personalization) {
+		super(name, contextualEgoNetwork, personalization);
+	}
+
+	/**
+	 * Sets the number of random walks per context. More walks estimate personalized PageRank more accurately
+	 * but take more time to process received scores.
+	 * @param numWalks A positive number of walks (default is 1000).
+	 * @return <code>this</code> miner's instance.
+	 */
+	public synchronized RandomWalkPPRMiner setNumWalks(int numWalks) {
+		if(numWalks<=0)
+			Utils.error(new IllegalArgumentException("Number of walks "+numWalks+" should be positive"));
+		this.numWalks = numWalks;
+		return this;
+	}
+
+	/**
+	 * Retrieves the number of random walks per context.
+	 * @return The number of walks.
+	 * @see #setNumWalks(int)
+	 */
+	public synchronized int getNumWalks() {
+		return numWalks;
+	}
+
+	/**
+	 * Sets the fraction of walks that are sampled anew whenever a score is received. Larger fractions
+	 * average out the estimate's sampling error over fewer interactions, whereas a zero fraction keeps walks
+	 * at the same nodes until the context's nodes change.
+	 * @param resampledFraction A fraction in the range [0,1] (default is 0.1).
+	 * @return <code>this</code> miner's instance.
+	 */
+	public synchronized RandomWalkPPRMiner setResampledFraction(double resampledFraction) {
+		if(!Double.isFinite(resampledFraction) || resampledFraction<0 || resampledFraction>1)
+			Utils.error(new IllegalArgumentException("Resampled fraction "+resampledFraction+" should be in the range [0,1]"));
+		this.resampledFraction = resampledFraction;
+		return this;
+	}
+
+	/**
+	 * Sets the seed of the random number generator used to sample walks, so that experiments can be repeated.
+	 * @param seed The seed.
+	 * @return <code>this</code> miner's instance.
+	 */
+	public synchronized RandomWalkPPRMiner setSeed(long seed) {
+		random = new Random(seed);
+		return this;
+	}
+
+	private PositionSampler getEdgeSampler(Edge edge) {
+		if(edge==null)
+			return PositionSampler.empty;
+		PositionSampler sampler = edgeSamplers.get(edge);
+		if(sampler==null) {
+			Tensor personalization = getPersonalization(edge.getContext());
+			sampler = new PositionSampler(edge.getOrCreateInstance(getModuleName()+"score", ()->personalization.zeroCopy()));
+			edgeSamplers.put(edge, sampler);
+		}
+		return sampler;
+	}
+
+	private static void addWalk(Walks walks, int walk, Tensor score, double sign) {
+		long position = walks.positions[walk];
+		if(position!=-1)
+			score.put(position, score.get(position)+sign*walks.weights[walk]/walks.nodes.length);
+	}
+
+	/**
+	 * Replaces the position emitted by a walk and updates the estimate accordingly.
+	 * @param move Whether the walk should also move to a newly sampled node.
+	 */
+	private void sampleWalk(Context context, Walks walks, int walk, ArrayList<Node> nodes, Tensor score, boolean move) {
+		addWalk(walks, walk, score, -1);
+		if(move)
+			walks.nodes[walk] = random.nextDouble()<walks.restartProbability?null:nodes.get(random.nextInt(nodes.size()));
+		Node node = walks.nodes[walk];
+		Node ego = context.getContextualEgoNetwork().getEgo();
+		PositionSampler sampler;
+		double mass;
+		if(node==null) {
+			sampler = walks.personalizationSampler;
+			mass = sampler.mass;
+		}
+		else if(node==ego) {
+			sampler = PositionSampler.empty;
+			mass = 0;
+		}
+		else {
+			PositionSampler outgoing = getEdgeSampler(context.getEdge(ego, node));
+			PositionSampler incoming = getEdgeSampler(context.getEdge(node, ego));
+			mass = outgoing.mass+incoming.mass;
+			sampler = random.nextDouble()*mass<outgoing.mass?outgoing:incoming;
+		}
+		long position = sampler.sample(random);
+		walks.positions[walk] = position;
+		walks.weights[walk] = position==-1?0:Math.signum(sampler.vector.get(position))*mass;
+		addWalk(walks, walk, score, 1);
+	}
+
+	private boolean isCurrent(Walks walks, Context context) {
+		ArrayList<Node> nodes = context.getNodes();
+		return walks.nodes.length==numWalks
+				&& walks.restartProbability==getRestartProbability()
+				&& walks.numNodes!=0
+				&& walks.numNodes==nodes.size()
+				&& nodes.get(walks.numNodes-1)==walks.lastNode;
+	}
+
+	/**
+	 * Makes walks at the edge's alter emit positions sampled from the received score and samples a fraction
+	 * of all walks anew, instead of sampling all walks anew. All walks are sampled anew only if the context's nodes
+	 * have changed since they were last sampled. After many incremental updates, the estimate is recomputed from
+	 * the positions emitted by walks to avoid the accumulation of floating point errors.
+	 */
+	@Override
+	protected synchronized void updateEdgeScore(Edge edge, Tensor edgeScore, Object neighborScore) {
+		setEdgeScore(edge, edgeScore, neighborScore);
+		edgeSamplers.remove(edge);
+		Context context = edge.getContext();
+		Tensor score = getSmoothedPersonalization(context);
+		Walks walks = contextWalks.get(context);
+		if(walks==null || !isCurrent(walks, context)) {
+			updateSmoothedPersonalization(context);
+			return;
+		}
+		ArrayList<Node> nodes = context.getNodes();
+		Node alter = edge.getAlter();
+		for(int walk=0;walk<walks.nodes.length;walk++) {
+			boolean move = random.nextDouble()<resampledFraction;
+			if(move || walks.nodes[walk]==alter)
+				sampleWalk(context, walks, walk, nodes, score, move);
+		}
+		walks.updates += 1;
+		if(walks.updates>=maxIncrementalUpdates) {
+			SparseVectors.setToZero(score);
+			for(int walk=0;walk<walks.nodes.length;walk++)
+				addWalk(walks, walk, score, 1);
+			walks.updates = 0;
+		}
+	}
+
+	@Override
+	protected synchronized void updateSmoothedPersonalization(Context context) {
+		Tensor personalization = getPersonalization(context);
+		Tensor score = getSmoothedPersonalization(context);
+		ArrayList<Node> nodes = context.getNodes();
+		if(nodes.isEmpty() || (isPersonalizationAsGroundTruth() && personalization.norm()!=0)) {
+			contextWalks.remove(context);
+			SparseVectors.assign(score, personalization);
+			return;
+		}
+		Walks walks = new Walks();
+		walks.nodes = new Node[numWalks];
+		walks.positions = new long[numWalks];
+		walks.weights = new double[numWalks];
+		walks.numNodes = nodes.size();
+		walks.lastNode = nodes.get(nodes.size()-1);
+		walks.restartProbability = getRestartProbability();
+		walks.personalizationSampler = new PositionSampler(personalization);
+		SparseVectors.setToZero(score);
+		for(int walk=0;walk<numWalks;walk++) {
+			walks.positions[walk] = -1;
+			sampleWalk(context, walks, walk, nodes, score, true);
+		}
+		contextWalks.put(context, walks);
+	}
+}
@@ -0,0 +1,199 @@
+package eu.h2020.helios_social.modules.socialgraphmining.diffusion;
+
+import java.util.ArrayList;
+
+import eu.h2020.helios_social.core.contextualegonetwork.Utils;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.tensor.SparseTensor;
+
+/**
+ * This class provides vector operations used by diffusion miners that only visit the elements
+ * a tensor iterates over. For JGNN sparse tensors these are their non-zero elements, so that operations
+ * take time proportional to the number of non-zero elements instead of the tensor size. Dense tensors
+ * iterate over all their elements and are hence also supported.
+ * <br>
+ * It also provides a compact string representation of tensors that holds only their non-zero elements,
+ * in the form <code>size|position:value,position:value,...</code>, which is used to exchange sparse
+ * vectors between devices.
+ *
+ * @author Emmanouil Krasanakis
+ */
+public class SparseVectors {
+	private SparseVectors() {}
+
+	/**
+	 * Creates a sparse copy of the given tensor.
+	 * @param tensor The tensor to copy.
+	 * @return A JGNN SparseTensor with the same elements.
+	 */
+	public static Tensor toSparse(Tensor tensor) {
+		Tensor ret = new SparseTensor(tensor.size());
+		for(long pos : tensor) {
+			double value = tensor.get(pos);
+			if(value!=0)
+				ret.put(pos, value);
+		}
+		return ret;
+	}
+
+	/**
+	 * Sets all elements of a tensor to zero.
+	 * @param target The tensor to edit.
+	 * @return The target tensor.
+	 */
+	public static Tensor setToZero(Tensor target) {
+		ArrayList<Long> positions = new ArrayList<Long>();
+		for(long pos : target)
+			positions.add(pos);
+		for(long pos : positions)
+			target.put(pos, 0);
+		return target;
+	}
+
+	/**
+	 * Copies the elements of a source tensor to a target tensor of the same size.
+	 * @param target The tensor to edit.
+	 * @param source The tensor whose elements to copy.
+	 * @return The target tensor.
+	 */
+	public static Tensor assign(Tensor target, Tensor source) {
+		if(target.size()!=source.size())
+			Utils.error(new IllegalArgumentException("Can not assign a tensor of size "+source.size()+" to one of size "+target.size()));
+		if(target==source)
+			return target;
+		setToZero(target);
+		for(long pos : source) {
+			double value = source.get(pos);
+			if(value!=0)
+				target.put(pos, value);
+		}
+		return target;
+	}
+
+	/**
+	 * Adds a multiple of a source tensor to a target tensor of the same size.
+	 * @param target The tensor to edit.
+	 * @param source The tensor to add.
+	 * @param weight The weight by which to multiply the source tensor's elements.
+	 * @return The target tensor.
+	 */
+	public static Tensor add(Tensor target, Tensor source, double weight) {
+		if(target.size()!=source.size())
+			Utils.error(new IllegalArgumentException("Can not add a tensor of size "+source.size()+" to one of size "+target.size()));
+		if(weight==0)
+			return target;
+		for(long pos : source) {
+			double value = source.get(pos);
+			if(value!=0)
+				target.put(pos, target.get(pos)+weight*value);
+		}
+		return target;
+	}
+
+	/**
+	 * Computes the dot product of two tensors of the same size by visiting only the elements of the second one.
+	 * @param first The first tensor.
+	 * @param second The second tensor, which should be the sparser of the two.
+	 * @return The dot product.
+	 */
+	public static double dot(Tensor first, Tensor second) {
+		if(first.size()!=second.size())
+			Utils.error(new IllegalArgumentException("Can not multiply a tensor of size "+first.size()+" with one of size "+second.size()));
+		double dot = 0;
+		for(long pos : second) {
+			double value = second.get(pos);
+			if(value!=0)
+				dot += first.get(pos)*value;
+		}
+		return dot;
+	}
+
+	/**
+	 * Computes the L1 norm of the difference between two tensors of the same size.
+	 * @param first The first tensor.
+	 * @param second The second tensor.
+	 * @return The sum of absolute differences between the tensors' elements.
+	 */
+	public static double distance(Tensor first, Tensor second) {
+		if(first.size()!=second.size())
+			Utils.error(new IllegalArgumentException("Can not compare a tensor of size "+first.size()+" to one of size "+second.size()));
+		double distance = 0;
+		for(long pos : first) {
+			double value = first.get(pos);
+			if(value!=0)
+				distance += Math.abs(value-second.get(pos));
+		}
+		for(long pos : second)
+			if(first.get(pos)==0)
+				distance += Math.abs(second.get(pos));
+		return distance;
+	}
+
+	/**
+	 * Multiplies all elements of a tensor with a scalar.
+	 * @param target The tensor to edit.
+	 * @param factor The scalar to multiply with.
+	 * @return The target tensor.
+	 */
+	public static Tensor multiply(Tensor target, double factor) {
+		if(factor==0)
+			return setToZero(target);
+		ArrayList<Long> positions = new ArrayList<Long>();
+		for(long pos : target)
+			positions.add(pos);
+		for(long pos : positions)
+			target.put(pos, target.get(pos)*factor);
+		return target;
+	}
+
+	/**
+	 * Converts a tensor to a compact string representation that holds only its non-zero elements.
+	 * @param tensor The tensor to convert.
+	 * @return The string representation.
+	 * @see #decode(String, Tensor)
+	 */
+	public static String encode(Tensor tensor) {
+		StringBuilder builder = new StringBuilder();
+		builder.append(tensor.size()).append('|');
+		boolean first = true;
+		for(long pos : tensor) {
+			double value = tensor.get(pos);
+			if(value==0)
+				continue;
+			if(!first)
+				builder.append(',');
+			builder.append(pos).append(':').append(value);
+			first = false;
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Copies the elements of a tensor's string representation created by {@link #encode(Tensor)}
+	 * to the given target tensor.
+	 * @param encoded The string representation.
+	 * @param target The tensor to edit. Should have the same size as the encoded tensor.
+	 * @return The target tensor.
+	 */
+	public static Tensor decode(String encoded, Tensor target) {
+		int separator = encoded.indexOf('|');
+		if(separator==-1)
+			Utils.error(new IllegalArgumentException("Invalid sparse vector representation"));
+		long size = Long.parseLong(encoded.substring(0, separator));
+		if(size!=target.size())
+			Utils.error(new IllegalArgumentException("Can not decode a tensor of size "+size+" to one of size "+target.size()));
+		setToZero(target);
+		int start = separator+1;
+		while(start<encoded.length()) {
+			int end = encoded.indexOf(',', start);
+			if(end==-1)
+				end = encoded.length();
+			int colon = encoded.indexOf(':', start);
+			if(colon==-1 || colon>end)
+				Utils.error(new IllegalArgumentException("Invalid sparse vector representation"));
+			target.put(Long.parseLong(encoded.substring(start, colon)), Double.parseDouble(encoded.substring(colon+1, end)));
+			start = end+1;
+		}
+		return target;
+	}
+}
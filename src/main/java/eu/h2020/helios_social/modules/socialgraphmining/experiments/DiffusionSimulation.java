@@ -8,7 +8,7 @@ import eu.h2020.helios_social.core.contextualegonetwork.storage.NoStorage;
 import eu.h2020.helios_social.modules.socialgraphmining.diffusion.PPRMiner;
 import eu.h2020.helios_social.modules.socialgraphmining.experiments.simulation.Device;
 import mklab.JGNN.core.Tensor;
-import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.core.tensor.SparseTensor;
 import mklab.JGNN.datasets.Dataset;
 import mklab.JGNN.datasets.Datasets;
 import mklab.JGNN.models.IdConverter;
@@ -19,7 +19,7 @@ public class DiffusionSimulation {
 	protected static PPRMiner createMiner(String deviceName, int classificationId) {
 		ContextualEgoNetwork cen = ContextualEgoNetwork.createOrLoad(new NoStorage("NOFILESYSTEM\\"), deviceName, null);
 		return new PPRMiner("prediction diffusion", cen, 
-				Math.random()<fractionOfKnownLabels?new DenseTensor(15).put(classificationId, 1):new DenseTensor(15));
+				Math.random()<fractionOfKnownLabels?new SparseTensor(15).put(classificationId, 1):new SparseTensor(15));
 	}
 	
 	public static long argmax(Tensor tensor) {
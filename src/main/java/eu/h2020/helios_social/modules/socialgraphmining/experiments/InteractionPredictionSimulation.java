@@ -4,9 +4,14 @@ import eu.h2020.helios_social.core.contextualegonetwork.ContextualEgoNetwork;
 import eu.h2020.helios_social.core.contextualegonetwork.Utils;
 import eu.h2020.helios_social.modules.socialgraphmining.SocialGraphMiner;
 import eu.h2020.helios_social.modules.socialgraphmining.GNN.GNNMiner;
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.simulated_communication.EmbeddingExchangeHub;
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.simulated_communication.GossipNetwork;
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.simulated_communication.GossipProtocol;
 import eu.h2020.helios_social.modules.socialgraphmining.TF.TFMiner;
 import eu.h2020.helios_social.modules.socialgraphmining.experiments.simulation.PeriodicReport;
+import eu.h2020.helios_social.modules.socialgraphmining.experiments.simulation.SimulatedNetwork;
 import eu.h2020.helios_social.modules.socialgraphmining.experiments.simulation.Simulation;
+import eu.h2020.helios_social.modules.socialgraphmining.experiments.simulation.Transport;
 import eu.h2020.helios_social.modules.socialgraphmining.heuristics.RandomMiner;
 import eu.h2020.helios_social.modules.socialgraphmining.heuristics.RepeatAndReplyMiner;
 import eu.h2020.helios_social.modules.socialgraphmining.measures.Average;
@@ -29,6 +34,22 @@ public class InteractionPredictionSimulation {
 				    .setDeniability(0, 0);
 		}
 	}
+	public static class GossipGNNSimulation extends Simulation {
+		private GossipProtocol protocol = new GossipProtocol(new EmbeddingExchangeHub(0));
+		@Override
+		public SocialGraphMiner createMiner(ContextualEgoNetwork cen) {
+			return new GNNMiner(cen)
+					.setEmbeddingExchangeProtocol(protocol)
+					.setRegularizationAbsorbsion(1)
+					.setMinTrainingRelativeLoss(0.0001)
+				    .setTrainingExampleDegradation(0.5)
+				    .setTrainingExampleRemovalThreshold(0.0001*0.001)
+				    .setDeniability(0, 0);
+		}
+		public GossipNetwork getGossipNetwork() {
+			return protocol.getNetwork();
+		}
+	}
 	public static class RandomSimulation extends Simulation {
 		@Override
 		public SocialGraphMiner createMiner(ContextualEgoNetwork cen) {
@@ -48,13 +69,26 @@ public class InteractionPredictionSimulation {
 		}
 	}
 	
+	/**
+	 * Runs an interaction prediction simulation. Devices communicate directly, unless the argument
+	 * <i>--simulated-network</i> is given, in which case they communicate over a lossy {@link SimulatedNetwork}
+	 * whose traffic is printed at the end of the simulation.
+	 * @param args Command line arguments.
+	 * @throws Exception If the dataset can not be loaded.
+	 */
 	public static void main(String[] args) throws Exception {
 		Utils.development = false;
 		Dataset dataset = new Datasets.FRIENDS();
 		PeriodicReport measure = new PeriodicReport(new Average(new HitRate(1)), 1000);
+		SimulatedNetwork network = null;
+		if(args.length>0 && args[0].equals("--simulated-network"))
+			network = new SimulatedNetwork(new SimulatedNetwork.LinkProfile(20, 30, 100, 0.01), 0);
 		(new RepeatSimulation())
 			.setLastPredictionToAvoid(1)
+			.setTransport(network==null?Transport.direct():network)
 			//.setMaxInteractions(20000)
 			.run(dataset, measure);
+		if(network!=null)
+			System.out.println(network);
 	}
 }
@@ -12,15 +12,21 @@ import eu.h2020.helios_social.modules.socialgraphmining.SocialGraphMiner.Interac
  * This class provide the abstraction of a device that performs the communication protocol
  * needed by a {@link SocialGraphMiner} in a simulated communication setting. Instances of
  * this class are created by {@link Simulation} for experiments over the efficacy of different
- * types of miners.
+ * types of miners. Exchanged parameters are carried by a {@link Transport}, which by default
+ * delivers them directly.
  * 
  * @author Emmanouil Krasanakis
  */
 public class Device {
 	private SocialGraphMiner miner;
+	private Transport transport;
 	
 	public Device(SocialGraphMiner miner) {
+		this(miner, Transport.direct());
+	}
+	public Device(SocialGraphMiner miner, Transport transport) {
 		this.miner = miner;
+		this.transport = transport;
 		miner.getContextualEgoNetwork().setCurrent(miner.getContextualEgoNetwork().getOrCreateContext("default"));
 	}
 	public SocialGraphMiner getMiner() {
@@ -34,7 +40,9 @@ public class Device {
 				.getCurrentContext()
 				.getOrAddEdge(miner.getContextualEgoNetwork().getEgo(), miner.getContextualEgoNetwork().getOrCreateNode(other.getName(), null))
 				.addDetectedInteraction(null);
-		other.receive(this, miner.getModelParameters(interaction));
+		String parameters = miner.getModelParameters(interaction);
+		if(transport.transmit(this, other, parameters))
+			other.receive(this, parameters);
 	}
 	protected void receive(Device other, String parameters) {
 		Interaction interaction = miner.getContextualEgoNetwork()
@@ -42,7 +50,9 @@ public class Device {
 				.getOrAddEdge(miner.getContextualEgoNetwork().getOrCreateNode(other.getName(), null), miner.getContextualEgoNetwork().getEgo())
 				.addDetectedInteraction(null);
 		miner.newInteraction(interaction, parameters, InteractionType.RECEIVE);
-		other.receiveAck(this, miner.getModelParameters(interaction));
+		String reply = miner.getModelParameters(interaction);
+		if(transport.transmit(this, other, reply))
+			other.receiveAck(this, reply);
 	}
 	protected void receiveAck(Device other, String parameters) {
 		ArrayList<Interaction> interactions = miner.getContextualEgoNetwork()
@@ -0,0 +1,240 @@
+package eu.h2020.helios_social.modules.socialgraphmining.experiments.simulation;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import eu.h2020.helios_social.core.contextualegonetwork.Serializer;
+import eu.h2020.helios_social.core.contextualegonetwork.Utils;
+import eu.h2020.helios_social.modules.socialgraphmining.SocialGraphMiner.SocialGraphMinerParameters;
+
+/**
+ * This class implements an in-process {@link Transport} that simulates the latency, bandwidth and message loss
+ * of links between devices over a virtual clock, and accounts for the messages and bytes sent by each device
+ * and, optionally, for the bytes of each (nested) parameter key.
+ * <br>
+ * Messages are exchanged sequentially; each one occupies the virtual clock for its latency, drawn from a shifted
+ * exponential distribution, plus its size divided by the link's bandwidth. Hence, throughput is measured over the
+ * time devices spend communicating. Link profiles default to a common one that can be overridden per directed link.
+ * 
+ * @author Emmanouil Krasanakis
+ */
+public class SimulatedNetwork extends Transport {
+	/**
+	 * This class holds the characteristics of a directed link between devices.
+	 */
+	public static class LinkProfile {
+		private double latency;
+		private double jitter;
+		private double bandwidth;
+		private double dropRate;
+		
+		/**
+		 * Instantiates a link profile.
+		 * @param latency The minimum latency of messages in milliseconds.
+		 * @param jitter The mean latency on top of the minimum one in milliseconds.
+		 * @param bandwidth The bandwidth in bytes per millisecond, or 0 for unlimited bandwidth.
+		 * @param dropRate The probability of messages being dropped.
+		 */
+		public LinkProfile(double latency, double jitter, double bandwidth, double dropRate) {
+			if(!Double.isFinite(latency) || latency<0 || !Double.isFinite(jitter) || jitter<0)
+				Utils.error(new IllegalArgumentException("Latencies should be non-negative"));
+			if(!Double.isFinite(bandwidth) || bandwidth<0)
+				Utils.error(new IllegalArgumentException("Bandwidth "+bandwidth+" should be non-negative"));
+			if(!Double.isFinite(dropRate) || dropRate<0 || dropRate>1)
+				Utils.error(new IllegalArgumentException("Drop rate "+dropRate+" should lie in the range [0,1]"));
+			this.latency = latency;
+			this.jitter = jitter;
+			this.bandwidth = bandwidth;
+			this.dropRate = dropRate;
+		}
+	}
+	
+	/**
+	 * This class counts the messages and bytes of some part of the traffic.
+	 */
+	public static class TrafficCounter {
+		private long messages = 0;
+		private long bytes = 0;
+		private void add(long bytes) {
+			this.messages += 1;
+			this.bytes += bytes;
+		}
+		public long getMessages() {
+			return messages;
+		}
+		public long getBytes() {
+			return bytes;
+		}
+		@Override
+		public String toString() {
+			return messages+" messages, "+bytes+" bytes";
+		}
+	}
+	
+	private LinkProfile defaultProfile;
+	private HashMap<String, LinkProfile> linkProfiles = new HashMap<String, LinkProfile>();
+	private Random random;
+	private boolean keyAccounting = false;
+	private double time = 0;
+	private double totalDelay = 0;
+	private TrafficCounter sent = new TrafficCounter();
+	private TrafficCounter delivered = new TrafficCounter();
+	private TrafficCounter dropped = new TrafficCounter();
+	private HashMap<String, TrafficCounter> deviceTraffic = new HashMap<String, TrafficCounter>();
+	private TreeMap<String, TrafficCounter> keyTraffic = new TreeMap<String, TrafficCounter>();
+	
+	/**
+	 * Instantiates a network whose links have the given default profile.
+	 * @param defaultProfile The profile of links without an overridden one.
+	 * @param seed The seed of the random number generator that determines latencies and dropped messages.
+	 */
+	public SimulatedNetwork(LinkProfile defaultProfile, long seed) {
+		if(defaultProfile==null)
+			Utils.error(new IllegalArgumentException("Default link profile should not be null"));
+		this.defaultProfile = defaultProfile;
+		random = new Random(seed);
+	}
+	
+	/**
+	 * Overrides the profile of the directed link between two devices.
+	 * @param sender The name of the sending device.
+	 * @param receiver The name of the receiving device.
+	 * @param profile The link's profile.
+	 * @return <code>this</code> network.
+	 */
+	public synchronized SimulatedNetwork setLinkProfile(String sender, String receiver, LinkProfile profile) {
+		linkProfiles.put(sender+"->"+receiver, profile);
+		return this;
+	}
+	
+	/**
+	 * Sets whether to account for the bytes of each parameter key (default is false). This deserializes each
+	 * message with the sender's serializer and serializes each parameter separately, which slows down simulations.
+	 * Keys of nested parameters are joined with slashes, e.g. <i>gnn/ego_embedding</i>.
+	 * @param keyAccounting Whether to account for bytes per parameter key.
+	 * @return <code>this</code> network.
+	 */
+	public synchronized SimulatedNetwork setKeyAccounting(boolean keyAccounting) {
+		this.keyAccounting = keyAccounting;
+		return this;
+	}
+	
+	/**
+	 * Advances the virtual clock, for example to simulate the time between interactions.
+	 * @param milliseconds The non-negative time to advance by.
+	 */
+	public synchronized void advance(double milliseconds) {
+		if(milliseconds<0)
+			Utils.error(new IllegalArgumentException("Can not advance the clock by negative time"));
+		time += milliseconds;
+	}
+	
+	@Override
+	public synchronized boolean transmit(Device sender, Device receiver, String parameters) {
+		LinkProfile profile = linkProfiles.getOrDefault(sender.getName()+"->"+receiver.getName(), defaultProfile);
+		long bytes = parameters==null?0:parameters.getBytes(StandardCharsets.UTF_8).length;
+		sent.add(bytes);
+		TrafficCounter counter = deviceTraffic.get(sender.getName());
+		if(counter==null)
+			deviceTraffic.put(sender.getName(), counter = new TrafficCounter());
+		counter.add(bytes);
+		if(keyAccounting && parameters!=null) {
+			Serializer serializer = sender.getMiner().getContextualEgoNetwork().getSerializer();
+			Object deserialized = serializer.deserializeFromString(parameters);
+			if(deserialized instanceof SocialGraphMinerParameters)
+				accountKeys(serializer, (SocialGraphMinerParameters)deserialized, "");
+		}
+		double transmissionTime = profile.bandwidth==0?0:bytes/profile.bandwidth;
+		if(random.nextDouble()<profile.dropRate) {
+			dropped.add(bytes);
+			time += transmissionTime;
+			return false;
+		}
+		double delay = profile.latency-profile.jitter*Math.log(1-random.nextDouble())+transmissionTime;
+		time += delay;
+		totalDelay += delay;
+		delivered.add(bytes);
+		return true;
+	}
+	
+	private void accountKeys(Serializer serializer, SocialGraphMinerParameters parameters, String prefix) {
+		for(String key : parameters.getKeys()) {
+			Object value = parameters.get(key);
+			if(value instanceof SocialGraphMinerParameters) {
+				accountKeys(serializer, (SocialGraphMinerParameters)value, prefix+key+"/");
+				continue;
+			}
+			TrafficCounter counter = keyTraffic.get(prefix+key);
+			if(counter==null)
+				keyTraffic.put(prefix+key, counter = new TrafficCounter());
+			counter.add(value==null?0:serializer.serializeToString(value).getBytes(StandardCharsets.UTF_8).length);
+		}
+	}
+	
+	/**
+	 * Retrieves the current time of the virtual clock.
+	 * @return The time in milliseconds.
+	 */
+	public synchronized double getTime() {
+		return time;
+	}
+	
+	public synchronized TrafficCounter getSentTraffic() {
+		return sent;
+	}
+	
+	public synchronized TrafficCounter getDeliveredTraffic() {
+		return delivered;
+	}
+	
+	public synchronized TrafficCounter getDroppedTraffic() {
+		return dropped;
+	}
+	
+	/**
+	 * Retrieves the traffic sent by each device.
+	 * @return A map from device names to their traffic.
+	 */
+	public synchronized Map<String, TrafficCounter> getDeviceTraffic() {
+		return new HashMap<String, TrafficCounter>(deviceTraffic);
+	}
+	
+	/**
+	 * Retrieves the traffic of each parameter key, if enabled by {@link #setKeyAccounting(boolean)}.
+	 * @return A map from parameter keys to their traffic.
+	 */
+	public synchronized Map<String, TrafficCounter> getKeyTraffic() {
+		return new TreeMap<String, TrafficCounter>(keyTraffic);
+	}
+	
+	/**
+	 * Retrieves the average delay of delivered messages.
+	 * @return The average delay in milliseconds.
+	 */
+	public synchronized double getAverageDelay() {
+		return delivered.getMessages()==0?0:totalDelay/delivered.getMessages();
+	}
+	
+	/**
+	 * Retrieves the throughput of delivered messages over the virtual clock.
+	 * @return The throughput in bytes per second.
+	 */
+	public synchronized double getThroughput() {
+		return time==0?0:delivered.getBytes()/time*1000;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("sent: ").append(sent)
+			.append(", dropped: ").append(dropped)
+			.append(", average delay: ").append(getAverageDelay()).append(" ms")
+			.append(", throughput: ").append(getThroughput()).append(" bytes/s");
+		for(Map.Entry<String, TrafficCounter> entry : keyTraffic.entrySet())
+			builder.append("\n\t").append(entry.getKey()).append(": ").append(entry.getValue());
+		return builder.toString();
+	}
+}
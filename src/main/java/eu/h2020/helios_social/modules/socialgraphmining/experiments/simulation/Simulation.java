@@ -24,6 +24,7 @@ import eu.h2020.helios_social.modules.socialgraphmining.heuristics.DifferenceMin
 public abstract class Simulation {
 	private int maxInteractions = Integer.MAX_VALUE;
 	private int avoidLastPredictions = 1;
+	private Transport transport = Transport.direct();
 	
 	public Simulation() {}
 	
@@ -39,6 +40,20 @@ public abstract class Simulation {
 		return this;
 	}
 	
+	/**
+	 * Sets the transport that carries parameters exchanged between devices (default is {@link Transport#direct()}).
+	 * @param transport The transport, e.g. a {@link SimulatedNetwork}.
+	 * @return <code>this</code> Simulation instance.
+	 */
+	public Simulation setTransport(Transport transport) {
+		this.transport = transport;
+		return this;
+	}
+	
+	public Transport getTransport() {
+		return transport;
+	}
+	
 	protected SocialGraphMiner createDifferenceMiner(String deviceName) {
 		ContextualEgoNetwork cen = ContextualEgoNetwork.createOrLoad(new NoStorage("NOFILESYSTEM\\"), deviceName, null);
 		SocialGraphMiner miner = createMiner(cen);
@@ -56,9 +71,9 @@ public abstract class Simulation {
 			if(u.equals(v))
 				continue;
 			if(!devices.containsKey(u))
-				devices.put(u, new Device(createDifferenceMiner(u)));
+				devices.put(u, new Device(createDifferenceMiner(u), transport));
 			if(!devices.containsKey(v))
-				devices.put(v, new Device(createDifferenceMiner(v)));
+				devices.put(v, new Device(createDifferenceMiner(v), transport));
 			measure.evaluateSend(devices.get(u).getMiner(),
 					devices.get(u).getMiner().getContextualEgoNetwork().getCurrentContext(),
 					devices.get(u).getMiner().getContextualEgoNetwork().getOrCreateNode(v));
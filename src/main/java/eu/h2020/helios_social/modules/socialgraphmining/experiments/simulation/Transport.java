@@ -0,0 +1,36 @@
+package eu.h2020.helios_social.modules.socialgraphmining.experiments.simulation;
+
+/**
+ * This class provides an abstraction of the transport that carries the serialized miner parameters
+ * exchanged between {@link Device} instances. Transports decide whether each message is delivered
+ * and can account for its cost.
+ * 
+ * @author Emmanouil Krasanakis
+ */
+public abstract class Transport {
+	/**
+	 * Transmits a message between devices.
+	 * @param sender The device sending the message.
+	 * @param receiver The device the message is addressed to.
+	 * @param parameters The serialized miner parameters carried by the message.
+	 * @return Whether the message was delivered.
+	 */
+	public abstract boolean transmit(Device sender, Device receiver, String parameters);
+	
+	/**
+	 * Retrieves a transport that delivers all messages instantly and at no cost, as if devices
+	 * were directly calling each other.
+	 * @return A direct transport.
+	 */
+	public static Transport direct() {
+		return DirectTransport.instance;
+	}
+	
+	private static class DirectTransport extends Transport {
+		private static final DirectTransport instance = new DirectTransport();
+		@Override
+		public boolean transmit(Device sender, Device receiver, String parameters) {
+			return true;
+		}
+	}
+}
@@ -6,9 +6,17 @@ import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
 @SuiteClasses({
+        CentralizedGNNServiceTest.class,
+        ContextTrainingExampleDataTest.class,
+        EmbeddingExchangeProtocolTest.class,
+        FederatedAveragingAggregatorTest.class,
         GNNMinerTest.class,
+        GossipNetworkTest.class,
         HeuristicMinersTest.class,
-        PPRMinerTest.class})
+        MultiChannelPPRMinerTest.class,
+        PPRMinerTest.class,
+        SimulatedNetworkTest.class,
+        TFMinerTest.class})
 
 public class AllTests {
 }
@@ -0,0 +1,128 @@
+package eu.h2020.helios_social.modules.socialgraphmining.tests;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.BatchedCentralizedGNNTrainer;
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.CentralizedGNNService;
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.ContextTrainingExampleData;
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.GNNNodeData;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.tensor.DenseTensor;
+
+import org.junit.Assert;
+
+public class CentralizedGNNServiceTest extends BaseMinerTestFunctionalities {
+	private static final int numThreads = 4;
+	private static final int numNodesPerThread = 5;
+	private static final int numInteractionsPerThread = 40;
+
+	private static String getNodeId(int thread, int node) {
+		return "node"+thread+"_"+node;
+	}
+
+	private static void initializeEmbeddings(CentralizedGNNService service, long seed) {
+		Random random = new Random(seed);
+		for(int thread=0;thread<numThreads;thread++)
+			for(int node=0;node<numNodesPerThread;node++) {
+				Tensor embedding = new DenseTensor(10);
+				for(long dim=0;dim<embedding.size();dim++)
+					embedding.put(dim, random.nextDouble());
+				service.getNode(getNodeId(thread, node)).getOrCreateInstance(GNNNodeData.class).forceSetEmbedding(embedding);
+			}
+	}
+
+	private static void ingestThreadInteractions(CentralizedGNNService service, int thread) {
+		for(int i=0;i<numInteractionsPerThread;i++)
+			service.ingest(getNodeId(thread, i%numNodesPerThread), getNodeId(thread, (i*3+1)%numNodesPerThread));
+	}
+
+	private static void ingestInParallel(CentralizedGNNService service) throws InterruptedException {
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		for(int thread=0;thread<numThreads;thread++) {
+			int threadId = thread;
+			threads.add(new Thread(()->ingestThreadInteractions(service, threadId)));
+		}
+		for(Thread thread : threads)
+			thread.start();
+		for(Thread thread : threads)
+			thread.join();
+	}
+
+	@Test
+	public void parallelIngestionShouldKeepPredictionsFinite() throws InterruptedException {
+		CentralizedGNNService service = new CentralizedGNNService();
+		initializeEmbeddings(service, 1);
+		ingestInParallel(service);
+		for(int thread=0;thread<numThreads;thread++)
+			for(int u=0;u<numNodesPerThread;u++)
+				for(int v=0;v<numNodesPerThread;v++) {
+					double prediction = service.predict(service.getNode(getNodeId(thread, u)), service.getNode(getNodeId(0, v)));
+					Assert.assertTrue(Double.isFinite(prediction));
+				}
+	}
+
+	@Test
+	public void parallelIngestionShouldTrainAllQueuedInteractions() throws InterruptedException {
+		CentralizedGNNService service = new CentralizedGNNService();
+		service.getBaseMiner()
+			.setNegativeSamples(0)
+			.setTrainingExampleDegradation(1)
+			.setTrainingExampleRemovalThreshold(0);
+		initializeEmbeddings(service, 1);
+		Assert.assertNotNull(service.ingest(getNodeId(0, 0), getNodeId(0, 1)));
+		ingestInParallel(service);
+		ContextTrainingExampleData trainingExampleData = service.getContext().getOrCreateInstance(ContextTrainingExampleData.class);
+		Assert.assertEquals(trainingExampleData.getTrainingExampleList().size(), 1+numThreads*numInteractionsPerThread);
+	}
+
+	@Test
+	public void parallelIngestionOfDisjointNodesShouldMatchSequentialIngestion() throws InterruptedException {
+		CentralizedGNNService parallel = new CentralizedGNNService().setFreshExamplesOnly(true);
+		CentralizedGNNService sequential = new CentralizedGNNService().setFreshExamplesOnly(true);
+		parallel.getBaseMiner().setNegativeSamples(0);
+		sequential.getBaseMiner().setNegativeSamples(0);
+		initializeEmbeddings(parallel, 1);
+		initializeEmbeddings(sequential, 1);
+		ingestInParallel(parallel);
+		for(int thread=0;thread<numThreads;thread++)
+			ingestThreadInteractions(sequential, thread);
+		for(int thread=0;thread<numThreads;thread++)
+			for(int u=0;u<numNodesPerThread;u++)
+				for(int v=0;v<numNodesPerThread;v++) {
+					double expected = sequential.predict(sequential.getNode(getNodeId(thread, u)), sequential.getNode(getNodeId(thread, v)));
+					double prediction = parallel.predict(parallel.getNode(getNodeId(thread, u)), parallel.getNode(getNodeId(thread, v)));
+					Assert.assertTrue(Double.isFinite(prediction));
+					Assert.assertEquals(prediction, expected, 0);
+				}
+	}
+
+	@Test
+	public void batchedTrainingShouldMatchPerExampleTraining() {
+		CentralizedGNNService batched = new CentralizedGNNService();
+		CentralizedGNNService perExample = new CentralizedGNNService().setFreshExamplesOnly(true);
+		for(CentralizedGNNService service : new CentralizedGNNService[] {batched, perExample}) {
+			service.getBaseMiner()
+				.setNegativeSamples(0)
+				.setMaxTrainingEpoch(20)
+				.setMinTrainingRelativeLoss(0);
+			initializeEmbeddings(service, 1);
+		}
+		BatchedCentralizedGNNTrainer trainer = new BatchedCentralizedGNNTrainer(batched).setBatchSize(100);
+		for(int thread=0;thread<numThreads;thread++) {
+			trainer.add(getNodeId(thread, 0), getNodeId(thread, 1));
+			perExample.ingest(getNodeId(thread, 0), getNodeId(thread, 1));
+		}
+		Assert.assertEquals(trainer.getBufferedInteractions(), numThreads);
+		Assert.assertEquals(trainer.flush().getEpochs(), 20);
+		for(int thread=0;thread<numThreads;thread++)
+			for(int node=0;node<numNodesPerThread;node++) {
+				Tensor expected = perExample.getNode(getNodeId(thread, node)).getOrCreateInstance(GNNNodeData.class).getEmbedding();
+				Tensor embedding = batched.getNode(getNodeId(thread, node)).getOrCreateInstance(GNNNodeData.class).getEmbedding();
+				for(long dim=0;dim<embedding.size();dim++)
+					Assert.assertEquals(embedding.get(dim), expected.get(dim), 1.E-9);
+			}
+	}
+}
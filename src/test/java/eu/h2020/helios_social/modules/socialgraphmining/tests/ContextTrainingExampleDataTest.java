@@ -0,0 +1,82 @@
+package eu.h2020.helios_social.modules.socialgraphmining.tests;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import eu.h2020.helios_social.core.contextualegonetwork.ContextualEgoNetwork;
+import eu.h2020.helios_social.core.contextualegonetwork.Node;
+import eu.h2020.helios_social.core.contextualegonetwork.storage.NoStorage;
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.ContextTrainingExampleData;
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.GNNNodeData;
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.TrainingExample;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.tensor.DenseTensor;
+
+import org.junit.Assert;
+
+public class ContextTrainingExampleDataTest {
+	private static final int numNodes = 6;
+
+	private static Tensor createEmbedding(Random random) {
+		Tensor embedding = new DenseTensor(4);
+		for(long dim=0;dim<embedding.size();dim++)
+			embedding.put(dim, random.nextDouble()-0.5);
+		return embedding;
+	}
+
+	private static Node[] createNodes(Random random) {
+		ContextualEgoNetwork cen = ContextualEgoNetwork.createOrLoad(new NoStorage("NOFILESYSTEM\\"), "A", null);
+		Node[] nodes = new Node[numNodes];
+		for(int i=0;i<numNodes;i++) {
+			nodes[i] = cen.getOrCreateNode("node"+i, null);
+			nodes[i].getOrCreateInstance(GNNNodeData.class).forceSetEmbedding(createEmbedding(random));
+		}
+		return nodes;
+	}
+
+	private static void addExamples(ContextTrainingExampleData data, Node[] nodes, Random random, int numExamples) {
+		for(int i=0;i<numExamples;i++) {
+			int src = random.nextInt(numNodes);
+			int dst = (src+1+random.nextInt(numNodes-1))%numNodes;
+			data.addTrainingExample(new TrainingExample(nodes[src], nodes[dst], random.nextInt(2)));
+		}
+	}
+
+	private static void assertMatchesAggregationFromScratch(ContextTrainingExampleData data, Node[] nodes) {
+		ContextTrainingExampleData fromScratch = new ContextTrainingExampleData();
+		for(TrainingExample example : data.getTrainingExampleList())
+			fromScratch.addTrainingExample(example);
+		data.synchronizeNeighborAggregations();
+		for(Node node : nodes) {
+			Tensor expected = fromScratch.getNeighborAggregation(node);
+			Tensor aggregation = data.getNeighborAggregation(node);
+			for(long dim=0;dim<expected.size();dim++)
+				Assert.assertEquals(aggregation.get(dim), expected.get(dim), 1.E-9);
+		}
+	}
+
+	@Test
+	public void incrementalAggregationShouldMatchAggregationFromScratch() {
+		Random random = new Random(1);
+		Node[] nodes = createNodes(random);
+		ContextTrainingExampleData data = new ContextTrainingExampleData();
+		addExamples(data, nodes, random, 10);
+		assertMatchesAggregationFromScratch(data, nodes);
+		data.degrade(0.5, 0);
+		assertMatchesAggregationFromScratch(data, nodes);
+		addExamples(data, nodes, random, 10);
+		assertMatchesAggregationFromScratch(data, nodes);
+		data.degrade(0.5, 0.3);
+		Assert.assertEquals(data.getTrainingExampleList().size(), 10);
+		assertMatchesAggregationFromScratch(data, nodes);
+		for(int i=0;i<numNodes;i+=2)
+			nodes[i].getOrCreateInstance(GNNNodeData.class).forceSetEmbedding(createEmbedding(random));
+		assertMatchesAggregationFromScratch(data, nodes);
+		Tensor embedding = nodes[1].getOrCreateInstance(GNNNodeData.class).getEmbedding();
+		Tensor previousEmbedding = embedding.copy();
+		embedding.selfAdd(createEmbedding(random));
+		data.updateNeighborAggregations(nodes[1], previousEmbedding);
+		assertMatchesAggregationFromScratch(data, nodes);
+	}
+}
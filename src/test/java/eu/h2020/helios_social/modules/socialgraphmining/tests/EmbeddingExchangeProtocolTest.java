@@ -0,0 +1,129 @@
+package eu.h2020.helios_social.modules.socialgraphmining.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import eu.h2020.helios_social.core.contextualegonetwork.ContextualEgoNetwork;
+import eu.h2020.helios_social.core.contextualegonetwork.Node;
+import eu.h2020.helios_social.core.contextualegonetwork.storage.NoStorage;
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.GNNMiner;
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.simulated_communication.EmbeddingExchangeProtocol;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.tensor.DenseTensor;
+
+import org.junit.Assert;
+
+public class EmbeddingExchangeProtocolTest extends BaseMinerTestFunctionalities {
+	
+	private static class SingleExchangeProtocol extends EmbeddingExchangeProtocol {
+		protected HashMap<String, Tensor> embeddings = new HashMap<String, Tensor>();
+		protected int singleRequests = 0;
+		protected int singleRegistrations = 0;
+		@Override
+		public Tensor requestEmbeddings(Node ego, Node alter) {
+			singleRequests += 1;
+			return embeddings.get(alter.getId());
+		}
+		@Override
+		public void registerEmbeddings(Node ego, Node alter, Tensor parameters) {
+			singleRegistrations += 1;
+			embeddings.put(alter.getId(), parameters);
+		}
+	}
+	
+	private static class RecordingProtocol extends SingleExchangeProtocol {
+		private ArrayList<HashSet<String>> requests = new ArrayList<HashSet<String>>();
+		private ArrayList<HashSet<String>> registrations = new ArrayList<HashSet<String>>();
+		private static HashSet<String> ids(Collection<Node> nodes) {
+			HashSet<String> ids = new HashSet<String>();
+			for(Node node : nodes)
+				ids.add(node.getId());
+			return ids;
+		}
+		@Override
+		public Map<Node, Tensor> requestEmbeddings(Node ego, Collection<Node> alters) {
+			requests.add(ids(alters));
+			return super.requestEmbeddings(ego, alters);
+		}
+		@Override
+		public void registerEmbeddings(Node ego, Map<Node, Tensor> embeddings) {
+			registrations.add(ids(embeddings.keySet()));
+			super.registerEmbeddings(ego, embeddings);
+		}
+	}
+	
+	private RecordingProtocol setRecordingProtocol(String name) {
+		RecordingProtocol protocol = new RecordingProtocol();
+		((GNNMiner)getDevice(name).getMiner().getMiner("gnn")).setEmbeddingExchangeProtocol(protocol);
+		return protocol;
+	}
+	
+	private HashSet<String> contextNodeIds(String name) {
+		return RecordingProtocol.ids(getDevice(name).getMiner().getContextualEgoNetwork().getCurrentContext().getNodes());
+	}
+	
+	@Test
+	public void minerShouldExchangeEmbeddingsInBulkOncePerInteraction() {
+		RecordingProtocol protocolA = setRecordingProtocol("A");
+		RecordingProtocol protocolB = setRecordingProtocol("B");
+		getDevice("A").send(getDevice("B"));
+		getDevice("C").send(getDevice("A"));
+		getDevice("A").send(getDevice("C"));
+		// A handles three replies or receptions and B handles one reception
+		Assert.assertEquals(protocolA.requests.size(), 3);
+		Assert.assertEquals(protocolA.registrations.size(), 3);
+		Assert.assertEquals(protocolB.requests.size(), 1);
+		Assert.assertEquals(protocolB.registrations.size(), 1);
+		Assert.assertEquals(protocolB.requests.get(0), new HashSet<String>(Arrays.asList("A")));
+		Assert.assertEquals(protocolB.registrations.get(0), contextNodeIds("B"));
+		Assert.assertEquals(protocolA.requests.get(0), new HashSet<String>(Arrays.asList("B")));
+		Assert.assertEquals(protocolA.requests.get(2), new HashSet<String>(Arrays.asList("B", "C")));
+		Assert.assertEquals(protocolA.registrations.get(2), contextNodeIds("A"));
+		Assert.assertTrue(protocolA.registrations.get(2).containsAll(Arrays.asList("B", "C")));
+		// bulk calls should be served by one single-node call per node
+		Assert.assertEquals(protocolA.singleRequests, 1+2+2);
+		Assert.assertEquals(protocolA.singleRegistrations, protocolA.registrations.get(0).size()
+				+protocolA.registrations.get(1).size()+protocolA.registrations.get(2).size());
+	}
+	
+	@Test
+	public void defaultBulkRequestShouldOmitMissingEmbeddings() {
+		ContextualEgoNetwork cen = ContextualEgoNetwork.createOrLoad(new NoStorage("NOFILESYSTEM\\"), "A", null);
+		Node ego = cen.getEgo();
+		Node first = cen.getOrCreateNode("B", null);
+		Node second = cen.getOrCreateNode("C", null);
+		Node missing = cen.getOrCreateNode("D", null);
+		SingleExchangeProtocol protocol = new SingleExchangeProtocol();
+		Tensor firstEmbedding = new DenseTensor(3).setToRandom();
+		Tensor secondEmbedding = new DenseTensor(3).setToRandom();
+		protocol.registerEmbeddings(ego, first, firstEmbedding);
+		protocol.registerEmbeddings(ego, second, secondEmbedding);
+		Map<Node, Tensor> embeddings = protocol.requestEmbeddings(ego, Arrays.asList(first, second, missing));
+		Assert.assertEquals(protocol.singleRequests, 3);
+		Assert.assertEquals(embeddings.size(), 2);
+		Assert.assertSame(embeddings.get(first), firstEmbedding);
+		Assert.assertSame(embeddings.get(second), secondEmbedding);
+		Assert.assertFalse(embeddings.containsKey(missing));
+	}
+	
+	@Test
+	public void defaultBulkRegistrationShouldRegisterEachEmbedding() {
+		ContextualEgoNetwork cen = ContextualEgoNetwork.createOrLoad(new NoStorage("NOFILESYSTEM\\"), "A", null);
+		Node ego = cen.getEgo();
+		SingleExchangeProtocol protocol = new SingleExchangeProtocol();
+		LinkedHashMap<Node, Tensor> embeddings = new LinkedHashMap<Node, Tensor>();
+		for(String name : new String[] {"A", "B", "C"})
+			embeddings.put(cen.getOrCreateNode(name, null), new DenseTensor(3).setToRandom());
+		protocol.registerEmbeddings(ego, embeddings);
+		Assert.assertEquals(protocol.singleRegistrations, 3);
+		for(Node node : embeddings.keySet())
+			Assert.assertSame(protocol.embeddings.get(node.getId()), embeddings.get(node));
+	}
+}
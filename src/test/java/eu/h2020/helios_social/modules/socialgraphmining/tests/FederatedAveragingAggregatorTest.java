@@ -0,0 +1,67 @@
+package eu.h2020.helios_social.modules.socialgraphmining.tests;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.simulated_communication.FederatedAveragingAggregator;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.tensor.DenseTensor;
+
+import org.junit.Assert;
+
+public class FederatedAveragingAggregatorTest {
+
+	private static Tensor directAverage(HashMap<String, Tensor> embeddings, HashMap<String, Double> times, double decay) {
+		double latestTime = Double.NEGATIVE_INFINITY;
+		for(double time : times.values())
+			latestTime = Math.max(latestTime, time);
+		Tensor sum = null;
+		double totalWeight = 0;
+		for(String estimator : embeddings.keySet()) {
+			double weight = Math.exp(decay*(times.get(estimator)-latestTime));
+			if(sum==null)
+				sum = embeddings.get(estimator).zeroCopy();
+			sum.selfAdd(embeddings.get(estimator).multiply(weight));
+			totalWeight += weight;
+		}
+		return sum.selfMultiply(1./totalWeight);
+	}
+
+	private static void assertAveragesMatch(double decay, double timeStep) {
+		FederatedAveragingAggregator aggregator = new FederatedAveragingAggregator(decay, 4);
+		HashMap<String, Tensor> embeddings = new HashMap<String, Tensor>();
+		HashMap<String, Double> times = new HashMap<String, Double>();
+		Random random = new Random(1);
+		for(int i=0;i<200;i++) {
+			String estimator = "estimator"+random.nextInt(10);
+			Tensor embedding = new DenseTensor(5);
+			for(long dim=0;dim<embedding.size();dim++)
+				embedding.put(dim, random.nextDouble());
+			double time = i*timeStep;
+			aggregator.register("alter", estimator, embedding, time);
+			embeddings.put(estimator, embedding);
+			times.put(estimator, time);
+			Tensor expected = directAverage(embeddings, times, decay);
+			Tensor average = aggregator.average("alter");
+			for(long dim=0;dim<expected.size();dim++)
+				Assert.assertEquals(average.get(dim), expected.get(dim), 1.E-9);
+		}
+	}
+
+	@Test
+	public void runningAverageShouldMatchDirectWeightedAverage() {
+		assertAveragesMatch(0.001, 1);
+	}
+
+	@Test
+	public void runningAverageShouldMatchDirectWeightedAverageAcrossRebases() {
+		assertAveragesMatch(1, 7);
+	}
+
+	@Test
+	public void averageOfUnknownAlterShouldBeNull() {
+		Assert.assertNull(new FederatedAveragingAggregator().average("alter"));
+	}
+}
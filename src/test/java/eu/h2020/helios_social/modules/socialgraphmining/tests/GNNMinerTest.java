@@ -1,10 +1,26 @@
 package eu.h2020.helios_social.modules.socialgraphmining.tests;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+
 import org.junit.Test;
 
+import eu.h2020.helios_social.core.contextualegonetwork.ContextualEgoNetwork;
+import eu.h2020.helios_social.core.contextualegonetwork.Node;
 import eu.h2020.helios_social.core.contextualegonetwork.Utils;
+import eu.h2020.helios_social.core.contextualegonetwork.storage.NoStorage;
 import eu.h2020.helios_social.modules.socialgraphmining.GNN.GNNMiner;
 import eu.h2020.helios_social.modules.socialgraphmining.GNN.GNNNodeData;
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.GNNSnapshot;
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.SpectralAlignment;
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.TrainingProgress;
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.negative_sampling.DegreeNegativeSampler;
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.simulated_communication.EmbeddingExchangeProtocol;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.core.util.Sort;
 
 import org.junit.Assert;
 
@@ -13,6 +29,30 @@ public class GNNMinerTest extends BaseMinerTestFunctionalities {
 	public GNNMinerTest() {
 	}
 	
+	private static class InspectableGNNMiner extends GNNMiner {
+		public InspectableGNNMiner(ContextualEgoNetwork contextualEgoNetwork) {
+			super(contextualEgoNetwork);
+		}
+		public boolean checkRegistration(Node node, Tensor embedding) {
+			return markForRegistration(node, embedding);
+		}
+	}
+	
+	private static class RegistrationCountingProtocol extends EmbeddingExchangeProtocol {
+		private ArrayList<Integer> registrations = new ArrayList<Integer>();
+		@Override
+		public Tensor requestEmbeddings(Node ego, Node alter) {
+			return null;
+		}
+		@Override
+		public void registerEmbeddings(Node ego, Node alter, Tensor parameters) {
+		}
+		@Override
+		public void registerEmbeddings(Node ego, Map<Node, Tensor> embeddings) {
+			registrations.add(embeddings.size());
+		}
+	}
+	
 	@Test(expected = Exception.class)
 	public void shouldExpectCEN() {
 		Utils.development = true;
@@ -49,6 +89,64 @@ public class GNNMinerTest extends BaseMinerTestFunctionalities {
 		Assert.assertEquals(argmax(getDevice("A").recommendInteractionsInCurrentContext()), "C");
 	}
 	
+	@Test
+	public void shouldRecommendTheMostRecentInteractionWithDegreeNegatives() {
+		for(String name : new String[] {"A", "B", "C"})
+			((GNNMiner)getDevice(name).getMiner().getMiner("gnn"))
+				.setNegativeSampler(new DegreeNegativeSampler(0))
+				.setNegativeSamples(3);
+		getDevice("A").send(getDevice("B"));
+		getDevice("C").send(getDevice("A"));
+		Assert.assertEquals(argmax(getDevice("A").recommendInteractionsInCurrentContext()), "C");
+	}
+	
+	@Test
+	public void shouldRecommendTheMostRecentInteractionWithSecondOrderProximity() {
+		for(String name : new String[] {"A", "B", "C"})
+			((GNNMiner)getDevice(name).getMiner().getMiner("gnn"))
+				.setSecondOrderProximity(true)
+				.setNeighborAggregationExchange(true);
+		getDevice("A").send(getDevice("B"));
+		getDevice("C").send(getDevice("A"));
+		Assert.assertEquals(argmax(getDevice("A").recommendInteractionsInCurrentContext()), "C");
+	}
+	
+	@Test
+	public void trainingShouldRespectDeadline() {
+		GNNMiner miner = ((GNNMiner)getDevice("B").getMiner().getMiner("gnn"))
+				.setMinTrainingRelativeLoss(0)
+				.setTrainingDeadline(1.E-6)
+				.setTrainingResumption(true);
+		getDevice("A").send(getDevice("B"));
+		TrainingProgress progress = miner.getTrainingProgress(miner.getContextualEgoNetwork().getCurrentContext());
+		Assert.assertEquals(progress.getEpochs(), 1);
+		Assert.assertTrue(progress.isInterrupted());
+		miner.trainIdle(miner.getContextualEgoNetwork().getCurrentContext(), 0);
+		Assert.assertFalse(progress.isInterrupted());
+		Assert.assertEquals(progress.getSessions(), 2);
+	}
+	
+	@Test
+	public void snapshotShouldRestoreEmbeddings() throws IOException {
+		getDevice("A").send(getDevice("B"));
+		getDevice("C").send(getDevice("A"));
+		File file = File.createTempFile("gnn", ".snapshot");
+		file.deleteOnExit();
+		GNNSnapshot.write(getDevice("A").getMiner().getContextualEgoNetwork(), file);
+		GNNSnapshot.load(getDevice("D").getMiner().getContextualEgoNetwork(), file);
+		for(String name : new String[] {"A", "B", "C"})
+			Assert.assertEquals(getDevice("A").getMiner().getContextualEgoNetwork()
+						.getOrCreateNode(name, null)
+						.getOrCreateInstance(GNNNodeData.class)
+						.getEmbedding()
+						.toString(),
+					getDevice("D").getMiner().getContextualEgoNetwork()
+						.getOrCreateNode(name, null)
+						.getOrCreateInstance(GNNNodeData.class)
+						.getEmbedding()
+						.toString());
+	}
+	
 	@Test
 	public void trainingShouldOccurOnEveryInteraction() {
 		getDevice("A").send(getDevice("B"));
@@ -119,4 +217,80 @@ public class GNNMinerTest extends BaseMinerTestFunctionalities {
 				getDevice("A").getMiner().getContextualEgoNetwork().getOrCreateContext("home"));
 		getDevice("A").recommendInteractionsInCurrentContext();
 	}
+	
+	private static Tensor alignUncached(Tensor source, Tensor exampleSource, Tensor exampleTarget) {
+		int[] sourceIndex = Sort.sortedIndexes(exampleSource.toArray());
+		int[] targetIndex = Sort.sortedIndexes(exampleTarget.toArray());
+		Tensor target = source.zeroCopy();
+		for(int i=0;i<sourceIndex.length;i++)
+			target.put(targetIndex[i], source.get(sourceIndex[i]));
+		return target;
+	}
+	
+	@Test
+	public void cachedSpectralAlignmentShouldMatchUncachedAlignment() {
+		ContextualEgoNetwork cen = ContextualEgoNetwork.createOrLoad(new NoStorage("NOFILESYSTEM\\"), "A", null);
+		Node alter = cen.getOrCreateNode("B", null);
+		SpectralAlignment alignment = new SpectralAlignment();
+		Tensor sourceEgo = new DenseTensor(10).setToRandom();
+		Tensor sourceAlter = new DenseTensor(10).setToRandom();
+		Tensor targetEgo = new DenseTensor(10).setToRandom();
+		Tensor targetAlter = new DenseTensor(10).setToRandom();
+		int rounds = 20;
+		for(int round=0;round<rounds;round++) {
+			if(round%5==4)
+				sourceEgo = new DenseTensor(10).setToRandom();
+			else
+				sourceEgo = sourceEgo.add(0.01);
+			Tensor source = sourceEgo.copy();
+			Tensor expected = alignUncached(sourceEgo, sourceEgo.add(sourceAlter), targetEgo.add(targetAlter));
+			Tensor aligned = alignment.align(alter, source, sourceEgo, sourceAlter, targetEgo, targetAlter);
+			for(long dim=0;dim<10;dim++)
+				Assert.assertEquals(aligned.get(dim), expected.get(dim), 0);
+		}
+		Assert.assertTrue(alignment.getRecomputations()<rounds);
+	}
+	
+	@Test
+	public void registrationShouldPushOnlyDriftAboveThreshold() {
+		ContextualEgoNetwork cen = ContextualEgoNetwork.createOrLoad(new NoStorage("NOFILESYSTEM\\"), "A", null);
+		Node node = cen.getOrCreateNode("B", null);
+		InspectableGNNMiner miner = new InspectableGNNMiner(cen);
+		miner.setRegistrationThresholds(1, 0);
+		Tensor embedding = new DenseTensor(3);
+		Assert.assertTrue(miner.checkRegistration(node, embedding));
+		Assert.assertFalse(miner.checkRegistration(node, embedding.copy().put(0, 0.5)));
+		Assert.assertFalse(miner.checkRegistration(node, embedding.copy().put(0, 0.9)));
+		Assert.assertTrue(miner.checkRegistration(node, embedding.copy().put(0, 1.2)));
+		// drift is measured from the last registered embedding
+		Assert.assertFalse(miner.checkRegistration(node, embedding.copy().put(0, 1.2).put(1, 0.5)));
+		Assert.assertTrue(miner.checkRegistration(node, embedding.copy().put(0, 1.2).put(1, 1)));
+	}
+	
+	@Test
+	public void registrationShouldBeForcedAfterStaleness() {
+		RegistrationCountingProtocol protocol = new RegistrationCountingProtocol();
+		((GNNMiner)getDevice("B").getMiner().getMiner("gnn"))
+			.setEmbeddingExchangeProtocol(protocol)
+			.setRegistrationThresholds(1.E9, 2);
+		for(int round=0;round<5;round++)
+			getDevice("A").send(getDevice("B"));
+		int numNodes = getDevice("B").getMiner().getContextualEgoNetwork().getCurrentContext().getNodes().size();
+		// embeddings are registered when first seen and every two training runs afterwards
+		Assert.assertEquals(protocol.registrations.size(), 3);
+		for(int registered : protocol.registrations)
+			Assert.assertEquals(registered, numNodes);
+	}
+	
+	@Test
+	public void zeroThresholdsShouldRegisterAllEmbeddings() {
+		RegistrationCountingProtocol protocol = new RegistrationCountingProtocol();
+		((GNNMiner)getDevice("B").getMiner().getMiner("gnn")).setEmbeddingExchangeProtocol(protocol);
+		for(int round=0;round<3;round++)
+			getDevice("A").send(getDevice("B"));
+		int numNodes = getDevice("B").getMiner().getContextualEgoNetwork().getCurrentContext().getNodes().size();
+		Assert.assertEquals(protocol.registrations.size(), 3);
+		for(int registered : protocol.registrations)
+			Assert.assertEquals(registered, numNodes);
+	}
 }
@@ -0,0 +1,46 @@
+package eu.h2020.helios_social.modules.socialgraphmining.tests;
+
+import org.junit.Test;
+
+import eu.h2020.helios_social.core.contextualegonetwork.ContextualEgoNetwork;
+import eu.h2020.helios_social.core.contextualegonetwork.Node;
+import eu.h2020.helios_social.core.contextualegonetwork.storage.NoStorage;
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.simulated_communication.EmbeddingExchangeHub;
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.simulated_communication.GossipNetwork;
+import eu.h2020.helios_social.modules.socialgraphmining.GNN.simulated_communication.GossipProtocol;
+import mklab.JGNN.core.tensor.DenseTensor;
+
+import org.junit.Assert;
+
+public class GossipNetworkTest {
+	private static final int numPeers = 6;
+
+	private static GossipProtocol createProtocol(long seed) {
+		GossipProtocol protocol = new GossipProtocol(new EmbeddingExchangeHub(seed));
+		protocol.getNetwork().setRoundPeriod(0);
+		ContextualEgoNetwork cen = ContextualEgoNetwork.createOrLoad(new NoStorage("NOFILESYSTEM\\"), "gossip", null);
+		for(int i=0;i<numPeers;i++) {
+			Node peer = cen.getOrCreateNode("peer"+i, null);
+			protocol.registerEmbeddings(peer, peer, new DenseTensor(3).setToOnes());
+		}
+		return protocol;
+	}
+
+	@Test
+	public void gossipShouldConverge() {
+		GossipNetwork network = createProtocol(1).getNetwork();
+		Assert.assertEquals(network.getConvergence(), 1./numPeers, 1.E-9);
+		for(int round=0;round<20 && network.getConvergence()<1;round++)
+			network.runRound();
+		Assert.assertEquals(network.getConvergence(), 1, 0);
+	}
+
+	@Test
+	public void fullFanoutShouldConvergeInOneRound() {
+		GossipNetwork network = createProtocol(1).getNetwork().setFanout(numPeers);
+		network.runRound();
+		Assert.assertEquals(network.getRounds(), 1);
+		Assert.assertEquals(network.getMessages(), 3*numPeers*(numPeers-1));
+		Assert.assertEquals(network.getConvergence(), 1, 0);
+	}
+}
@@ -0,0 +1,84 @@
+package eu.h2020.helios_social.modules.socialgraphmining.tests;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import eu.h2020.helios_social.core.contextualegonetwork.ContextualEgoNetwork;
+import eu.h2020.helios_social.core.contextualegonetwork.storage.NoStorage;
+import eu.h2020.helios_social.modules.socialgraphmining.diffusion.MultiChannelPPRMiner;
+import eu.h2020.helios_social.modules.socialgraphmining.diffusion.PPRMiner;
+import eu.h2020.helios_social.modules.socialgraphmining.diffusion.SparseVectors;
+import eu.h2020.helios_social.modules.socialgraphmining.experiments.simulation.Device;
+import mklab.JGNN.core.Tensor;
+import mklab.JGNN.core.tensor.DenseTensor;
+
+import org.junit.Assert;
+
+public class MultiChannelPPRMinerTest extends BaseMinerTestFunctionalities {
+	private static final String[] names = {"A", "B", "C", "D"};
+	private static final String[] channelNames = {"x", "y"};
+	private static final int[] channelSizes = {3, 2};
+	private static final double[] restartProbabilities = {0.1, 0.3};
+
+	private static ContextualEgoNetwork createCEN(String network, String name) {
+		return ContextualEgoNetwork.createOrLoad(new NoStorage("NOFILESYSTEM\\"), network+name, null);
+	}
+
+	private static Tensor createPersonalization(int device, int channel, boolean sparse) {
+		Random random = new Random(device*channelSizes.length+channel);
+		Tensor personalization = new DenseTensor(channelSizes[channel]);
+		for(long pos=0;pos<personalization.size();pos++)
+			if(random.nextDouble()<0.6)
+				personalization.put(pos, random.nextDouble());
+		return sparse?SparseVectors.toSparse(personalization):personalization;
+	}
+
+	private static void interact(Device[] devices) {
+		for(int repetition=0;repetition<3;repetition++)
+			for(int i=0;i<devices.length;i++) {
+				devices[i].send(devices[(i+1)%devices.length]);
+				if(i%2==0)
+					devices[(i+2)%devices.length].send(devices[i]);
+			}
+	}
+
+	private static void assertChannelsMatchSeparateMiners(boolean sparse) {
+		Device[] multiChannelDevices = new Device[names.length];
+		for(int device=0;device<names.length;device++) {
+			MultiChannelPPRMiner miner = new MultiChannelPPRMiner("multi", createCEN("multi", names[device]));
+			for(int channel=0;channel<channelNames.length;channel++)
+				miner.addChannel(channelNames[channel], createPersonalization(device, channel, sparse));
+			for(int channel=0;channel<channelNames.length;channel++)
+				miner.getChannel(channelNames[channel]).setRestartProbability(restartProbabilities[channel]);
+			multiChannelDevices[device] = new Device(miner);
+		}
+		interact(multiChannelDevices);
+		for(int channel=0;channel<channelNames.length;channel++) {
+			Device[] devices = new Device[names.length];
+			for(int device=0;device<names.length;device++)
+				devices[device] = new Device(new PPRMiner(channelNames[channel], createCEN(channelNames[channel], names[device]), createPersonalization(device, channel, sparse))
+						.setRestartProbability(restartProbabilities[channel]));
+			interact(devices);
+			for(int device=0;device<names.length;device++) {
+				PPRMiner miner = (PPRMiner)devices[device].getMiner();
+				MultiChannelPPRMiner multiChannelMiner = (MultiChannelPPRMiner)multiChannelDevices[device].getMiner();
+				Tensor expected = miner.getSmoothedPersonalization(miner.getContextualEgoNetwork().getCurrentContext());
+				Tensor smoothed = multiChannelMiner.getChannel(channelNames[channel]).getSmoothedPersonalization(multiChannelMiner.getContextualEgoNetwork().getCurrentContext());
+				Assert.assertEquals(smoothed.size(), expected.size());
+				for(long pos=0;pos<expected.size();pos++)
+					Assert.assertEquals(smoothed.get(pos), expected.get(pos), 1.E-12);
+			}
+		}
+	}
+
+	@Test
+	public void denseChannelsShouldMatchSeparatePPRMiners() {
+		assertChannelsMatchSeparateMiners(false);
+	}
+
+	@Test
+	public void sparseChannelsShouldMatchSeparatePPRMiners() {
+		assertChannelsMatchSeparateMiners(true);
+	}
+}
@@ -1,17 +1,133 @@
 package eu.h2020.helios_social.modules.socialgraphmining.tests;
 
+import java.util.HashMap;
+import java.util.Random;
+
 import org.junit.Test;
 
+import eu.h2020.helios_social.core.contextualegonetwork.Context;
+import eu.h2020.helios_social.core.contextualegonetwork.ContextualEgoNetwork;
+import eu.h2020.helios_social.core.contextualegonetwork.Edge;
+import eu.h2020.helios_social.core.contextualegonetwork.Interaction;
+import eu.h2020.helios_social.core.contextualegonetwork.Node;
 import eu.h2020.helios_social.core.contextualegonetwork.Utils;
+import eu.h2020.helios_social.core.contextualegonetwork.storage.NoStorage;
 import eu.h2020.helios_social.modules.socialgraphmining.GNN.GNNMiner;
 import eu.h2020.helios_social.modules.socialgraphmining.GNN.GNNNodeData;
 import eu.h2020.helios_social.modules.socialgraphmining.diffusion.PPRMiner;
+import eu.h2020.helios_social.modules.socialgraphmining.diffusion.RandomWalkPPRMiner;
+import eu.h2020.helios_social.modules.socialgraphmining.diffusion.SparseVectors;
+import eu.h2020.helios_social.modules.socialgraphmining.experiments.simulation.Device;
+import eu.h2020.helios_social.modules.socialgraphmining.experiments.simulation.Transport;
+import mklab.JGNN.core.Tensor;
 import mklab.JGNN.core.tensor.DenseTensor;
+import mklab.JGNN.core.tensor.SparseTensor;
 
 import org.junit.Assert;
 
 public class PPRMinerTest extends BaseMinerTestFunctionalities {
 	
+	private static class InspectablePPRMiner extends PPRMiner {
+		private int sentScores = 0;
+		public InspectablePPRMiner(ContextualEgoNetwork contextualEgoNetwork, Tensor personalization) {
+			super("ppr", contextualEgoNetwork, personalization);
+		}
+		@Override
+		public synchronized SocialGraphMinerParameters constructModelParameterObject(Interaction interaction) {
+			SocialGraphMinerParameters params = super.constructModelParameterObject(interaction);
+			if(params.get("score")!=null)
+				sentScores += 1;
+			return params;
+		}
+		public Tensor getEdgeScore(Edge edge) {
+			return edge.getOrCreateInstance(getModuleName()+"score", ()->getPersonalization(edge.getContext()).zeroCopy());
+		}
+		public Tensor peekPersonalization(Context context) {
+			return context.getOrCreateInstance(getModuleName()+"personalization", ()->new DenseTensor(2));
+		}
+		public Tensor getCachedNormalizedEdgeScore(Edge edge) {
+			return getNormalizedEdgeScore(edge);
+		}
+		public Tensor getScoreSum(Context context) {
+			return getNeighborScoreSum(context);
+		}
+		public Tensor sumEdgeScores(Context context) {
+			Tensor sum = getPersonalization(context).zeroCopy();
+			for(Edge edge : context.getEdges())
+				if(edge.getEgo()!=null)
+					sum.selfAdd(getEdgeScore(edge));
+			return sum;
+		}
+	}
+	
+	private static class InspectableRandomWalkPPRMiner extends RandomWalkPPRMiner {
+		public InspectableRandomWalkPPRMiner(ContextualEgoNetwork contextualEgoNetwork, Tensor personalization) {
+			super("ppr", contextualEgoNetwork, personalization);
+		}
+		public Tensor smoothExactly(Context context) {
+			Tensor personalization = getPersonalization(context);
+			Tensor smoothed = personalization.multiply(getRestartProbability());
+			for(Edge edge : context.getEdges())
+				if(edge.getEgo()!=null)
+					smoothed.selfAdd(edge.getOrCreateInstance(getModuleName()+"score", ()->personalization.zeroCopy())
+							.multiply((1-getRestartProbability())/context.getNodes().size()));
+			return smoothed;
+		}
+	}
+	
+	private static class DroppingTransport extends Transport {
+		private boolean drop = false;
+		@Override
+		public boolean transmit(Device sender, Device receiver, String parameters) {
+			return !drop;
+		}
+	}
+	
+	private static Tensor createPersonalization(double first) {
+		Tensor personalization = new DenseTensor(2);
+		personalization.put(0, first);
+		personalization.put(1, 1-first);
+		return personalization;
+	}
+	
+	private static Device createPushDevice(String name, double pushThreshold, Transport transport) {
+		ContextualEgoNetwork cen = ContextualEgoNetwork.createOrLoad(new NoStorage("NOFILESYSTEM\\"), name, null);
+		return new Device(new InspectablePPRMiner(cen, createPersonalization(name.equals("A")?1:0)).setPushThreshold(pushThreshold), transport);
+	}
+	
+	private static Tensor createRandomPersonalization(int device) {
+		Random random = new Random(device);
+		Tensor personalization = new DenseTensor(3);
+		for(long pos=0;pos<personalization.size();pos++)
+			personalization.put(pos, random.nextDouble());
+		return personalization;
+	}
+	
+	private static Tensor createSparsePersonalization(int device, boolean sparse) {
+		Random random = new Random(device);
+		Tensor personalization = new DenseTensor(50);
+		for(int element=0;element<3;element++)
+			personalization.put(random.nextInt((int)personalization.size()), random.nextDouble());
+		return sparse?SparseVectors.toSparse(personalization):personalization;
+	}
+	
+	private static ContextualEgoNetwork createCEN(String network, int device) {
+		return ContextualEgoNetwork.createOrLoad(new NoStorage("NOFILESYSTEM\\"), network+device, null);
+	}
+	
+	private static void interact(Device[] devices) {
+		for(int repetition=0;repetition<3;repetition++)
+			for(int i=0;i<devices.length;i++) {
+				devices[i].send(devices[(i+1)%devices.length]);
+				if(i%2==0)
+					devices[(i+2)%devices.length].send(devices[i]);
+			}
+	}
+	
+	private static int getSentScores(Device device) {
+		return ((InspectablePPRMiner)device.getMiner()).sentScores;
+	}
+	
 	public PPRMinerTest() {
 	}
 	
@@ -122,4 +238,270 @@ public class PPRMinerTest extends BaseMinerTestFunctionalities {
 					getDevice("A").getMiner().getContextualEgoNetwork().getOrCreateContext("home"));
 			getDevice("A").recommendInteractionsInCurrentContext();
 	}
+	
+	@Test
+	public void pushShouldSuppressAcknowledgedScores() {
+		Device A = createPushDevice("A", 10, Transport.direct());
+		Device B = createPushDevice("B", 10, Transport.direct());
+		A.send(B);
+		Assert.assertEquals(getSentScores(A), 1);
+		Assert.assertEquals(getSentScores(B), 1);
+		for(int i=0;i<5;i++)
+			A.send(B);
+		Assert.assertEquals(getSentScores(A), 1);
+		Assert.assertEquals(getSentScores(B), 1);
+	}
+	
+	@Test
+	public void pushShouldResendScoresUntilAcknowledged() {
+		DroppingTransport transport = new DroppingTransport();
+		Device A = createPushDevice("A", 10, Transport.direct());
+		Device B = createPushDevice("B", 10, transport);
+		transport.drop = true;
+		A.send(B);
+		A.send(B);
+		Assert.assertEquals(getSentScores(A), 2);
+		Assert.assertEquals(getSentScores(B), 2);
+		transport.drop = false;
+		A.send(B);
+		Assert.assertEquals(getSentScores(A), 3);
+		Assert.assertEquals(getSentScores(B), 3);
+		A.send(B);
+		A.send(B);
+		Assert.assertEquals(getSentScores(A), 3);
+		Assert.assertEquals(getSentScores(B), 3);
+	}
+	
+	@Test
+	public void pushedScoresShouldStayWithinTwiceTheThreshold() {
+		double pushThreshold = 0.01;
+		Device A = createPushDevice("A", pushThreshold, Transport.direct());
+		Device B = createPushDevice("B", pushThreshold, Transport.direct());
+		InspectablePPRMiner minerA = (InspectablePPRMiner)A.getMiner();
+		InspectablePPRMiner minerB = (InspectablePPRMiner)B.getMiner();
+		Context contextA = minerA.getContextualEgoNetwork().getCurrentContext();
+		Context contextB = minerB.getContextualEgoNetwork().getCurrentContext();
+		int numSends = 30;
+		for(int i=0;i<numSends;i++) {
+			minerA.updatePersonalization(contextA, createPersonalization(1-0.02*i));
+			Tensor score = minerA.getSmoothedPersonalization(contextA).copy();
+			A.send(B);
+			Edge edge = contextB.getEdge(minerB.getContextualEgoNetwork().getOrCreateNode("A", null), minerB.getContextualEgoNetwork().getEgo());
+			Assert.assertTrue(SparseVectors.distance(minerB.getEdgeScore(edge), score)<=2*pushThreshold);
+		}
+		Assert.assertTrue(getSentScores(A)>1);
+		Assert.assertTrue(getSentScores(A)<numSends);
+	}
+	
+	@Test
+	public void randomWalkEstimateShouldMatchPPRMiner() {
+		int numDevices = 4;
+		Device[] devices = new Device[numDevices];
+		Device[] randomWalkDevices = new Device[numDevices];
+		for(int device=0;device<numDevices;device++) {
+			devices[device] = new Device(new PPRMiner("ppr", createCEN("ppr", device), createRandomPersonalization(device)));
+			randomWalkDevices[device] = new Device(new RandomWalkPPRMiner("ppr", createCEN("walk", device), createRandomPersonalization(device))
+					.setNumWalks(100000)
+					.setSeed(device));
+		}
+		interact(devices);
+		interact(randomWalkDevices);
+		for(int device=0;device<numDevices;device++) {
+			PPRMiner miner = (PPRMiner)devices[device].getMiner();
+			PPRMiner randomWalkMiner = (PPRMiner)randomWalkDevices[device].getMiner();
+			Tensor expected = miner.getSmoothedPersonalization(miner.getContextualEgoNetwork().getCurrentContext());
+			Tensor estimate = randomWalkMiner.getSmoothedPersonalization(randomWalkMiner.getContextualEgoNetwork().getCurrentContext());
+			for(long pos=0;pos<expected.size();pos++)
+				Assert.assertEquals(estimate.get(pos), expected.get(pos), 0.02);
+		}
+	}
+	
+	@Test
+	public void randomWalkSamplingErrorShouldAverageOutOverUpdates() {
+		Device[] devices = new Device[3];
+		for(int device=0;device<devices.length;device++)
+			devices[device] = new Device(new InspectableRandomWalkPPRMiner(createCEN("average", device), createRandomPersonalization(device)).setSeed(device));
+		devices[0].send(devices[1]);
+		devices[2].send(devices[0]);
+		InspectableRandomWalkPPRMiner miner = (InspectableRandomWalkPPRMiner)devices[0].getMiner();
+		Context context = miner.getContextualEgoNetwork().getCurrentContext();
+		int numUpdates = 500;
+		Tensor error = new DenseTensor(3);
+		for(int update=0;update<numUpdates;update++) {
+			devices[1].send(devices[0]);
+			error.selfAdd(miner.getSmoothedPersonalization(context).subtract(miner.smoothExactly(context)));
+		}
+		for(long pos=0;pos<error.size();pos++)
+			Assert.assertEquals(error.get(pos)/numUpdates, 0, 0.015);
+	}
+	
+	@Test
+	public void randomWalkEstimateShouldHaveAtMostOneNonZeroPerWalk() {
+		Device[] devices = new Device[4];
+		for(int device=0;device<devices.length;device++)
+			devices[device] = new Device(new RandomWalkPPRMiner("ppr", createCEN("histogram", device), createSparsePersonalization(device, true))
+					.setNumWalks(5)
+					.setSeed(device));
+		interact(devices);
+		for(Device device : devices) {
+			PPRMiner miner = (PPRMiner)device.getMiner();
+			Tensor estimate = miner.getSmoothedPersonalization(miner.getContextualEgoNetwork().getCurrentContext());
+			int nonZeros = 0;
+			for(long pos=0;pos<estimate.size();pos++)
+				if(Math.abs(estimate.get(pos))>1.E-9)
+					nonZeros += 1;
+			Assert.assertTrue(nonZeros<=5);
+		}
+	}
+	
+	@Test
+	public void incrementalNeighborScoreSumShouldMatchSumOverEdges() {
+		Device A = createPushDevice("A", 0, Transport.direct());
+		Device B = createPushDevice("B", 0, Transport.direct());
+		Device C = createPushDevice("C", 0, Transport.direct());
+		InspectablePPRMiner minerA = (InspectablePPRMiner)A.getMiner();
+		InspectablePPRMiner minerB = (InspectablePPRMiner)B.getMiner();
+		Random random = new Random(1);
+		for(int round=0;round<300;round++) {
+			minerA.updatePersonalization(minerA.getContextualEgoNetwork().getCurrentContext(), createPersonalization(random.nextDouble()));
+			minerB.updatePersonalization(minerB.getContextualEgoNetwork().getCurrentContext(), createPersonalization(random.nextDouble()));
+			A.send(B);
+			C.send(A);
+			B.send(A);
+			if(round%50==0)
+				assertScoreSumMatchesEdges(minerA);
+		}
+		assertScoreSumMatchesEdges(minerA);
+		// new edges should be accounted for too
+		Device D = createPushDevice("D", 0, Transport.direct());
+		D.send(A);
+		assertScoreSumMatchesEdges(minerA);
+		for(int round=0;round<10;round++) {
+			minerB.updatePersonalization(minerB.getContextualEgoNetwork().getCurrentContext(), createPersonalization(random.nextDouble()));
+			B.send(A);
+			A.send(D);
+		}
+		assertScoreSumMatchesEdges(minerA);
+	}
+	
+	@Test
+	public void sparsePersonalizationShouldMatchDensePersonalization() {
+		int numDevices = 4;
+		Device[] denseDevices = new Device[numDevices];
+		Device[] sparseDevices = new Device[numDevices];
+		for(int device=0;device<numDevices;device++) {
+			denseDevices[device] = new Device(new PPRMiner("ppr", createCEN("dense", device), createSparsePersonalization(device, false)));
+			sparseDevices[device] = new Device(new PPRMiner("ppr", createCEN("sparse", device), createSparsePersonalization(device, true)));
+		}
+		interact(denseDevices);
+		interact(sparseDevices);
+		for(int device=0;device<numDevices;device++) {
+			PPRMiner denseMiner = (PPRMiner)denseDevices[device].getMiner();
+			PPRMiner sparseMiner = (PPRMiner)sparseDevices[device].getMiner();
+			Tensor expected = denseMiner.getSmoothedPersonalization(denseMiner.getContextualEgoNetwork().getCurrentContext());
+			Tensor smoothed = sparseMiner.getSmoothedPersonalization(sparseMiner.getContextualEgoNetwork().getCurrentContext());
+			Assert.assertEquals(smoothed.size(), expected.size());
+			for(long pos=0;pos<expected.size();pos++)
+				Assert.assertEquals(smoothed.get(pos), expected.get(pos), 1.E-12);
+		}
+	}
+	
+	@Test
+	public void encodingShouldRoundTrip() {
+		Tensor tensor = new SparseTensor(1000);
+		tensor.put(0, 0.1);
+		tensor.put(17, -3.25E-7);
+		tensor.put(999, 1./3);
+		String encoded = SparseVectors.encode(tensor);
+		Assert.assertEquals(encoded, SparseVectors.encode(new DenseTensor(1000).selfAdd(tensor)));
+		Tensor sparseDecoded = SparseVectors.decode(encoded, new SparseTensor(1000).put(5, 1));
+		Tensor denseDecoded = SparseVectors.decode(encoded, new DenseTensor(1000).setToOnes());
+		for(long pos=0;pos<tensor.size();pos++) {
+			Assert.assertEquals(sparseDecoded.get(pos), tensor.get(pos), 0);
+			Assert.assertEquals(denseDecoded.get(pos), tensor.get(pos), 0);
+		}
+		Tensor zeros = SparseVectors.decode(SparseVectors.encode(new SparseTensor(10)), new DenseTensor(10).setToOnes());
+		Assert.assertEquals(zeros.norm(), 0, 0);
+	}
+	
+	@Test(expected = Exception.class)
+	public void decodingShouldRejectMismatchedSizes() {
+		Utils.development = true;
+		SparseVectors.decode(SparseVectors.encode(new SparseTensor(10)), new SparseTensor(5));
+	}
+	
+	@Test
+	public void batchedRecommendationsShouldMatchPerNodePredictions() {
+		int numDevices = 5;
+		Device[] devices = new Device[numDevices];
+		for(int device=0;device<numDevices;device++)
+			devices[device] = new Device(new PPRMiner("ppr", createCEN("batch", device), createRandomPersonalization(device)));
+		interact(devices);
+		for(int device=0;device<numDevices;device++) {
+			PPRMiner miner = (PPRMiner)devices[device].getMiner();
+			Context context = miner.getContextualEgoNetwork().getCurrentContext();
+			HashMap<Node, Double> recommendations = miner.recommendInteractions(context);
+			int numPredicted = 0;
+			for(Node node : context.getNodes()) {
+				if(node==miner.getContextualEgoNetwork().getEgo())
+					continue;
+				double prediction = miner.predictNewInteraction(context, node);
+				if(!Double.isFinite(prediction) || prediction==0) {
+					Assert.assertFalse(recommendations.containsKey(node));
+					continue;
+				}
+				Assert.assertEquals(recommendations.get(node), prediction, 0);
+				numPredicted += 1;
+			}
+			Assert.assertTrue(numPredicted>0);
+			Assert.assertEquals(recommendations.size(), numPredicted);
+		}
+	}
+	
+	@Test
+	public void normalizedEdgeScoresShouldRefreshOnNewScores() {
+		Device A = createPushDevice("A", 0, Transport.direct());
+		Device B = createPushDevice("B", 0, Transport.direct());
+		InspectablePPRMiner minerA = (InspectablePPRMiner)A.getMiner();
+		InspectablePPRMiner minerB = (InspectablePPRMiner)B.getMiner();
+		A.send(B);
+		Edge edge = minerA.getContextualEgoNetwork().getCurrentContext().getEdge(
+				minerA.getContextualEgoNetwork().getEgo(), minerA.getContextualEgoNetwork().getOrCreateNode("B", null));
+		Tensor previous = minerA.getCachedNormalizedEdgeScore(edge).copy();
+		Assert.assertSame(minerA.getCachedNormalizedEdgeScore(edge), minerA.getCachedNormalizedEdgeScore(edge));
+		minerB.updatePersonalization(minerB.getContextualEgoNetwork().getCurrentContext(), createPersonalization(1));
+		A.send(B);
+		Tensor refreshed = minerA.getCachedNormalizedEdgeScore(edge);
+		Tensor expected = minerA.getEdgeScore(edge).normalized().setToProbability();
+		Assert.assertTrue(SparseVectors.distance(refreshed, previous)>0);
+		for(long pos=0;pos<expected.size();pos++)
+			Assert.assertEquals(refreshed.get(pos), expected.get(pos), 1.E-12);
+	}
+	
+	@Test
+	public void defaultPersonalizationShouldReachContextsOnNextUse() {
+		InspectablePPRMiner miner = new InspectablePPRMiner(createCEN("personalization", 0), createPersonalization(1));
+		Context context = miner.getContextualEgoNetwork().getOrCreateContext("default");
+		Assert.assertEquals(miner.getPersonalization(context).get(0), 1, 0);
+		miner.updatePersonalization(createPersonalization(0.25));
+		Assert.assertEquals(miner.peekPersonalization(context).get(0), 1, 0);
+		Assert.assertEquals(miner.getPersonalization(context).get(0), 0.25, 0);
+		Assert.assertEquals(miner.peekPersonalization(context).get(0), 0.25, 0);
+	}
+	
+	@Test
+	public void contextPersonalizationShouldSurviveDefaultUpdatesUntilReset() {
+		InspectablePPRMiner miner = new InspectablePPRMiner(createCEN("personalization", 0), createPersonalization(1));
+		Context context = miner.getContextualEgoNetwork().getOrCreateContext("default");
+		Context otherContext = miner.getContextualEgoNetwork().getOrCreateContext("other");
+		miner.updatePersonalization(context, createPersonalization(0.5));
+		miner.updatePersonalization(createPersonalization(0.25));
+		miner.updatePersonalization(createPersonalization(0.75));
+		Assert.assertEquals(miner.getPersonalization(context).get(0), 0.5, 0);
+		Assert.assertEquals(miner.getPersonalization(otherContext).get(0), 0.75, 0);
+		miner.resetPersonalization(context);
+		Assert.assertEquals(miner.getPersonalization(context).get(0), 0.75, 0);
+		miner.updatePersonalization(createPersonalization(0));
+		Assert.assertEquals(miner.getPersonalization(context).get(0), 0, 0);
+	}
 }
@@ -0,0 +1,71 @@
+package eu.h2020.helios_social.modules.socialgraphmining.tests;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import eu.h2020.helios_social.core.contextualegonetwork.ContextualEgoNetwork;
+import eu.h2020.helios_social.core.contextualegonetwork.storage.NoStorage;
+import eu.h2020.helios_social.modules.socialgraphmining.TF.TFMiner;
+import eu.h2020.helios_social.modules.socialgraphmining.experiments.simulation.Device;
+import eu.h2020.helios_social.modules.socialgraphmining.experiments.simulation.SimulatedNetwork;
+import eu.h2020.helios_social.modules.socialgraphmining.experiments.simulation.SimulatedNetwork.LinkProfile;
+import eu.h2020.helios_social.modules.socialgraphmining.experiments.simulation.SimulatedNetwork.TrafficCounter;
+
+import org.junit.Assert;
+
+public class SimulatedNetworkTest extends BaseMinerTestFunctionalities {
+
+	private static Device createDevice(String name, SimulatedNetwork network) {
+		return new Device(new TFMiner(ContextualEgoNetwork.createOrLoad(new NoStorage("NOFILESYSTEM\\"), name, null)), network);
+	}
+
+	@Test
+	public void virtualClockShouldAdvanceByLatencies() {
+		SimulatedNetwork network = new SimulatedNetwork(new LinkProfile(10, 0, 0, 0), 0);
+		Device A = createDevice("A", network);
+		Device B = createDevice("B", network);
+		network.advance(5);
+		Assert.assertEquals(network.getTime(), 5, 0);
+		A.send(B);
+		Assert.assertEquals(network.getTime(), 25, 1.E-9);
+		Assert.assertEquals(network.getAverageDelay(), 10, 1.E-9);
+		Assert.assertEquals(network.getDeliveredTraffic().getMessages(), 2);
+	}
+
+	@Test
+	public void droppedMessagesShouldBeAccounted() {
+		SimulatedNetwork network = new SimulatedNetwork(new LinkProfile(10, 0, 0, 0), 0)
+				.setLinkProfile("A", "B", new LinkProfile(10, 0, 0, 1));
+		Device A = createDevice("A", network);
+		Device B = createDevice("B", network);
+		A.send(B);
+		Assert.assertEquals(network.getSentTraffic().getMessages(), 1);
+		Assert.assertEquals(network.getDroppedTraffic().getMessages(), 1);
+		Assert.assertEquals(network.getDeliveredTraffic().getMessages(), 0);
+		Assert.assertEquals(network.getDroppedTraffic().getBytes(), network.getSentTraffic().getBytes());
+		Assert.assertEquals(network.getTime(), 0, 0);
+		B.send(A);
+		Assert.assertEquals(network.getSentTraffic().getMessages(), 3);
+		Assert.assertEquals(network.getDroppedTraffic().getMessages(), 2);
+		Assert.assertEquals(network.getDeliveredTraffic().getMessages(), 1);
+		Assert.assertEquals(network.getTime(), 10, 1.E-9);
+	}
+
+	@Test
+	public void trafficShouldBeCountedPerDeviceAndKey() {
+		SimulatedNetwork network = new SimulatedNetwork(new LinkProfile(10, 0, 0, 0), 0).setKeyAccounting(true);
+		Device A = createDevice("A", network);
+		Device B = createDevice("B", network);
+		A.send(B);
+		A.send(B);
+		Map<String, TrafficCounter> deviceTraffic = network.getDeviceTraffic();
+		Assert.assertEquals(deviceTraffic.get("A").getMessages(), 2);
+		Assert.assertEquals(deviceTraffic.get("B").getMessages(), 2);
+		Assert.assertEquals(deviceTraffic.get("A").getBytes()+deviceTraffic.get("B").getBytes(), network.getSentTraffic().getBytes());
+		Map<String, TrafficCounter> keyTraffic = network.getKeyTraffic();
+		Assert.assertEquals(keyTraffic.get("embedding").getMessages(), 4);
+		Assert.assertEquals(keyTraffic.get("edges").getMessages(), 4);
+		Assert.assertTrue(keyTraffic.get("embedding").getBytes()>0);
+	}
+}
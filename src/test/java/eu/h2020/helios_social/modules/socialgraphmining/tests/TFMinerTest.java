@@ -0,0 +1,299 @@
+package eu.h2020.helios_social.modules.socialgraphmining.tests;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import eu.h2020.helios_social.core.contextualegonetwork.Context;
+import eu.h2020.helios_social.core.contextualegonetwork.ContextualEgoNetwork;
+import eu.h2020.helios_social.core.contextualegonetwork.Edge;
+import eu.h2020.helios_social.core.contextualegonetwork.Interaction;
+import eu.h2020.helios_social.core.contextualegonetwork.Node;
+import eu.h2020.helios_social.core.contextualegonetwork.storage.NoStorage;
+import eu.h2020.helios_social.modules.socialgraphmining.TF.ContextIdSpace;
+import eu.h2020.helios_social.modules.socialgraphmining.TF.EdgeListCodec;
+import eu.h2020.helios_social.modules.socialgraphmining.TF.EdgeWeightStore;
+import eu.h2020.helios_social.modules.socialgraphmining.TF.LongHashSet;
+import eu.h2020.helios_social.modules.socialgraphmining.TF.TFMiner;
+import eu.h2020.helios_social.modules.socialgraphmining.experiments.simulation.Device;
+import eu.h2020.helios_social.modules.socialgraphmining.experiments.simulation.Transport;
+import mklab.JGNN.core.Matrix;
+
+import org.junit.Assert;
+
+public class TFMinerTest extends BaseMinerTestFunctionalities {
+
+	private static class InspectableTFMiner extends TFMiner {
+		public InspectableTFMiner(ContextualEgoNetwork contextualEgoNetwork) {
+			super(contextualEgoNetwork);
+		}
+		public double getEdgeWeight(Context context, Edge edge) {
+			return getEdgeWeights(context).get(edge);
+		}
+		public Object[] getParameters(Context context) {
+			ContextModel contextModel = getContextModel(context);
+			return new Object[] {contextModel.getDistMult(), contextModel.getW1(), contextModel.getW2()};
+		}
+		public Matrix getEmbeddings(Context context) {
+			return getContextModel(context).getEmbeddings();
+		}
+		public Matrix getAdjacency(Context context) {
+			return getContextModel(context).getAdjacency();
+		}
+		public long getCapacity(Context context) {
+			return getContextModel(context).getCapacity();
+		}
+		public int getId(Context context, Node node) {
+			return getContextModel(context).getId(node);
+		}
+		public void synchronize(Context context) {
+			synchronizeContextModel(context);
+		}
+	}
+
+	private static class DroppingTransport extends Transport {
+		private boolean drop = false;
+		@Override
+		public boolean transmit(Device sender, Device receiver, String parameters) {
+			return !drop;
+		}
+	}
+
+	private static Device createDevice(String name) {
+		return createDevice(name, Transport.direct());
+	}
+
+	private static Device createDevice(String name, Transport transport) {
+		return new Device(new InspectableTFMiner(ContextualEgoNetwork.createOrLoad(new NoStorage("NOFILESYSTEM\\"), name, null)), transport);
+	}
+
+	private static EdgeListCodec.Message getSentEdges(Device sender, Device receiver) {
+		ContextualEgoNetwork cen = sender.getMiner().getContextualEgoNetwork();
+		Edge edge = cen.getCurrentContext().getEdge(cen.getEgo(), cen.getOrCreateNode(receiver.getName(), null));
+		Interaction interaction = edge.getInteractions().get(edge.getInteractions().size()-1);
+		return EdgeListCodec.decode((String)((TFMiner)sender.getMiner()).constructModelParameterObject(interaction).get("edges"));
+	}
+
+	@Test
+	public void exchangeShouldKeepWeightsOfEarlierReceivedEdges() {
+		Device A = createDevice("A");
+		Device B = createDevice("B");
+		Device C = createDevice("C");
+		C.send(B);
+		for(int i=0;i<200;i++)
+			B.send(A);
+		ContextualEgoNetwork cen = A.getMiner().getContextualEgoNetwork();
+		Context context = cen.getCurrentContext();
+		Edge edge = context.getEdge(cen.getOrCreateNode("C", null), cen.getOrCreateNode("B", null));
+		Assert.assertNotNull(edge);
+		Assert.assertTrue(((InspectableTFMiner)A.getMiner()).getEdgeWeight(context, edge)>0);
+	}
+
+	@Test
+	public void codecShouldRoundTripIdentifiersWithDashes() {
+		EdgeListCodec.Message message = new EdgeListCodec.Message(Long.MAX_VALUE, 3, 0, 2)
+				.addEdge("a-b", "c--d", 0.5)
+				.addEdge("c--d", "-", 1)
+				.addEdge("a-b", "-", 0.25);
+		EdgeListCodec.Message decoded = EdgeListCodec.decode(EdgeListCodec.encode(message));
+		Assert.assertEquals(decoded.getEpoch(), Long.MAX_VALUE);
+		Assert.assertEquals(decoded.getVersion(), 3);
+		Assert.assertEquals(decoded.getAckEpoch(), 0);
+		Assert.assertEquals(decoded.getAckVersion(), 2);
+		Assert.assertEquals(decoded.getNumEdges(), 3);
+		for(int i=0;i<message.getNumEdges();i++) {
+			Assert.assertEquals(decoded.getSrcId(i), message.getSrcId(i));
+			Assert.assertEquals(decoded.getDstId(i), message.getDstId(i));
+			Assert.assertEquals(decoded.getWeight(i), message.getWeight(i), 0);
+		}
+	}
+
+	@Test
+	public void edgesShouldBeResentAfterDroppedAck() {
+		DroppingTransport transport = new DroppingTransport();
+		Device A = createDevice("A", transport);
+		Device B = createDevice("B");
+		Device C = createDevice("C");
+		C.send(B);
+		transport.drop = true;
+		B.send(A);
+		Assert.assertEquals(getSentEdges(B, A).getNumEdges(), 2);
+		transport.drop = false;
+		B.send(A);
+		Assert.assertEquals(getSentEdges(B, A).getNumEdges(), 0);
+	}
+
+	@Test
+	public void longHashSetShouldGrowAndKeepValues() {
+		LongHashSet set = new LongHashSet();
+		for(long value=-500;value<500;value++)
+			Assert.assertTrue(set.add(value*31));
+		Assert.assertTrue(set.add(Long.MIN_VALUE));
+		Assert.assertFalse(set.add(Long.MIN_VALUE));
+		Assert.assertFalse(set.add(31));
+		Assert.assertEquals(set.size(), 1001);
+		for(long value=-500;value<500;value++) {
+			Assert.assertTrue(set.contains(value*31));
+			Assert.assertFalse(set.contains(value*31+1));
+		}
+		Assert.assertTrue(set.contains(Long.MIN_VALUE));
+		set.clear();
+		Assert.assertEquals(set.size(), 0);
+		Assert.assertFalse(set.contains(0));
+		Assert.assertFalse(set.contains(Long.MIN_VALUE));
+	}
+
+	@Test
+	public void edgeWeightStoreShouldRescaleWithoutLosingWeights() {
+		ContextualEgoNetwork cen = ContextualEgoNetwork.createOrLoad(new NoStorage("NOFILESYSTEM\\"), "A", null);
+		Edge edge = cen.getOrCreateContext("default").getOrAddEdge(cen.getEgo(), cen.getOrCreateNode("B", null));
+		EdgeWeightStore store = new EdgeWeightStore().setPruning(0, 1);
+		store.set(edge, 1);
+		for(int i=0;i<400;i++)
+			store.decay(0.5);
+		Assert.assertEquals(store.get(edge)/Math.pow(0.5, 400), 1, 1.E-9);
+		store.add(edge, 1);
+		Assert.assertEquals(store.get(edge), 1, 1.E-9);
+	}
+
+	@Test
+	public void edgeWeightStoreShouldPruneDecayedEdges() {
+		ContextualEgoNetwork cen = ContextualEgoNetwork.createOrLoad(new NoStorage("NOFILESYSTEM\\"), "A", null);
+		Context context = cen.getOrCreateContext("default");
+		Edge strong = context.getOrAddEdge(cen.getEgo(), cen.getOrCreateNode("B", null));
+		Edge weak = context.getOrAddEdge(cen.getEgo(), cen.getOrCreateNode("C", null));
+		EdgeWeightStore store = new EdgeWeightStore().setPruning(1.E-3, 2);
+		store.set(strong, 1);
+		store.set(weak, 1.E-2);
+		store.decay(0.5);
+		Assert.assertEquals(store.size(), 2);
+		store.decay(0.1);
+		Assert.assertEquals(store.size(), 1);
+		Assert.assertEquals(store.get(weak), 0, 0);
+		Assert.assertEquals(store.get(strong), 0.05, 1.E-12);
+	}
+
+	@Test
+	public void contextIdSpaceShouldReuseAndCompactIdentifiers() {
+		ContextualEgoNetwork cen = ContextualEgoNetwork.createOrLoad(new NoStorage("NOFILESYSTEM\\"), "A", null);
+		Node a = cen.getOrCreateNode("a", null);
+		Node b = cen.getOrCreateNode("b", null);
+		Node c = cen.getOrCreateNode("c", null);
+		Node d = cen.getOrCreateNode("d", null);
+		ContextIdSpace ids = new ContextIdSpace();
+		Assert.assertEquals(ids.getOrCreateId(a), 0);
+		Assert.assertEquals(ids.getOrCreateId(b), 1);
+		Assert.assertEquals(ids.getOrCreateId(c), 2);
+		Assert.assertTrue(ids.release(b));
+		Assert.assertFalse(ids.release(b));
+		Assert.assertFalse(ids.isAssigned(1));
+		Assert.assertEquals(ids.getOrCreateId(d), 1);
+		Assert.assertTrue(ids.release(a));
+		int[] mapping = ids.compact();
+		Assert.assertArrayEquals(mapping, new int[] {-1, 0, 1});
+		Assert.assertEquals(ids.getId(a), -1);
+		Assert.assertEquals(ids.getId(d), 0);
+		Assert.assertEquals(ids.getId(c), 1);
+		Assert.assertEquals(ids.getIdBound(), 2);
+		Assert.assertEquals(ids.size(), 2);
+		Assert.assertEquals(ids.getOrCreateId(a), 2);
+	}
+
+	@Test
+	public void contextModelShouldPersistParametersAndGrowEmbeddings() {
+		Device A = createDevice("A");
+		InspectableTFMiner miner = (InspectableTFMiner)A.getMiner();
+		ContextualEgoNetwork cen = miner.getContextualEgoNetwork();
+		Context context = cen.getCurrentContext();
+		Device[] alters = new Device[40];
+		for(int i=0;i<alters.length;i++)
+			alters[i] = createDevice("N"+i);
+		for(int i=0;i<13;i++)
+			alters[i].send(A);
+		Object[] parameters = miner.getParameters(context);
+		Matrix embeddings = miner.getEmbeddings(context);
+		long capacity = miner.getCapacity(context);
+		Assert.assertNotNull(embeddings);
+		Assert.assertEquals(embeddings.getRows(), capacity);
+		for(int i=0;i<13;i++)
+			alters[i].send(A);
+		for(int i=0;i<parameters.length;i++)
+			Assert.assertSame(miner.getParameters(context)[i], parameters[i]);
+		Assert.assertSame(miner.getEmbeddings(context), embeddings);
+		int numAlters = (int)capacity+4;
+		for(int i=13;i<numAlters;i++)
+			alters[i].send(A);
+		for(int i=0;i<parameters.length;i++)
+			Assert.assertSame(miner.getParameters(context)[i], parameters[i]);
+		Assert.assertTrue(miner.getCapacity(context)>capacity);
+		Assert.assertTrue(miner.getEmbeddings(context).getRows()>capacity);
+		for(int i=0;i<numAlters;i++) {
+			double prediction = miner.predictNewInteraction(context, cen.getOrCreateNode("N"+i, null));
+			Assert.assertTrue(Double.isFinite(prediction));
+			Assert.assertTrue(prediction!=0);
+		}
+	}
+
+	@Test
+	public void edgeLogCompactionShouldResendAllEdges() {
+		Device A = createDevice("A");
+		Device B = createDevice("B");
+		ContextualEgoNetwork cen = A.getMiner().getContextualEgoNetwork();
+		Context context = cen.getCurrentContext();
+		int numAlters = 70;
+		for(int i=0;i<numAlters;i++)
+			createDevice("N"+i).send(A);
+		A.send(B);
+		EdgeListCodec.Message acknowledged = getSentEdges(A, B);
+		Assert.assertEquals(acknowledged.getNumEdges(), 0);
+		for(int i=0;i<numAlters;i++)
+			context.removeNodeIfExists(cen.getOrCreateNode("N"+i, null));
+		EdgeListCodec.Message compacted = getSentEdges(A, B);
+		Assert.assertNotEquals(compacted.getEpoch(), acknowledged.getEpoch());
+		Assert.assertEquals(compacted.getVersion(), context.getEdges().size());
+		Assert.assertEquals(compacted.getNumEdges(), context.getEdges().size());
+		A.send(B);
+		Assert.assertEquals(getSentEdges(A, B).getNumEdges(), 0);
+	}
+
+	@Test
+	public void removingNodesShouldCompactContextModel() {
+		Device A = createDevice("A");
+		InspectableTFMiner miner = (InspectableTFMiner)A.getMiner();
+		ContextualEgoNetwork cen = miner.getContextualEgoNetwork();
+		Context context = cen.getCurrentContext();
+		int numAlters = 40;
+		int numSurvivors = 8;
+		for(int i=0;i<numAlters;i++)
+			createDevice("N"+i).send(A);
+		long capacity = miner.getCapacity(context);
+		Assert.assertTrue(capacity>=numAlters);
+		ArrayList<Node> survivors = new ArrayList<Node>();
+		survivors.add(cen.getEgo());
+		for(int i=numAlters-numSurvivors;i<numAlters;i++)
+			survivors.add(cen.getOrCreateNode("N"+i, null));
+		HashMap<Node, double[]> rows = new HashMap<Node, double[]>();
+		for(Node node : survivors) {
+			int id = miner.getId(context, node);
+			double[] row = new double[(int)miner.getEmbeddings(context).getCols()];
+			for(int dim=0;dim<row.length;dim++)
+				row[dim] = miner.getEmbeddings(context).get(id, dim);
+			rows.put(node, row);
+		}
+		for(int i=0;i<numAlters-numSurvivors && miner.getCapacity(context)==capacity;i++) {
+			context.removeNodeIfExists(cen.getOrCreateNode("N"+i, null));
+			miner.synchronize(context);
+		}
+		Assert.assertTrue(miner.getCapacity(context)<capacity);
+		Assert.assertEquals(miner.getEmbeddings(context).getRows(), miner.getCapacity(context));
+		Assert.assertEquals(miner.getAdjacency(context).getRows(), miner.getCapacity(context));
+		for(Node node : survivors) {
+			int id = miner.getId(context, node);
+			Assert.assertTrue(id>=0 && id<miner.getCapacity(context));
+			double[] row = rows.get(node);
+			for(int dim=0;dim<row.length;dim++)
+				Assert.assertEquals(miner.getEmbeddings(context).get(id, dim), row[dim], 0);
+		}
+	}
+}